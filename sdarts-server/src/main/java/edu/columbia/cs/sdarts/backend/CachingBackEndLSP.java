@@ -0,0 +1,179 @@
+package edu.columbia.cs.sdarts.backend;
+
+import java.io.IOException;
+
+import edu.columbia.cs.sdarts.common.LSPContentSummary;
+import edu.columbia.cs.sdarts.common.LSPMetaAttributes;
+import edu.columbia.cs.sdarts.common.LSPQuery;
+import edu.columbia.cs.sdarts.common.LSPResults;
+import edu.columbia.cs.sdarts.util.LRUCache;
+
+/**
+ * A <code>BackEndLSP</code> that remembers the results of recent queries
+ * and answers repeats of them without asking the back end it wraps. Any
+ * <code>BackEndLSP</code> can be wrapped; the
+ * {@link edu.columbia.cs.sdarts.frontend.FrontEndLSP FrontEndLSP} does so
+ * for every back end that has a <code>result-cache-size</code> in
+ * <code>sdarts_config.xml</code>.
+ * <p>
+ * Two queries are the same if they agree on everything that can change
+ * the answer: filter, ranking, answer fields, sort fields, minimum score,
+ * maximum documents, stop-word dropping and default attribute set. The
+ * list of sources is left out, since every source answers only for
+ * itself. The cache holds at most a fixed number of results, dropping the
+ * least recently used first, and a result older than the time-to-live is
+ * never returned.
+ * <p>
+ * If the wrapped back end is a
+ * {@link edu.columbia.cs.sdarts.backend.VersionedBackEndLSP VersionedBackEndLSP},
+ * each result is kept with the version of the collection it was computed
+ * from, and is only returned while the collection still has that version.
+ * So a collection that is re-indexed, whether in this server or offline,
+ * stops being answered from the cache as soon as the back end itself
+ * answers from the new index.
+ * <p>
+ * Cached <code>LSPResults</code> are handed to every caller that asks the
+ * same query, so callers must not modify them.
+ * @version 1.0
+ */
+public class CachingBackEndLSP implements BackEndLSP {
+  private BackEndLSP backEndLSP;
+  private LRUCache   cache;
+  private long       timeToLive;
+
+
+  // ------------ METHODS ------------
+  // -------- CONSTRUCTOR --------
+  /**
+   * Wraps an initialized back end.
+   * @param backEndLSP the back end to wrap; it must already be initialized
+   * @param maxSize the most results to cache
+   * @param timeToLive how many milliseconds a cached result stays good;
+   * 0 means until it is evicted, or the collection changes
+   */
+  public CachingBackEndLSP (BackEndLSP backEndLSP, int maxSize,
+                            long timeToLive) {
+    this.backEndLSP = backEndLSP;
+    this.cache      = new LRUCache (maxSize);
+    this.timeToLive = timeToLive;
+  }
+
+
+  // -------- QUERY --------
+  /**
+   * Answers the query from the cache if it has been asked recently of the
+   * same version of the collection, or else from the wrapped back end,
+   * caching the results.
+   * @param query the query
+   * @return the results
+   * @exception BackEndException if the wrapped back end fails
+   */
+  public LSPResults query (LSPQuery query) throws BackEndException {
+    String key = canonicalForm (query);
+    long now = System.currentTimeMillis();
+    // read before the query, so results are never newer than their version
+    long version = getVersion();
+    Entry entry = (Entry) cache.get (key);
+    if (entry != null) {
+      if (entry.version == version &&
+          (timeToLive <= 0 || now - entry.created < timeToLive)) {
+        return entry.results;
+      }
+      cache.remove (key);
+    }
+
+    LSPResults results = backEndLSP.query (query);
+    if (results != null) {
+      cache.put (key, new Entry (results, now, version));
+    }
+    return results;
+  }
+
+  /**
+   * Returns the hit and miss counts and size of the cache
+   * @return the cache statistics, for logging
+   */
+  public String getCacheStatistics () {
+    return cache.toString();
+  }
+
+  /**
+   * Returns the back end this one wraps
+   * @return the back end this one wraps
+   */
+  public BackEndLSP getBackEndLSP () {
+    return backEndLSP;
+  }
+
+
+  // -------- DELEGATED --------
+  public LSPMetaAttributes getMetaAttributes () throws BackEndException {
+    return backEndLSP.getMetaAttributes();
+  }
+
+  public LSPContentSummary getContentSummary () throws BackEndException {
+    return backEndLSP.getContentSummary();
+  }
+
+  public void initialize (String name, String description,
+                          String[] queryLanguages)
+    throws BackEndException {
+    backEndLSP.initialize (name, description, queryLanguages);
+    cache.clear();
+  }
+
+  public String getName () {
+    return backEndLSP.getName();
+  }
+
+  public String getDescription () {
+    return backEndLSP.getDescription();
+  }
+
+  public String[] getQueryLanguages () {
+    return backEndLSP.getQueryLanguages();
+  }
+
+
+  // -------- HELPER METHODS --------
+  /** The version of the wrapped collection, or 0 if it has none */
+  private long getVersion () throws BackEndException {
+    if (backEndLSP instanceof VersionedBackEndLSP) {
+      return ((VersionedBackEndLSP) backEndLSP).getVersion();
+    }
+    return 0;
+  }
+
+  /**
+   * The query's STARTS XML, without its sources. The query is parsed
+   * into the same objects whatever the spacing or attribute order of the
+   * original, so this is the same for any two queries that mean the same.
+   */
+  private static String canonicalForm (LSPQuery query)
+    throws BackEndException {
+    LSPQuery copy = (LSPQuery) query.clone();
+    copy.setSources (null);
+    try {
+      return copy.toXML();
+    }
+    catch (IOException e) {
+      throw new BackEndException (e.getMessage());
+    }
+  }
+
+
+  // ------------ INNER CLASSES ------------
+  // ----- One cached result, with the time it was cached and the version
+  // ----- of the collection it came from
+  private static class Entry {
+    LSPResults results;
+    long       created;
+    long       version;
+
+    Entry (LSPResults results, long created, long version) {
+      this.results = results;
+      this.created = created;
+      this.version = version;
+    }
+  }
+}
@@ -0,0 +1,21 @@
+package edu.columbia.cs.sdarts.backend;
+
+/**
+ * A <code>BackEndLSP</code> whose collection can change while the server
+ * is running - for example, a local collection that is re-indexed, in the
+ * server or offline - and that can tell when it has.
+ * {@link edu.columbia.cs.sdarts.backend.CachingBackEndLSP CachingBackEndLSP}
+ * uses the version to tell results of the current collection from results
+ * of an older one.
+ *
+ * @version 1.0
+ */
+public interface VersionedBackEndLSP extends BackEndLSP {
+  /**
+   * Returns a stamp of the collection that changes whenever the collection
+   * does. It should be cheap to call, as it is called for every query.
+   * @return the version of the collection
+   * @exception BackEndException if the version cannot be read
+   */
+  public long getVersion () throws BackEndException;
+}
@@ -2,6 +2,7 @@ package edu.columbia.cs.sdarts.backend.doc;
 
 import edu.columbia.cs.sdarts.backend.BackEndException;
 import edu.columbia.cs.sdarts.backend.BackEndLSPAdapter;
+import edu.columbia.cs.sdarts.backend.VersionedBackEndLSP;
 import edu.columbia.cs.sdarts.common.LSPContentSummary;
 import edu.columbia.cs.sdarts.common.LSPMetaAttributes;
 import edu.columbia.cs.sdarts.common.LSPQuery;
@@ -46,7 +47,8 @@ import edu.columbia.cs.sdarts.common.LSPResults;
  * @author <a href="mailto:ngreen@cs.columbia.edu">Noah Green</a>
  * @version 1.0
  */
-public abstract class DocBackEndLSP extends BackEndLSPAdapter {
+public abstract class DocBackEndLSP extends BackEndLSPAdapter
+  implements VersionedBackEndLSP {
   private DocSearchEngine searchEngine;
 
 
@@ -122,4 +124,13 @@ public abstract class DocBackEndLSP extends BackEndLSPAdapter {
   public LSPContentSummary getContentSummary() throws BackEndException {
     return (searchEngine.getContentSummary());
   }
+
+  /**
+   * Returns the version of the collection's index, as the search engine
+   * sees it
+   * @return the version of the collection
+   */
+  public long getVersion() throws BackEndException {
+    return (searchEngine.getVersion());
+  }
 }
\ No newline at end of file
@@ -13,6 +13,7 @@ import java.text.SimpleDateFormat;
  * This descriptor tells the <code>BackEndLSP</code> whether to re-index
  * the collection every time the <code>BackEndLSP</code> is instantiated
  * (re-indexing includes building a meta-attributes and content-summary),
+ * and whether to do so incrementally, only for the files that changed,
  * what paths to look for documents in, whether these paths are recursive,
  * what extensions the document filenames have, what is the linkage,
  * stopwords, etc.
@@ -29,6 +30,7 @@ import java.text.SimpleDateFormat;
  */
 public class DocConfig {
   private boolean               reIndex;
+  private boolean               incremental;
   private boolean               recursive;
   private String                backEndLSPName;
   private String[]              paths;
@@ -95,6 +97,25 @@ public class DocConfig {
     return reIndex;
   }
 
+  /**
+   * Sets whether re-indexing should only add, replace, and delete the
+   * documents whose files have changed since the last indexing, instead
+   * of rebuilding the whole index
+   * @param incremental whether re-indexing is incremental
+   */
+  public void setIncremental (boolean incremental) {
+    this.incremental = incremental;
+  }
+
+  /**
+   * Whether re-indexing should only add, replace, and delete the
+   * documents whose files have changed since the last indexing
+   * @return whether re-indexing is incremental
+   */
+  public boolean incremental () {
+    return incremental;
+  }
+
   /**
    * Set the filename extensions to look for in documents to index
    * @param extensions the extensions
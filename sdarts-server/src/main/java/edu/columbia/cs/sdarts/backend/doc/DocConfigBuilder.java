@@ -86,6 +86,7 @@ public class DocConfigBuilder {
 	private String       backEndLSPName;
 	private DocConfig    docConfig;
 	private UnsynchStack stack;
+	private UnsynchStack expressions;
 	private UnsynchStack paths;
 	private UnsynchStack extensions;
 	private UnsynchStack dateFormats;
@@ -99,6 +100,7 @@ public class DocConfigBuilder {
 		  
 		this.backEndLSPName  = backEndLSPName;
 		stack                = new UnsynchStack();
+		expressions          = new UnsynchStack();
 		paths                = new UnsynchStack();
 		extensions           = new UnsynchStack();
 		dateFormats          = new UnsynchStack();
@@ -135,11 +137,16 @@ public class DocConfigBuilder {
 			recursive = false;
 		}
 		boolean reIndex = true;
+		boolean incremental = false;
 		String reIndexString = attrs.getValue ("re-index");
 		if (reIndexString != null && reIndexString.equals ("false")) {
 		  reIndex = false;
 		}
+		else if (reIndexString != null && reIndexString.equals ("incremental")) {
+		  incremental = true;
+		}
 		docConfig = new DocConfig (reIndex, recursive);
+		docConfig.setIncremental (incremental);
 	  }
 	  else if (name.equals("classification_schema_path")){
 	  	state = CLASSIFICATION_SCHEMA_PATH;
@@ -254,6 +261,7 @@ public class DocConfigBuilder {
 		case REGEXP:
 		  try {
 			stack.push (new RE (value, RE.REG_MULTILINE, RESyntax.RE_SYNTAX_SED));
+			expressions.push (value);
 		  }
 		  catch (REException e) {
 			processException (e.getMessage());
@@ -332,8 +340,8 @@ public class DocConfigBuilder {
 			(DocFieldDescriptor) fieldDescriptors.peek();
 		  end = (RE) stack.pop();
 		  start = (RE) stack.pop();
-		  dfd.setStart (start);
-		  dfd.setEnd (end);
+		  dfd.setEnd (end, (String) expressions.pop());
+		  dfd.setStart (start, (String) expressions.pop());
 		break;
 
 		case STOP_WORDS:
@@ -28,6 +28,12 @@ public class DocConstants {
   /** The content-summary is always saved as "content_summary.xml" */
   public static final String CONTENT_SUMMARY_FILENAME = "content_summary.xml";
 
+  /** The binary copy of the content-summary is always saved as "content_summary.bin" */
+  public static final String CONTENT_SUMMARY_BINARY_FILENAME = "content_summary.bin";
+
+  /** The list of indexed files is always saved as "index_manifest.txt" */
+  public static final String INDEX_MANIFEST_FILENAME = "index_manifest.txt";
+
 
   private DocConstants() {}
 }
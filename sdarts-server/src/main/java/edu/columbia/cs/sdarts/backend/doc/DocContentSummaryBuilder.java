@@ -7,18 +7,22 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 
 import edu.columbia.cs.sdarts.backend.BackEndException;
+import edu.columbia.cs.sdarts.common.BinaryContentSummaryReader;
+import edu.columbia.cs.sdarts.common.BinaryContentSummaryWriter;
 import edu.columbia.cs.sdarts.common.LSPContentSummary;
 import edu.columbia.cs.sdarts.common.LSPContentSummaryBuilder;
+import edu.columbia.cs.sdarts.common.LSPContentSummaryWriter;
 import edu.columbia.cs.sdarts.common.STARTS;
 import edu.columbia.cs.sdarts.frontend.SDARTS;
 import edu.columbia.cs.sdarts.util.XMLWriter;
 
 /**
  * Saves and loads an {@link edu.columbia.cs.sdarts.common.LSPContentSummary LSPContentSummary}
- * as a flat STARTS XML file. It builds on its superclass, which already knows how
+ * as a flat STARTS XML file, with a compact binary copy next to it. It builds on its superclass, which already knows how
  * to turn the STARTS XML file into a <code>LSPContentSummary</code>. In this
  * package, the notion is that since the document collection is stored as text,
  * so should its content summary.
@@ -32,6 +36,13 @@ import edu.columbia.cs.sdarts.util.XMLWriter;
  * <code>LSPContentSummary</code> keeps its <code>doc_config.xml</code>
  * file: <code>SDARTS_HOME/config/<i>backEndLSPName</i></code>
  * <p>
+ * Loading reads the binary copy (see
+ * {@link edu.columbia.cs.sdarts.common.BinaryContentSummaryReader BinaryContentSummaryReader})
+ * when there is one at least as new as the XML file, which is much faster
+ * than parsing the XML. If the XML file is newer, for example because it was
+ * edited by hand, the XML is read instead. STARTS clients are always given
+ * the XML file.
+ * <p>
  * @author <a href="mailto:ngreen@cs.columbia.edu">Noah Green</a>
  * @version 1.0
  */
@@ -46,15 +57,13 @@ public class DocContentSummaryBuilder extends LSPContentSummaryBuilder {
    */
   public void save (String backEndLSPName, LSPContentSummary contentSummary)
   throws BackEndException {
-    String contentSummaryFilename =
-      SDARTS.CONFIG_DIRECTORY + File.separator + backEndLSPName + File.separator +
-      DocConstants.CONTENT_SUMMARY_FILENAME;
+    File contentSummaryFile = getFile (backEndLSPName);
 
     try {
       BufferedWriter bw =
         new BufferedWriter (
           new OutputStreamWriter (
-            new FileOutputStream (contentSummaryFilename), XMLWriter.ENCODING));
+            new FileOutputStream (contentSummaryFile), XMLWriter.ENCODING));
       XMLWriter w =
         new XMLWriter (bw,
                        new String[]
@@ -62,6 +71,102 @@ public class DocContentSummaryBuilder extends LSPContentSummaryBuilder {
       contentSummary.toXML (w);
       w.flush();
       w.close();
+
+      File binaryFile = getBinaryFile (backEndLSPName);
+      File tempFile = new File (binaryFile.getPath() + ".tmp");
+      OutputStream out = new FileOutputStream (tempFile);
+      try {
+        contentSummary.toBinary (out);
+      }
+      finally {
+        out.close();
+      }
+      replace (tempFile, binaryFile);
+    }
+    catch (IOException e) {
+      e.printStackTrace();
+      throw new BackEndException (e.getMessage());
+    }
+  }
+
+  /**
+   * Open the content summary file for writing one entry at a time, for
+   * summaries too large to build in memory first. The caller must
+   * <code>close()</code> the returned writer.
+   * @param backEndLSPName the name of the
+   * {@link edu.columbia.cs.sdarts.backend.BackEndLSP BackEndLSP} to whom the
+   * content summary belongs
+   * @param stemming whether the underlying collection supported stemming
+   * @param stopWords whether the underyling collection supports stop-words
+   * @param caseSensitive whether the underyling collection supports
+   * case-sensitive queries
+   * @param fields whether field names appear with the terms
+   * @param numDocs the number of documents in the underlying collection
+   * @return a writer onto the content summary file
+   * @exception BackEndException if the file cannot be opened
+   */
+  public LSPContentSummaryWriter openWriter (String backEndLSPName,
+                                             boolean stemming,
+                                             boolean stopWords,
+                                             boolean caseSensitive,
+                                             boolean fields, int numDocs)
+  throws BackEndException {
+    File contentSummaryFile = getFile (backEndLSPName);
+
+    try {
+      BufferedWriter bw =
+        new BufferedWriter (
+          new OutputStreamWriter (
+            new FileOutputStream (contentSummaryFile), XMLWriter.ENCODING));
+      XMLWriter w =
+        new XMLWriter (bw,
+                       new String[]
+                        {STARTS.NAMESPACE_NAME + ":scontent-summary"}, true);
+      return new LSPContentSummaryWriter (w, stemming, stopWords,
+                                          caseSensitive, fields, numDocs);
+    }
+    catch (IOException e) {
+      e.printStackTrace();
+      throw new BackEndException (e.getMessage());
+    }
+  }
+
+  /**
+   * Open the binary copy of the content summary for writing one entry at a
+   * time. It is written to a temporary file, which replaces the real one
+   * only when the returned writer is closed, so readers never see a partly
+   * written file. The caller must <code>close()</code> the returned writer.
+   * @param backEndLSPName the name of the
+   * {@link edu.columbia.cs.sdarts.backend.BackEndLSP BackEndLSP} to whom the
+   * content summary belongs
+   * @param stemming whether the underlying collection supported stemming
+   * @param stopWords whether the underyling collection supports stop-words
+   * @param caseSensitive whether the underyling collection supports
+   * case-sensitive queries
+   * @param fields whether field names appear with the terms
+   * @param numDocs the number of documents in the underlying collection
+   * @return a writer onto the binary content summary file
+   * @exception BackEndException if the file cannot be opened
+   */
+  public BinaryContentSummaryWriter openBinaryWriter (String backEndLSPName,
+                                                      boolean stemming,
+                                                      boolean stopWords,
+                                                      boolean caseSensitive,
+                                                      boolean fields,
+                                                      int numDocs)
+  throws BackEndException {
+    final File binaryFile = getBinaryFile (backEndLSPName);
+    final File tempFile = new File (binaryFile.getPath() + ".tmp");
+
+    try {
+      return new BinaryContentSummaryWriter
+        (new FileOutputStream (tempFile), stemming, stopWords, caseSensitive,
+         fields, numDocs) {
+        public void close () throws IOException {
+          super.close();
+          replace (tempFile, binaryFile);
+        }
+      };
     }
     catch (IOException e) {
       e.printStackTrace();
@@ -78,16 +183,25 @@ public class DocContentSummaryBuilder extends LSPContentSummaryBuilder {
    * @exception BackEndException if something goes wrong during loading
    */
   public LSPContentSummary load (String backEndLSPName) throws BackEndException {
-    String contentSummaryFilename =
-      SDARTS.CONFIG_DIRECTORY + File.separator + backEndLSPName + File.separator +
-      DocConstants.CONTENT_SUMMARY_FILENAME;
+    File contentSummaryFile = getFile (backEndLSPName);
+    File binaryFile = getBinaryFile (backEndLSPName);
+    if (binaryFile.exists() &&
+        binaryFile.lastModified() >= contentSummaryFile.lastModified()) {
+      try {
+        return new BinaryContentSummaryReader (binaryFile).toContentSummary();
+      }
+      catch (IOException e) {
+        System.out.println ("Could not read " + binaryFile + ", reading XML: " +
+                            e.getMessage());
+      }
+    }
 
       LSPContentSummary contentSummary = null;
       try {
         BufferedReader br =
           new BufferedReader (
             new InputStreamReader (
-              new FileInputStream (contentSummaryFilename)));
+              new FileInputStream (contentSummaryFile)));
         contentSummary = fromXML (br);
       }
       catch (IOException e) {
@@ -96,4 +210,38 @@ public class DocContentSummaryBuilder extends LSPContentSummaryBuilder {
 
     return contentSummary;
   }
+
+  /**
+   * Return the file an <code>LSPContentSummary</code> is saved in.
+   * @param backEndLSPName the name of the
+   * {@link edu.columbia.cs.sdarts.backend.BackEndLSP BackEndLSP} to whom the
+   * <code>LSPContentSummary</code> belongs
+   * @return the content summary file
+   */
+  public File getFile (String backEndLSPName) {
+    return new File (SDARTS.CONFIG_DIRECTORY + File.separator +
+                     backEndLSPName + File.separator +
+                     DocConstants.CONTENT_SUMMARY_FILENAME);
+  }
+
+  /**
+   * Return the file the binary copy of an <code>LSPContentSummary</code>
+   * is saved in.
+   * @param backEndLSPName the name of the
+   * {@link edu.columbia.cs.sdarts.backend.BackEndLSP BackEndLSP} to whom the
+   * <code>LSPContentSummary</code> belongs
+   * @return the binary content summary file
+   */
+  public File getBinaryFile (String backEndLSPName) {
+    return new File (SDARTS.CONFIG_DIRECTORY + File.separator +
+                     backEndLSPName + File.separator +
+                     DocConstants.CONTENT_SUMMARY_BINARY_FILENAME);
+  }
+
+  private static void replace (File tempFile, File file) throws IOException {
+    file.delete();
+    if (!tempFile.renameTo (file)) {
+      throw new IOException ("could not rename " + tempFile + " to " + file);
+    }
+  }
 }
\ No newline at end of file
@@ -39,6 +39,8 @@ public class DocFieldDescriptor {
 //  private int    code;
   private RE start;
   private RE end;
+  private String startExpression;
+  private String endExpression;
   private boolean skipStart;
   private boolean skipEnd;
 
@@ -97,6 +99,28 @@ public class DocFieldDescriptor {
     return start;
   }
 
+  /**
+   * Set the regular expression indicating where the field starts, along
+   * with the text it was compiled from
+   * @param start the regular expression
+   * @param expression the text of the regular expression, in the
+   * <code>sed</code> syntax of <code>gnu.regexp</code>
+   */
+  public void setStart (RE start, String expression) {
+    this.start = start;
+    this.startExpression = expression;
+  }
+
+  /**
+   * Return the text of the regular expression indicating where the field
+   * starts
+   * @return the text of the regular expression, or <code>null</code> if
+   * it was set without one
+   */
+  public String getStartExpression() {
+    return startExpression;
+  }
+
   /**
    * Set the regular expression indicating where the field starts
    * @param start the regular expression
@@ -113,6 +137,28 @@ public class DocFieldDescriptor {
     return end;
   }
 
+  /**
+   * Set the regular expression indicating where the field ends, along
+   * with the text it was compiled from
+   * @param end the regular expression
+   * @param expression the text of the regular expression, in the
+   * <code>sed</code> syntax of <code>gnu.regexp</code>
+   */
+  public void setEnd (RE end, String expression) {
+    this.end = end;
+    this.endExpression = expression;
+  }
+
+  /**
+   * Return the text of the regular expression indicating where the field
+   * ends
+   * @return the text of the regular expression, or <code>null</code> if
+   * it was set without one
+   */
+  public String getEndExpression() {
+    return endExpression;
+  }
+
   /**
    * Return whether this is a date field, by calling the
    * {@link edu.columbia.cs.sdarts.common.FieldNames#isDate(String) isDate()} method
@@ -55,4 +55,12 @@ public interface DocSearchEngine {
    */
   public abstract LSPContentSummary getContentSummary ()
     throws BackEndException;
+
+  /**
+   * Obtain a stamp of the collection that changes whenever the collection
+   * does, for example when it is re-indexed
+   * @return the version of the collection
+   */
+  public abstract long              getVersion ()
+    throws BackEndException;
 }
@@ -0,0 +1,199 @@
+package edu.columbia.cs.sdarts.backend.doc.lucene;
+
+import java.io.CharArrayReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+import edu.columbia.cs.sdarts.backend.BackEndException;
+import edu.columbia.cs.sdarts.util.ByteBufferInputStream;
+
+/**
+ * The content of one file being indexed, read from disk exactly once.
+ * A {@link edu.columbia.cs.sdarts.backend.doc.lucene.DocumentEnum DocumentEnum}
+ * hands it out through
+ * {@link edu.columbia.cs.sdarts.backend.doc.lucene.DocumentEnum#getContent(File) getContent()},
+ * so that the parser in <code>createDocument()</code>, the token count,
+ * and the default body-of-text field all share the same bytes and the same
+ * text, instead of each opening the file again.
+ * <p>
+ * Files of at least {@link #MAP_THRESHOLD} bytes are memory-mapped.
+ * Smaller ones are read in a single call into a buffer that each thread
+ * keeps and reuses, so the bytes of a small file are only valid until the
+ * same thread reads another file. The text, decoded in the platform's
+ * default encoding the first time it is asked for, belongs to this
+ * object and may be handed on, for instance to a Lucene <code>Field</code>.
+ *
+ * @version 1.0
+ */
+public final class DocumentContent {
+  /** Files at least this big are memory-mapped rather than read */
+  public static final int MAP_THRESHOLD = 64 * 1024;
+
+  // a reusable read buffer for each thread
+  private static final ThreadLocal readBuffers = new ThreadLocal() {
+    protected Object initialValue () {
+      return ByteBuffer.allocate (MAP_THRESHOLD);
+    }
+  };
+
+  private File       file;
+  private ByteBuffer bytes;
+  private CharBuffer text;
+
+
+  /**
+   * Reads a file
+   * @param file the file
+   * @return its content
+   * @exception BackEndException if the file cannot be read
+   */
+  public static DocumentContent read (File file) throws BackEndException {
+    FileInputStream in = null;
+    try {
+      in = new FileInputStream (file);
+      FileChannel channel = in.getChannel();
+      long size = channel.size();
+      if (size > Integer.MAX_VALUE) {
+        throw new BackEndException ("file too large: " + file.getPath());
+      }
+      ByteBuffer bytes;
+      if (size >= MAP_THRESHOLD) {
+        // the mapping stays valid after the file is closed
+        bytes = channel.map (FileChannel.MapMode.READ_ONLY, 0, size);
+      }
+      else {
+        bytes = (ByteBuffer) readBuffers.get();
+        bytes.clear();
+        while (bytes.hasRemaining() && channel.read (bytes) != -1) {
+        }
+        bytes.flip();
+      }
+      return new DocumentContent (file, bytes);
+    }
+    catch (IOException e) {
+      throw new BackEndException (e.getMessage());
+    }
+    finally {
+      if (in != null) {
+        try {
+          in.close();
+        }
+        catch (IOException e) {
+        }
+      }
+    }
+  }
+
+  private DocumentContent (File file, ByteBuffer bytes) {
+    this.file  = file;
+    this.bytes = bytes;
+  }
+
+  /**
+   * Return the file this is the content of
+   * @return the file
+   */
+  public File getFile () {
+    return file;
+  }
+
+  /**
+   * Return the bytes of the file. The buffer is a read-only view of its
+   * own; reading from it does not affect other callers.
+   * @return the bytes of the file
+   */
+  public ByteBuffer getBytes () {
+    return bytes.asReadOnlyBuffer();
+  }
+
+  /**
+   * Return a stream over the bytes of the file
+   * @return a stream over the bytes of the file
+   */
+  public InputStream openStream () {
+    return new ByteBufferInputStream (getBytes());
+  }
+
+  /**
+   * Return the text of the file, decoded in the platform's default
+   * encoding. Malformed input is replaced, as an
+   * <code>InputStreamReader</code> would. The buffer is a view of its own.
+   * @return the text of the file
+   * @exception BackEndException if the text cannot be decoded
+   */
+  public synchronized CharBuffer getText () throws BackEndException {
+    if (text == null) {
+      CharsetDecoder decoder = Charset.defaultCharset().newDecoder()
+        .onMalformedInput (CodingErrorAction.REPLACE)
+        .onUnmappableCharacter (CodingErrorAction.REPLACE);
+      ByteBuffer in = getBytes();
+      CharBuffer out = CharBuffer.allocate
+        ((int) Math.ceil (in.remaining() * decoder.maxCharsPerByte()));
+      try {
+        CoderResult result = decoder.decode (in, out, true);
+        if (!result.isUnderflow()) {
+          result.throwException();
+        }
+        result = decoder.flush (out);
+        if (!result.isUnderflow()) {
+          result.throwException();
+        }
+      }
+      catch (CharacterCodingException e) {
+        throw new BackEndException (e.getMessage());
+      }
+      out.flip();
+      text = out;
+    }
+    return text.duplicate();
+  }
+
+  /**
+   * Return a reader over the text of the file, without copying it
+   * @return a reader over the text of the file
+   * @exception BackEndException if the text cannot be decoded
+   */
+  public Reader openReader () throws BackEndException {
+    CharBuffer chars = getText();
+    return new CharArrayReader (chars.array(),
+                                chars.arrayOffset() + chars.position(),
+                                chars.remaining());
+  }
+
+  /**
+   * Counts the tokens of the text: runs of characters other than spaces
+   * and line breaks, the same as a <code>StringTokenizer</code> splitting
+   * each line on spaces
+   * @return the number of tokens
+   * @exception BackEndException if the text cannot be decoded
+   */
+  public int countTokens () throws BackEndException {
+    CharBuffer chars = getText();
+    char[] array = chars.array();
+    int count = 0;
+    boolean inToken = false;
+    for (int i = chars.arrayOffset() + chars.position(),
+           limit = chars.arrayOffset() + chars.limit() ; i < limit ; i++) {
+      char c = array[i];
+      if (c == ' ' || c == '\n' || c == '\r') {
+        inToken = false;
+      }
+      else if (!inToken) {
+        inToken = true;
+        count++;
+      }
+    }
+    return count;
+  }
+}
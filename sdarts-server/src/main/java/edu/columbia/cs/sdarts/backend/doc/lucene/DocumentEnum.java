@@ -1,16 +1,16 @@
 package edu.columbia.cs.sdarts.backend.doc.lucene;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileFilter;
-import java.io.FileInputStream;
-import java.io.IOException;
-import java.io.InputStreamReader;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.Enumeration;
-import java.util.Stack;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.omg.CORBA.IntHolder;
 
@@ -36,6 +36,17 @@ import edu.columbia.cs.sdarts.common.FieldNames;
  * <li>Keep calling the {@link #getDocuments() getDocuments()} method,
  * until the {@link #isEmpty() isEmpty()} method returns <code>true</code>.
  * </ul>
+ * Alternatively, several threads at once can keep calling
+ * {@link #nextFile() nextFile()} until it returns <code>null</code>,
+ * passing each file to {@link #buildDocument(File) buildDocument()}.
+ * This is how the {@link edu.columbia.cs.sdarts.backend.doc.lucene.LuceneSetup LuceneSetup}
+ * parses a collection in parallel; an implementation of
+ * <code>createDocument()</code> must therefore be safe to call from
+ * several threads at once. Do not mix the two ways on one instance.
+ * <p>
+ * The collection's paths are searched for files in a single pass, by
+ * several threads in the background, and files are handed out as soon as
+ * they are found, so parsing starts long before the search is over.
  * This class reports its progress to <code>stdout</code> as it runs.
  * <p>
  * All of the above functionality, including the batching, understanding
@@ -52,7 +63,9 @@ import edu.columbia.cs.sdarts.common.FieldNames;
  * can understand, and the {@link #makeValue(String)} method, which will
  * replace illegal XML entities like &lt;, &gt;, and &amp; with their
  * encoded substitutes. You should use these methods frequently inside
- * an implementation of <code>createDocument()</code>.
+ * an implementation of <code>createDocument()</code>. It should read the
+ * file through {@link #getContent(File) getContent()}, so that the file is
+ * read only once, however many times its content is used.
  * <p>
  * Writing an implementation of this method is non-trivial and requires
  * knowledge of Lucene itself - visit <a href="http://www.lucene.com">the
@@ -81,57 +94,54 @@ public abstract class DocumentEnum {
 	 */
 	public static final int BATCH_SIZE = 200;
 
+	/**
+	 * How many threads list directories at once while the collection is
+	 * searched for files. Listing is mostly waiting on the disk (or the
+	 * network, for NFS), so this can be higher than the number of processors.
+	 */
+	public static final int WALKER_THREADS = 8;
+
 	// -------- DATA --------
 	private DocConfig docConfig;
-	private int iterations = 0;
-	//private File[] files;
-	private Stack directoryStack;
-	private Stack fileStack;
-	private FileFilter fileFilter;
-	private int numBatches;
-	private int fileIndex;
-	private int oddBatchSize;
+	private AtomicInteger iterations = new AtomicInteger();
+	private Walk walk;
+	private File pending;
+	private ThreadLocal contents = new ThreadLocal();  // of the file being built
+
+	/** Put on the queue of files found when the walk is over */
+	private static final File END_OF_FILES = new File("");
 
 	// ------------ METHODS ------------
 	/**
 	 * Create a new <code>DocumentEnum</code> and initialize it with
-	 * a <code>DocConfig</code>, which tells it how to parse the documents
+	 * a <code>DocConfig</code>, which tells it how to parse the documents.
+	 * This starts searching the collection's paths for files, in the
+	 * background; it returns as soon as the first file is found.
 	 * @param docConfig the <code>DocConfig</code> with which to initialize
+	 * @exception BackEndException if there are no files in the collection
 	 */
 	public final void initialize(DocConfig docConfig) throws BackEndException {
 		this.docConfig = docConfig;
-		this.directoryStack = new Stack();
-		this.fileStack=new Stack();
-
-		int numFiles = countFileList(docConfig.getPaths(), docConfig.getExtensions(), docConfig.recursive());
-		System.out.println("#Files:"+numFiles);
-
-		if (numFiles == 0) {
-			throw new BackEndException("no files to index");
+		synchronized (this) {
+			walk = new Walk(docConfig.getPaths(), docConfig.getExtensions(), docConfig.recursive());
+			pending = null;
 		}
 
-		numBatches = numFiles / BATCH_SIZE;
-		if (numBatches == 0) {
-			numBatches = 1;
-			oddBatchSize = numFiles;
-		} else {
-			oddBatchSize = (numFiles % BATCH_SIZE);
-			if (oddBatchSize == 0) {
-				oddBatchSize = BATCH_SIZE;
-			} else {
-				numBatches++;
-			}
+		if (isEmpty()) {
+			throw new BackEndException("no files to index");
 		}
 	}
 
 	/**
 	 * Whether the <code>DocumentBuilder</code> has run out of Lucene
-	 * <code>Documents</code> to return.
+	 * <code>Documents</code> to return. Waits, if need be, until either
+	 * another file is found or the search is over.
 	 * @return whether the <code>DocumentBuilder</code> has run out of Lucene
 	 * <code>Documents</code> to return.
 	 */
-	public boolean isEmpty() {
-		return (numBatches == 0);
+	public synchronized boolean isEmpty() {
+		File f = peekFile();
+		return (f == null || f == END_OF_FILES);
 	}
 
 	/**
@@ -145,47 +155,71 @@ public abstract class DocumentEnum {
 	/**
 	 * Load, parse, and return a batch of Lucene <code>Documents</code>
 	 * from the underlying collection.
-	 * @return another batch of Lucene <code>Documents</code>, or
-	 * <code>null</code> if the <code>DocumentEnum</code> has run out
-	 * of <code>Documents</code>.
+	 * @return another batch of at most <code>BATCH_SIZE</code> Lucene
+	 * <code>Documents</code>, or <code>null</code> if the
+	 * <code>DocumentEnum</code> has run out of <code>Documents</code>.
 	 * @exception BackEndException if something goes wrong
 	 */
 	public final Document[] getDocuments() throws BackEndException {
-		if (isEmpty()) {
+		Document[] documents = new Document[BATCH_SIZE];
+		int len = 0;
+		File f;
+		while (len < BATCH_SIZE && (f = nextFile()) != null) {
+			documents[len++] = buildDocument(f);
+		}
+		if (len == 0) {
 			return null;
 		}
+		if (len < BATCH_SIZE) {
+			Document[] temp = new Document[len];
+			System.arraycopy(documents, 0, temp, 0, len);
+			documents = temp;
+		}
+		return documents;
+	}
 
-		int len = 0;
-		if (numBatches == 1) {
-			len = oddBatchSize;
-		} else {
-			len = BATCH_SIZE;
+	/**
+	 * Return the next file in the collection to be parsed, waiting if it
+	 * has not been found yet. Safe to call from several threads at once;
+	 * each file is handed out only once.
+	 * @return the next file, or <code>null</code> if every file has
+	 * been handed out
+	 */
+	public final synchronized File nextFile() {
+		File f = peekFile();
+		if (f == null || f == END_OF_FILES) {
+			return null;
 		}
+		pending = null;
+		return f;
+	}
 
-		Document[] documents = new Document[len];
-		for (int i = 0; i < len; i++) {
-			//File f = files[fileIndex];
-			File f = this.getFile();
-			if (f==null) continue;
-			IntHolder holder = new IntHolder();
-			Document d= null;
+	/**
+	 * Parse one file of the collection into a Lucene <code>Document</code>,
+	 * filling in the default fields described above. Safe to call from
+	 * several threads at once, as long as <code>createDocument()</code> is.
+	 * @param f a file returned by <code>nextFile()</code>
+	 * @return the <code>Document</code>, or <code>null</code> if the file
+	 * could not be parsed
+	 * @exception BackEndException if the default fields cannot be filled in
+	 */
+	public final Document buildDocument(File f) throws BackEndException {
+		IntHolder holder = new IntHolder();
+		Document d= null;
+		try {
 			try { 
 				d = createDocument(f, holder);
 			} catch (Exception e) {
 				e.printStackTrace();
 			}
 			if (d!=null) {
-				documents[i] = postProcess(f, d, docConfig.getLinkagePrefix(), holder.value);
-			} else {
-				documents[i] = null;
+				d = postProcess(f, d, docConfig.getLinkagePrefix(), holder.value);
 			}
-			System.out.println(++iterations + ": read fields for " + f.getName());
-			fileIndex++;
+		} finally {
+			contents.set(null);
 		}
-
-		numBatches--;
-
-		return documents;
+		System.out.println(nextIteration() + ": read fields for " + f.getName());
+		return d;
 	}
 
 	/**
@@ -203,6 +237,25 @@ public abstract class DocumentEnum {
 	 */
 	public abstract Document createDocument(File file, IntHolder storeTokenCountHere) throws BackEndException;
 
+	/**
+	 * A helper method for implementations of <code>createDocument()</code>.
+	 * Returns the content of the file being parsed, reading it the first
+	 * time it is asked for. The content is kept until the
+	 * <code>Document</code> is built, so the default body-of-text field
+	 * uses it too rather than reading the file again.
+	 * @param file the file being parsed
+	 * @return its content
+	 * @exception BackEndException if the file cannot be read
+	 */
+	public final DocumentContent getContent(File file) throws BackEndException {
+		DocumentContent content = (DocumentContent) contents.get();
+		if (content == null || !content.getFile().equals(file)) {
+			content = DocumentContent.read(file);
+			contents.set(content);
+		}
+		return content;
+	}
+
 	/**
 	 * A helper method for implementations of <code>createDocument()</code>.
 	 * Turns an incoming <code>String</code> into a numerical format that
@@ -215,16 +268,19 @@ public abstract class DocumentEnum {
 		SimpleDateFormat[] formats = docConfig.getDateFormats();
 		long dateNum = -1;
 		int numFormats = formats.length;
-		for (int j = 0; j < numFormats; j++) {
-			try {
-				Date docDate = formats[j].parse(dateString);
-				dateNum = docDate.getTime();
-				break;
-			} catch (ParseException e) {
-				if (j == (numFormats - 1)) {
-					throw new BackEndException("Could not parse date format!");
-				} else {
-					continue;
+		// SimpleDateFormats are not thread-safe, and parser threads share them
+		synchronized (formats) {
+			for (int j = 0; j < numFormats; j++) {
+				try {
+					Date docDate = formats[j].parse(dateString);
+					dateNum = docDate.getTime();
+					break;
+				} catch (ParseException e) {
+					if (j == (numFormats - 1)) {
+						throw new BackEndException("Could not parse date format!");
+					} else {
+						continue;
+					}
 				}
 			}
 		}
@@ -279,6 +335,10 @@ public abstract class DocumentEnum {
 	}
 
 	// -------- HELPER METHODS --------
+	private int nextIteration() {
+		return iterations.incrementAndGet();
+	}
+
 	private final Document postProcess(File file, Document document, String linkagePrefix, int tokenCount) throws BackEndException {
 		boolean linkageSpecified = false;
 		boolean titleSpecified = false;
@@ -324,12 +384,7 @@ public abstract class DocumentEnum {
 
 		// If no body of text, use entire text
 		if (!bodySpecified) {
-			try {
-				BufferedReader bodyReader = new BufferedReader(new InputStreamReader(new FileInputStream(file)));
-				document.add(Field.Text(FieldNames.BODY_OF_TEXT, bodyReader));
-			} catch (IOException e) {
-				throw new BackEndException(e.getMessage());
-			}
+			document.add(Field.Text(FieldNames.BODY_OF_TEXT, getContent(file).openReader()));
 		}
 
 		// IMPORTANT STORE OTHER INFO THAT LSPDOC NEEDS
@@ -339,132 +394,135 @@ public abstract class DocumentEnum {
 		return document;
 	}
 
-	private int countFileList(String[] paths, final String[] extensions, final boolean recursive) {
-		//List files = new LinkedList();
-		int files = 0;
-
-		// Create filter if needed
-		//FilenameFilter filenameFilter = null;
-		this.fileFilter = null;
-		if (extensions != null) {
-			fileFilter = new FileFilter() {
-				public boolean accept(File file) {
-					if (recursive && file.isDirectory()) {
-						return true;
-					}
-					String name = file.getName(); 
-					int lastDot = name.lastIndexOf(".");
-					for (int i = 0; i < extensions.length; i++) {
-						if (lastDot == -1) {
-							if (extensions[i].equals(".")) {
-								return true;
-							}
-						} else if (name.substring(lastDot).equals(extensions[i])) {
-							return true;
-						}
-					}
-					return false;
+	/**
+	 * The next file, without handing it out; <code>END_OF_FILES</code> once
+	 * the search is over, or <code>null</code> if interrupted while waiting.
+	 * Call with the lock held.
+	 */
+	private File peekFile() {
+		if (pending == null) {
+			try {
+				pending = (File) walk.files.take();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		return pending;
+	}
+
+	// ------------ INNER CLASSES ------------
+	/**
+	 * One search of the collection's paths for files to index, in a single
+	 * pass. Each directory is listed by one of <code>WALKER_THREADS</code>
+	 * threads, which hands its subdirectories to the others and puts the
+	 * files that qualify on a queue as it finds them, so parsing can begin
+	 * right away. When every directory has been listed,
+	 * <code>END_OF_FILES</code> goes on the queue.
+	 */
+	private static class Walk {
+		final BlockingQueue files = new LinkedBlockingQueue();
+		private String[] extensions;
+		private boolean recursive;
+		private ExecutorService executor;
+		private int unlisted;  // directories not yet listed, guarded by this
+		private int numFiles;
+		private long start = System.currentTimeMillis();
+
+		Walk(String[] paths, String[] extensions, boolean recursive) {
+			this.extensions = extensions;
+			this.recursive = recursive;
+			this.executor = Executors.newFixedThreadPool(WALKER_THREADS, new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "DocumentEnum walker");
+					t.setDaemon(true);
+					return t;
 				}
-			};
-		} else {
-			fileFilter = new FileFilter() {
-				public boolean accept(File f) {
-					return true;
+			});
+
+			// count the paths as one directory, so the walk cannot end
+			// before they are all submitted
+			unlisted = 1;
+			for (int i = 0; i < paths.length; i++) {
+				File f = new File(paths[i]);
+				if (!f.exists()) {
+					System.err.println("Cannot find path:" + paths[i]);
+				} else if (f.isDirectory()) {
+					submit(f);
+				} else if (accepts(f.getName())) {
+					found(f);
 				}
-			};
+			}
+			listed();
 		}
 
-		// Iterate thru paths
-		int numPaths = paths.length;
-		//System.err.println("P:"+numPaths);
-				
-		int depth=1;
-		for (int i = 0; i < numPaths; i++) {
-			
-			File f = new File(paths[i]);
-			if (!f.exists())  {
-				System.err.println("Cannot find path:"+paths[i]);
-				continue;
+		private void submit(final File dir) {
+			synchronized (this) {
+				unlisted++;
 			}
-			if (f.isDirectory()) {
-				File[] qualifyingFiles = f.listFiles(this.fileFilter);
-				files += CountFiles(qualifyingFiles, this.fileFilter, recursive, depth);
-				this.directoryStack.push(f);
-			} else {
-				if (this.fileFilter.accept(f)) {
-					files++;
-				} else {
-					//System.out.println("File:"+f.getName()+" does not qualify");
+			executor.execute(new Runnable() {
+				public void run() {
+					list(dir);
 				}
-			}
+			});
 		}
 
-		return files;
-
-	}
-
-	private File getFile() {
-		
-		// First we try to get something from
-		// the list of available files, but if
-		// the FileStack is empty, we will fill it
-		// with files from the entries in DirectoryStack
-		while (this.fileStack.isEmpty()) {
-			if (!this.directoryStack.isEmpty()) {  
-				File dir = (File)directoryStack.pop();
-				File[] files = dir.listFiles(fileFilter);
-				for (int i=0; i<files.length; i++) {
-					if (files[i].isFile()) {
-						this.fileStack.push(files[i]);
+		private void list(File dir) {
+			try {
+				File[] entries = dir.listFiles();
+				if (entries == null) {
+					System.err.println("Cannot list directory:" + dir);
+					return;
+				}
+				for (int i = 0; i < entries.length; i++) {
+					File f = entries[i];
+					if (f.isDirectory()) {
+						if (recursive) {
+							submit(f);
+						}
+					} else if (accepts(f.getName())) {
+						found(f);
 					}
 				}
-			} else {
-				System.err.println("PANOS, 7/19/2003: This is an error!");
-				return null;
+			} finally {
+				listed();
 			}
 		}
-		
-		File f = (File)fileStack.pop();
-		return f;
-		
-	}
 
-	private int CountFiles(File[] files, FileFilter fileFilter, boolean recursive, int depth) {
-		int numFiles = 0;
-		for (int i = 0; i < files.length; i++) {
-			File f = files[i];
-			if (f.isDirectory() && recursive) {
-				System.out.print("Directory:"+f.getName());
-				this.directoryStack.push(f);
-				int n = CountFiles(f.listFiles(fileFilter), fileFilter, recursive, depth+1);
-				numFiles += n;
-				System.out.println(" has "+n+" files.");
-			} else if (!f.isDirectory() && f.exists()) {
+		private void found(File f) {
+			synchronized (this) {
 				numFiles++;
 			}
+			files.add(f);
+		}
+
+		private void listed() {
+			synchronized (this) {
+				if (--unlisted > 0) {
+					return;
+				}
+			}
+			executor.shutdown();
+			long stop = System.currentTimeMillis();
+			System.out.println("#Files:" + numFiles + " found in " + (stop - start) + " ms");
+			files.add(END_OF_FILES);
 		}
-		
-		return numFiles;
-		
-	}
 
-//	private List bfImpl(File[] files, FileFilter fileFilter, boolean recursive) {
-//		List fileList = new LinkedList();
-//		int numFiles = files.length;
-//		if (numFiles == 0) {
-//			return null;
-//		}
-//		for (int i = 0; i < numFiles; i++) {
-//			File f = files[i];
-//			if (f.isDirectory() && recursive) {
-//				List tmpList = bfImpl(f.listFiles(fileFilter), fileFilter, recursive);
-//				if (tmpList != null) {
-//					fileList.addAll(tmpList);
-//				}
-//			} else {
-//				fileList.add(f);
-//			}
-//		}
-//		return fileList;
-//	}
+		/** Whether a file's name has one of the extensions, if any were given */
+		private boolean accepts(String name) {
+			if (extensions == null) {
+				return true;
+			}
+			int lastDot = name.lastIndexOf(".");
+			for (int i = 0; i < extensions.length; i++) {
+				if (lastDot == -1) {
+					if (extensions[i].equals(".")) {
+						return true;
+					}
+				} else if (name.substring(lastDot).equals(extensions[i])) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
 }
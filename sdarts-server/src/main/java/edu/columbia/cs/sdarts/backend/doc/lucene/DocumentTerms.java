@@ -0,0 +1,176 @@
+package edu.columbia.cs.sdarts.backend.doc.lucene;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import com.lucene.analysis.Analyzer;
+import com.lucene.analysis.Token;
+import com.lucene.analysis.TokenStream;
+import com.lucene.document.DateField;
+import com.lucene.document.Document;
+import com.lucene.document.Field;
+
+import edu.columbia.cs.sdarts.common.FieldNames;
+import edu.columbia.cs.sdarts.common.LSPContentSummary;
+import edu.columbia.cs.sdarts.common.LSPField;
+import edu.columbia.cs.sdarts.common.STARTS;
+
+/**
+ * Keeps the terms of each document inside the Lucene index, so that the
+ * content summary can be corrected when the document is deleted. Lucene
+ * can only list the terms of the whole index, not those of one document,
+ * so for a collection that is re-indexed incrementally every document is
+ * stored with a {@link LuceneConstants#LUCENE_DOC_TERMS LUCENE_DOC_TERMS}
+ * field listing each indexed field, term, and term frequency.
+ * <p>
+ * The terms are found by analyzing the document exactly as the
+ * <code>IndexWriter</code> will, including its
+ * {@link LuceneConstants#MAX_FIELD_LENGTH limit} on the terms it takes from
+ * a field. The list is stored as field, term, and frequency, each followed
+ * by a NUL character.
+ *
+ * @version 1.0
+ */
+class DocumentTerms {
+  private static final char SEPARATOR = '\u0000';
+
+
+  /**
+   * Returns a copy of the document that also lists its terms. Fields read
+   * from a <code>Reader</code> are read into memory, since they have to be
+   * analyzed twice.
+   * @param document the document to be indexed
+   * @param analyzer the analyzer the index is built with
+   * @return the document, ready to be indexed
+   * @exception IOException if a field cannot be read
+   */
+  static Document addTerms (Document document, Analyzer analyzer)
+    throws IOException {
+    List fields = new ArrayList();
+    Map counts = new HashMap();     // field + SEPARATOR + term -> int[1]
+    Map positions = new HashMap();  // field -> int[1], as IndexWriter counts
+    for (Enumeration e = document.fields() ; e.hasMoreElements() ; ) {
+      Field f = (Field) e.nextElement();
+      String name = f.name();
+      if (f.readerValue() != null) {
+        f = new Field (name, read (f.readerValue()), false, true, true);
+      }
+      fields.add (f);
+      if (!f.isIndexed() || name.equals (LuceneConstants.LUCENE_DOC_PATH)) {
+        continue;
+      }
+
+      int[] position = (int[]) positions.get (name);
+      if (position == null) {
+        position = new int[1];
+        positions.put (name, position);
+      }
+      if (!f.isTokenized()) {
+        count (counts, name, f.stringValue());
+        position[0]++;
+        continue;
+      }
+      TokenStream tokens =
+        analyzer.tokenStream (new StringReader (f.stringValue()));
+      try {
+        for (Token t = tokens.next() ; t != null ; t = tokens.next()) {
+          count (counts, name, t.termText());
+          if (++position[0] > LuceneConstants.MAX_FIELD_LENGTH) {
+            break;
+          }
+        }
+      }
+      finally {
+        tokens.close();
+      }
+    }
+
+    // a Document lists its fields last added first
+    Document copy = new Document();
+    for (int i = fields.size() - 1 ; i >= 0 ; i--) {
+      copy.add ((Field) fields.get (i));
+    }
+    StringBuffer sb = new StringBuffer();
+    for (Iterator it = counts.keySet().iterator() ; it.hasNext() ; ) {
+      String key = (String) it.next();
+      sb.append (key).append (SEPARATOR);
+      sb.append (((int[]) counts.get (key))[0]).append (SEPARATOR);
+    }
+    copy.add (Field.UnIndexed (LuceneConstants.LUCENE_DOC_TERMS,
+                               sb.toString()));
+    return copy;
+  }
+
+  /**
+   * Adds the terms listed in a document to a content summary, or takes
+   * them away, and returns how many there were. Dates are turned into
+   * the standard STARTS format, as in the content summary itself.
+   * @param document a document returned by <code>addTerms()</code>, or
+   * read back from the index
+   * @param contentSummary the content summary to change
+   * @param sign 1 to add the document's terms, -1 to take them away
+   * @return the number of terms, or -1 if the document lists none
+   */
+  static int apply (Document document, LSPContentSummary contentSummary,
+                    int sign) {
+    String list = document.get (LuceneConstants.LUCENE_DOC_TERMS);
+    if (list == null) {
+      return -1;
+    }
+    int numTerms = 0;
+    int start = 0;
+    int length = list.length();
+    while (start < length) {
+      int end1 = list.indexOf (SEPARATOR, start);
+      int end2 = list.indexOf (SEPARATOR, end1 + 1);
+      int end3 = list.indexOf (SEPARATOR, end2 + 1);
+      String field = list.substring (start, end1);
+      String term  = list.substring (end1 + 1, end2);
+      int freq = Integer.parseInt (list.substring (end2 + 1, end3));
+      if (field.equals (FieldNames.DATE_LAST_MODIFIED)) {
+        term = STARTS.STANDARD_DATE_FORMAT.format (DateField.stringToDate (term));
+      }
+      contentSummary.addFreqs (new LSPField (field), term, sign * freq, sign);
+      numTerms++;
+      start = end3 + 1;
+    }
+    return numTerms;
+  }
+
+
+  // -------- HELPER METHODS --------
+  private static void count (Map counts, String field, String term) {
+    String key = field + SEPARATOR + term;
+    int[] count = (int[]) counts.get (key);
+    if (count == null) {
+      counts.put (key, new int[] {1});
+    }
+    else {
+      count[0]++;
+    }
+  }
+
+  private static String read (Reader reader) throws IOException {
+    StringBuffer sb = new StringBuffer();
+    char[] buffer = new char[8192];
+    try {
+      int n;
+      while ((n = reader.read (buffer)) != -1) {
+        sb.append (buffer, 0, n);
+      }
+    }
+    finally {
+      reader.close();
+    }
+    return sb.toString();
+  }
+
+  private DocumentTerms () {}
+}
@@ -0,0 +1,141 @@
+package edu.columbia.cs.sdarts.backend.doc.lucene;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The list of files in a Lucene index, with the size and modification
+ * time each had when it was indexed. The
+ * {@link edu.columbia.cs.sdarts.backend.doc.lucene.LuceneSetup LuceneSetup}
+ * keeps one next to the index of every collection that is re-indexed
+ * incrementally, and compares it with the files on disk to find out which
+ * documents to add, replace, and delete.
+ * <p>
+ * It is saved as a UTF-8 text file, one line per file: the modification
+ * time, a tab, the size, a tab, and the path.
+ *
+ * @version 1.0
+ */
+class IndexManifest {
+  private Map entries = new HashMap();  // path -> long[] {lastModified, length}
+
+
+  /**
+   * Reads a saved manifest
+   * @param file the manifest file
+   * @return the manifest
+   * @exception IOException if the file cannot be read or is garbled
+   */
+  static IndexManifest load (File file) throws IOException {
+    IndexManifest manifest = new IndexManifest();
+    BufferedReader in = new BufferedReader
+      (new InputStreamReader (new FileInputStream (file), "UTF-8"));
+    try {
+      String line;
+      while ((line = in.readLine()) != null) {
+        int tab1 = line.indexOf ('\t');
+        int tab2 = line.indexOf ('\t', tab1 + 1);
+        if (tab1 == -1 || tab2 == -1) {
+          throw new IOException ("bad line in " + file + ": " + line);
+        }
+        try {
+          manifest.put (line.substring (tab2 + 1),
+                        Long.parseLong (line.substring (0, tab1)),
+                        Long.parseLong (line.substring (tab1 + 1, tab2)));
+        }
+        catch (NumberFormatException e) {
+          throw new IOException ("bad line in " + file + ": " + line);
+        }
+      }
+    }
+    finally {
+      in.close();
+    }
+    return manifest;
+  }
+
+  /**
+   * Records a file as it is now. Safe to call from several threads.
+   * @param file the file
+   */
+  void put (File file) {
+    put (file.getPath(), file.lastModified(), file.length());
+  }
+
+  /**
+   * Records a file
+   * @param path the path of the file
+   * @param lastModified its modification time
+   * @param length its size
+   */
+  synchronized void put (String path, long lastModified, long length) {
+    entries.put (path, new long[] {lastModified, length});
+  }
+
+  /**
+   * Whether a file was recorded with this modification time and size
+   * @param path the path of the file
+   * @param lastModified its modification time now
+   * @param length its size now
+   * @return whether the file is recorded and unchanged
+   */
+  synchronized boolean isUnchanged (String path, long lastModified,
+                                    long length) {
+    long[] entry = (long[]) entries.get (path);
+    return entry != null && entry[0] == lastModified && entry[1] == length;
+  }
+
+  /**
+   * Whether a file is recorded
+   * @param path the path of the file
+   * @return whether the file is recorded
+   */
+  synchronized boolean contains (String path) {
+    return entries.containsKey (path);
+  }
+
+  /**
+   * Returns the paths of all recorded files
+   * @return the paths, as <code>Strings</code>
+   */
+  synchronized Set paths () {
+    return entries.keySet();
+  }
+
+  /**
+   * Saves the manifest. It is written to a temporary file first, which
+   * then replaces the old one.
+   * @param file the manifest file
+   * @exception IOException if it cannot be written
+   */
+  synchronized void save (File file) throws IOException {
+    File tempFile = new File (file.getPath() + ".tmp");
+    BufferedWriter out = new BufferedWriter
+      (new OutputStreamWriter (new FileOutputStream (tempFile), "UTF-8"));
+    try {
+      for (Iterator it = entries.keySet().iterator() ; it.hasNext() ; ) {
+        String path = (String) it.next();
+        long[] entry = (long[]) entries.get (path);
+        out.write (entry[0] + "\t" + entry[1] + "\t" + path);
+        out.newLine();
+      }
+    }
+    finally {
+      out.close();
+    }
+    file.delete();
+    if (!tempFile.renameTo (file)) {
+      throw new IOException ("could not rename " + tempFile + " to " + file);
+    }
+  }
+}
@@ -30,12 +30,41 @@ public class LuceneConstants {
   /** The default weight for a Lucene term */
   public static final double DEFAULT_WEIGHT = 1.5;
 
+  /** How many query terms each query processor keeps ready-made */
+  public static final int TERM_CACHE_SIZE = 10000;
+
+  /** How many threads parse documents while an index is built */
+  public static final int PARSER_THREADS =
+    Runtime.getRuntime().availableProcessors();
+
+  /** How many threads add parsed documents to the index while it is built */
+  public static final int WRITER_THREADS =
+    Math.max (1, Runtime.getRuntime().availableProcessors() / 2);
+
+  /** How many parsed documents may wait to be indexed */
+  public static final int INDEX_QUEUE_SIZE = DocumentEnum.BATCH_SIZE;
+
   /** Used for storing the document size in KB inside the Lucene index */
   public static final String LUCENE_DOC_SIZE  = "LUCENE_DOC_SIZE";
 
   /** Used for storing the document count inside the Lucene index */
   public static final String LUCENE_DOC_COUNT = "LUCENE_DOC_COUNT";
 
+  /**
+   * Used for storing the path of the document's file inside the Lucene
+   * index, for collections that are re-indexed incrementally
+   */
+  public static final String LUCENE_DOC_PATH  = "LUCENE_DOC_PATH";
+
+  /**
+   * Used for storing the document's terms inside the Lucene index, for
+   * collections that are re-indexed incrementally
+   */
+  public static final String LUCENE_DOC_TERMS = "LUCENE_DOC_TERMS";
+
+  /** The most terms indexed from one field of a document */
+  public static final int MAX_FIELD_LENGTH = 10000;
+
   /** The modifiers supported by Lucene */
   public static final String[] MODIFIERS_SUPPORTED =
     new String[] {ModifierNames.LT, ModifierNames.GT,
@@ -6,11 +6,10 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Set;
 import java.util.StringTokenizer;
 
@@ -20,7 +19,7 @@ import com.lucene.index.IndexReader;
 import com.lucene.index.Term;
 import com.lucene.index.TermDocs;
 import com.lucene.search.BooleanQuery;
-import com.lucene.search.Hits;
+import com.lucene.search.HitCollector;
 import com.lucene.search.IndexSearcher;
 import com.lucene.search.PhraseQuery;
 import com.lucene.search.Query;
@@ -44,6 +43,7 @@ import edu.columbia.cs.sdarts.common.LSPSortByField;
 import edu.columbia.cs.sdarts.common.LSPSource;
 import edu.columbia.cs.sdarts.common.LSPTerm;
 import edu.columbia.cs.sdarts.frontend.SDARTS;
+import edu.columbia.cs.sdarts.util.LRUCache;
 //import edu.columbia.cs.sdarts.util.XMLWriter;
 
 /**
@@ -59,7 +59,7 @@ import edu.columbia.cs.sdarts.frontend.SDARTS;
  * <li>Date queries are not working yet
  * <li>If the filter is <code>null</code>, it is replaced by the ranking
  * <li>The "termfreq" portion of the term-stats-list (see the STARTS spec)
- * is not working yet, and is always 0.
+ * counts occurrences of single-word terms only; phrases always report 0.
  * <li>No stemming (coming soon)
  * <li>The terms in "term-stats-list" are from the filter only
  * </ul>
@@ -80,9 +80,9 @@ import edu.columbia.cs.sdarts.frontend.SDARTS;
 public class LuceneQueryProcessor extends StandardQueryProcessor {
 	// ------------ FIELDS ------------
 	private LSPSource source;
-	private String indexFilename;
+	private LuceneSearcherManager searcherManager;
 	private LSPMetaAttributes metaAttributes;
-	private Map termWeights;
+	private LRUCache termWeights;
 
 	// ------------ METHODS ------------
 	// -------- CONSTRUCTOR --------
@@ -94,10 +94,32 @@ public class LuceneQueryProcessor extends StandardQueryProcessor {
 	 */
 	public LuceneQueryProcessor(String sourceName, LSPMetaAttributes metaAttributes) {
 		super(metaAttributes);
-		this.indexFilename = SDARTS.CONFIG_DIRECTORY + File.separator + sourceName + File.separator + DocConstants.INDEX_FILENAME;
+		String indexFilename = SDARTS.CONFIG_DIRECTORY + File.separator + sourceName + File.separator + DocConstants.INDEX_FILENAME;
+		this.searcherManager = LuceneSearcherManager.forIndex(indexFilename);
 		source = new LSPSource(sourceName);
 		this.metaAttributes = metaAttributes;
-		termWeights = new HashMap();
+		termWeights = new LRUCache(LuceneConstants.TERM_CACHE_SIZE);
+	}
+
+	/**
+	 * Returns the version of the index queries are answered from
+	 * @return the index's last-modified time
+	 * @exception BackEndException if the index cannot be read
+	 */
+	public long getIndexVersion() throws BackEndException {
+		try {
+			return searcherManager.getVersion();
+		} catch (IOException e) {
+			throw new BackEndException(e.getMessage());
+		}
+	}
+
+	/**
+	 * Returns the size and hit and miss counts of the term weight cache
+	 * @return the term weight cache statistics, for logging
+	 */
+	public String getTermCacheStatistics() {
+		return termWeights.toString();
 	}
 
 	// -------- QUERY METHODS --------
@@ -117,35 +139,115 @@ public class LuceneQueryProcessor extends StandardQueryProcessor {
 		//LSPField[] answerFields        = query.getAnswerFields();
 		//LSPSortByField[] sortByFields  = query.getSortByFields();
 
+		LuceneSearcherManager.Searcher searcher = null;
 		try {
 			Query q = makeQuery(query);
-			IndexReader reader = IndexReader.open(indexFilename);
-			IndexSearcher searcher = new IndexSearcher(reader);
-			Hits hits = searcher.search(q);
-			//printHits (hits);
+			// shared across queries; never closed here
+			searcher = searcherManager.acquire();
+			IndexReader reader = searcher.getReader();
+			ScoredDoc[] hits = search(searcher.getSearcher(), q);
 
 			LSPDoc[] docs = postProcess(hits, reader, query);
 			//printHits (docs);
 
-			results = new LSPResults(query.getFilter(), query.getRanking(), source, docs, hits.length());
-			searcher.close();
+			results = new LSPResults(query.getFilter(), query.getRanking(), source, docs, hits.length);
 		} catch (Exception e) {
 			e.printStackTrace();
 			throw new BackEndException(e.getMessage());
+		} finally {
+			if (searcher != null) {
+				try {
+					searcherManager.release(searcher);
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
 		}
 
 		return results;
 	}
 
-	private LSPDoc[] postProcess(Hits hits, IndexReader reader, LSPQuery query) throws IOException {
+	/**
+	 * Runs the query and returns every hit with its real Lucene document
+	 * number, ordered and scored exactly as <code>Hits</code> would: by
+	 * descending score, ties by document number, with scores scaled down
+	 * so the best is at most 1.
+	 */
+	private ScoredDoc[] search(IndexSearcher searcher, Query q) throws IOException {
+		final List hitList = new ArrayList();
+		searcher.search(q, new HitCollector() {
+			public void collect(int doc, float score) {
+				if (score > 0.0f) {
+					hitList.add(new ScoredDoc(doc, score));
+				}
+			}
+		});
+
+		ScoredDoc[] hits = (ScoredDoc[]) hitList.toArray(new ScoredDoc[0]);
+		Arrays.sort(hits, SCORE_ORDER);
+		int numHits = hits.length;
+		if (numHits > 0 && hits[0].score > 1.0f) {
+			float scoreNorm = 1.0f / hits[0].score;
+			for (int i = 0; i < numHits; i++) {
+				hits[i].score *= scoreNorm;
+			}
+		}
+		return hits;
+	}
+
+	/**
+	 * Returns the frequency of every term in every hit, as
+	 * <code>freqs[term][rank]</code>. The hits are visited in document
+	 * order, so each term's postings are read once, front to back.
+	 */
+	private int[][] getTermFreqs(IndexReader reader, TermWeight[] terms, ScoredDoc[] hits) throws IOException {
+		int numTerms = terms.length;
+		int numHits = hits.length;
+		int[][] freqs = new int[numTerms][numHits];
+		if (numHits == 0) {
+			return freqs;
+		}
+		for (int i = 0; i < numHits; i++) {
+			hits[i].rank = i;
+		}
+
+		ScoredDoc[] byDoc = (ScoredDoc[]) hits.clone();
+		Arrays.sort(byDoc, DOC_ORDER);
+
+		for (int k = 0; k < numTerms; k++) {
+			TermDocs td = reader.termDocs(terms[k].term);
+			if (td == null) {
+				continue;
+			}
+			try {
+				int j = 0;
+				while (j < numHits && td.next()) {
+					int docId = td.doc();
+					while (j < numHits && byDoc[j].doc < docId) {
+						j++;
+					}
+					if (j < numHits && byDoc[j].doc == docId) {
+						freqs[k][byDoc[j].rank] = td.freq();
+					}
+				}
+			} finally {
+				td.close();
+			}
+		}
+		return freqs;
+	}
+
+	private LSPDoc[] postProcess(ScoredDoc[] hits, IndexReader reader, LSPQuery query) throws IOException {
 		// Get all needed fields
 		int maxDocs = query.getMaxDocs();
 		double minScore = query.getMinDocScore();
 		LSPField[] answerFields = query.getAnswerFields();
-		final LSPSortByField[] sortByFields = query.getSortByFields();
+		LSPSortByField[] sortByFields = query.getSortByFields();
 
-		// Count number of hits
-		int numHits = hits.length();
+		// Apply minscore, sortbyfields and maxdocs to the bare hits, so only
+		// the survivors are turned into LSPDocs
+		hits = selectTopHits(hits, reader, minScore, sortByFields, maxDocs);
+		int numHits = hits.length;
 
 		// Prepare for termstats building
 		Set allTerms = new HashSet();
@@ -158,23 +260,26 @@ public class LuceneQueryProcessor extends StandardQueryProcessor {
 			allTerms.addAll(extractTerms(ranking));
 		}
 		int numTerms = allTerms.size();
+		LSPTerm[] rankingTerms = null;
+		if (ranking != null && ranking.getType() == LSPRanking.TERMS) {
+			rankingTerms = ranking.getTerms();
+		}
 
-		TermDocs[] termDocsArray = new TermDocs[numTerms];
 		TermWeight[] termWeightArray = new TermWeight[numTerms];
 		int[] docFreqArray = new int[numTerms];
 		int index = 0;
 		for (Iterator it = allTerms.iterator(); it.hasNext();) {
 			LSPTerm lspTerm = (LSPTerm) it.next();
-			TermWeight termWeight = makeTerm(lspTerm, null);
+			TermWeight termWeight = makeTerm(lspTerm, rankingTerms);
 
 			termWeightArray[index] = termWeight;
-			termDocsArray[index] = reader.termDocs(termWeight.term);
 			docFreqArray[index] = reader.docFreq(termWeight.term);
 			index++;
 		}
+		int[][] termFreqArray = getTermFreqs(reader, termWeightArray, hits);
 
 		// Build lspdocs using answerfields
-		List docList = new ArrayList(numHits);
+		LSPDoc[] docs = new LSPDoc[numHits];
 		if (answerFields == null) {
 			answerFields = metaAttributes.getFieldsSupported();
 		}
@@ -182,9 +287,12 @@ public class LuceneQueryProcessor extends StandardQueryProcessor {
 
 		for (int i = 0; i < numHits; i++) {
 			LSPDoc doc = new LSPDoc();
-			Document d = hits.doc(i);
+			Document d = hits[i].document;
+			if (d == null) {
+				d = reader.document(hits[i].doc);
+			}
 			doc.addSource(source);
-			doc.setRawScore(hits.score(i));
+			doc.setRawScore(hits[i].score);
 
 			for (int j = 0; j < numAnswerFields; j++) {
 				LSPField field = answerFields[j];
@@ -211,24 +319,7 @@ public class LuceneQueryProcessor extends StandardQueryProcessor {
 				int docFreq = 0;
 
 				// term freq - number of times in doc
-				TermDocs td = termDocsArray[k];
-				if (td != null) {
-					boolean foundDoc = false;
-					while (td.next()) {
-						int docId = td.doc();
-						if (docId == i) {
-							foundDoc = true;
-							break;
-						}
-					}
-					if (foundDoc) {
-						termFreq = td.freq();
-					} else {
-						termFreq = 0;
-					}
-				} else {
-					termFreq = 0;
-				}
+				termFreq = termFreqArray[k][i];
 
 				// term weight - normatlized tf . idf weight for term ? ?
 				TermWeight tw = termWeightArray[k];
@@ -241,73 +332,89 @@ public class LuceneQueryProcessor extends StandardQueryProcessor {
 				k++;
 			}
 
-			docList.add(doc);
+			docs[i] = doc;
 		}
 
-		// Copy hits into List, and elim by minscore
-		for (int i = 0; i < numHits; i++) {
-			LSPDoc doc = (LSPDoc) docList.get(i);
-			if (doc.getRawScore() < minScore) {
-				docList.remove(doc);
+		// All done
+		return docs;
+	}
+
+	/**
+	 * Returns the hits that make it into the answer: those scoring at least
+	 * <code>minScore</code>, ordered by <code>sortByFields</code>, and cut off
+	 * at <code>maxDocs</code>. Hits arrive in score order, so unless the
+	 * query sorts on field values the first <code>maxDocs</code> are the
+	 * answer. Otherwise each hit's sort keys are read from its stored
+	 * fields and the best <code>maxDocs</code> are kept in a bounded heap;
+	 * the survivors keep their <code>Document</code> for building the
+	 * <code>LSPDoc</code>.
+	 */
+	private ScoredDoc[] selectTopHits(
+		ScoredDoc[] hits,
+		IndexReader reader,
+		double minScore,
+		LSPSortByField[] sortByFields,
+		int maxDocs)
+		throws IOException {
+		int numHits = hits.length;
+		int limit = Math.min(Math.max(maxDocs, 0), numHits);
+		List top = new ArrayList(limit);
+		if (limit == 0) {
+			return new ScoredDoc[0];
+		}
+
+		if (!sortsOnFields(sortByFields)) {
+			for (int i = 0; i < numHits && top.size() < limit; i++) {
+				if (hits[i].score < minScore) {
+					break;
+				}
+				top.add(hits[i]);
 			}
+			return (ScoredDoc[]) top.toArray(new ScoredDoc[0]);
 		}
 
-		// Eval sortbyfields and make comparator & sort
-		if (sortByFields != null) {
-			Comparator c = new Comparator() {
-				public int compare(Object obj1, Object obj2) {
-					LSPDoc first = (LSPDoc) obj1;
-					LSPDoc second = (LSPDoc) obj2;
-
-					int numSortByFields = sortByFields.length;
-					for (int i = 0; i < numSortByFields; i++) {
-						LSPSortByField sbf = sortByFields[i];
-						if (sbf.isScore()) {
-							double num = first.getRawScore() - second.getRawScore();
-							if (num != 0) {
-								if (num < 0)
-									return 1;
-								if (num > 0)
-									return -1;
-							} else {
-								continue;
-							}
-						}
-						int ascendingDescending = sbf.getAscendingDescending();
-						String fieldName = sbf.getField().getName();
-						String firstVal = first.getValue(fieldName);
-						String secondVal = second.getValue(fieldName);
-						int comp = 0;
-						if (firstVal == null && secondVal == null) {
-							comp = 0;
-						} else if (firstVal != null && secondVal == null) {
-							comp = 1;
-						} else if (firstVal == null && secondVal != null) {
-							comp = -1;
-						} else {
-							comp = firstVal.compareTo(secondVal);
-						}
-						if (ascendingDescending == LSPSortByField.DESCENDING) {
-							return (comp * -1);
-						} else {
-							return comp;
-						}
+		int numSortByFields = sortByFields.length;
+		Comparator order = new SortKeyComparator(sortByFields);
+		PriorityQueue heap = new PriorityQueue(limit + 1, Collections.reverseOrder(order));
+		for (int i = 0; i < numHits; i++) {
+			ScoredDoc hit = hits[i];
+			if (hit.score < minScore) {
+				break;
+			}
+			hit.document = reader.document(hit.doc);
+			hit.sortKeys = new String[numSortByFields];
+			for (int j = 0; j < numSortByFields; j++) {
+				if (!sortByFields[j].isScore()) {
+					Field f = hit.document.getField(sortByFields[j].getField().getName());
+					if (f != null) {
+						hit.sortKeys[j] = f.stringValue();
 					}
-					return 0;
 				}
-			};
-
-			Collections.sort(docList, c);
+			}
+			heap.add(hit);
+			if (heap.size() > limit) {
+				ScoredDoc dropped = (ScoredDoc) heap.poll();
+				dropped.document = null;
+				dropped.sortKeys = null;
+			}
 		}
 
-		// do maxdoc cut off
-		if (docList.size() > maxDocs) {
-			List subList = new ArrayList(docList.subList(0, maxDocs));
-			docList = subList;
-		}
+		ScoredDoc[] result = (ScoredDoc[]) heap.toArray(new ScoredDoc[0]);
+		Arrays.sort(result, order);
+		return result;
+	}
 
-		// All done
-		return (LSPDoc[]) docList.toArray(new LSPDoc[0]);
+	private boolean sortsOnFields(LSPSortByField[] sortByFields) {
+		if (sortByFields == null) {
+			return false;
+		}
+		int numSortByFields = sortByFields.length;
+		for (int i = 0; i < numSortByFields; i++) {
+			if (!sortByFields[i].isScore()) {
+				return true;
+			}
+		}
+		return false;
 	}
 
 	// -------- OVERRIDDEN METHODS --------
@@ -524,13 +631,13 @@ public class LuceneQueryProcessor extends StandardQueryProcessor {
 		return query;
 	}
 
+	/**
+	 * Returns the Lucene term for <code>lspTerm</code> together with the
+	 * boost it gets in this query. Terms are cached by term and boost,
+	 * since <code>LSPTerm.equals()</code> ignores weights and the same term
+	 * may be boosted differently from one query to the next.
+	 */
 	private TermWeight makeTerm(LSPTerm lspTerm, LSPTerm[] rankingTerms) {
-		if (termWeights.containsKey(lspTerm)) {
-			TermWeight tw = (TermWeight) termWeights.get(lspTerm);
-			return tw;
-		}
-
-		Term term = new Term(lspTerm.getField().getName(), lspTerm.getValue().getValue().toLowerCase()); // case-insensitive
 		double weight = 1;
 		if (rankingTerms != null) {
 			int len = rankingTerms.length;
@@ -547,12 +654,116 @@ public class LuceneQueryProcessor extends StandardQueryProcessor {
 			}
 		}
 
-		TermWeight tw = new TermWeight(term, weight);
-		termWeights.put(lspTerm, tw);
+		TermKey key = new TermKey(lspTerm, weight);
+		TermWeight tw = (TermWeight) termWeights.get(key);
+		if (tw == null) {
+			Term term = new Term(lspTerm.getField().getName(), lspTerm.getValue().getValue().toLowerCase()); // case-insensitive
+			tw = new TermWeight(term, weight);
+			termWeights.put(key, tw);
+		}
 		return tw;
 	}
 
 	// ------------ INNER CLASSES ------------
+	private static class TermKey {
+		LSPTerm lspTerm;
+		double weight;
+
+		TermKey(LSPTerm lspTerm, double weight) {
+			this.lspTerm = lspTerm;
+			this.weight = weight;
+		}
+
+		public boolean equals(Object obj) {
+			if (!(obj instanceof TermKey))
+				return false;
+			TermKey other = (TermKey) obj;
+			return (other.lspTerm.equals(lspTerm) && other.weight == weight);
+		}
+
+		public int hashCode() {
+			return (lspTerm.hashCode() + (new Double(weight)).hashCode());
+		}
+	}
+
+	private static class ScoredDoc {
+		int doc;
+		float score;
+		int rank;
+		Document document;
+		String[] sortKeys;
+
+		ScoredDoc(int doc, float score) {
+			this.doc = doc;
+			this.score = score;
+		}
+	}
+
+	private static final Comparator SCORE_ORDER = new Comparator() {
+		public int compare(Object obj1, Object obj2) {
+			ScoredDoc first = (ScoredDoc) obj1;
+			ScoredDoc second = (ScoredDoc) obj2;
+			if (first.score != second.score) {
+				return (first.score > second.score ? -1 : 1);
+			}
+			return first.doc - second.doc;
+		}
+	};
+
+	/**
+	 * Orders hits the same way <code>LSPDocSorter</code> orders
+	 * <code>LSPDocs</code>, falling back on score order for ties.
+	 */
+	private static class SortKeyComparator implements Comparator {
+		private LSPSortByField[] sortByFields;
+
+		SortKeyComparator(LSPSortByField[] sortByFields) {
+			this.sortByFields = sortByFields;
+		}
+
+		public int compare(Object obj1, Object obj2) {
+			ScoredDoc first = (ScoredDoc) obj1;
+			ScoredDoc second = (ScoredDoc) obj2;
+
+			int numSortByFields = sortByFields.length;
+			for (int i = 0; i < numSortByFields; i++) {
+				LSPSortByField sbf = sortByFields[i];
+				if (sbf.isScore()) {
+					if (first.score != second.score) {
+						return (first.score > second.score ? -1 : 1);
+					}
+					continue;
+				}
+				String firstVal = first.sortKeys[i];
+				String secondVal = second.sortKeys[i];
+				int comp = 0;
+				if (firstVal == null && secondVal == null) {
+					comp = 0;
+				} else if (firstVal != null && secondVal == null) {
+					comp = 1;
+				} else if (firstVal == null && secondVal != null) {
+					comp = -1;
+				} else {
+					comp = firstVal.compareTo(secondVal);
+				}
+				if (comp != 0) {
+					if (sbf.getAscendingDescending() == LSPSortByField.DESCENDING) {
+						return (comp * -1);
+					} else {
+						return comp;
+					}
+				}
+			}
+			return SCORE_ORDER.compare(first, second);
+		}
+	}
+
+	private static final Comparator DOC_ORDER = new Comparator() {
+		public int compare(Object obj1, Object obj2) {
+			return ((ScoredDoc) obj1).doc - ((ScoredDoc) obj2).doc;
+		}
+	};
+
 	private class TermWeight {
 		Term term;
 		double weight;
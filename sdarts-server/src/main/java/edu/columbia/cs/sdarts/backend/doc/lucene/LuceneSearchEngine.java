@@ -1,6 +1,8 @@
 
 package edu.columbia.cs.sdarts.backend.doc.lucene;
 
+import java.io.File;
+
 import edu.columbia.cs.sdarts.backend.BackEndException;
 import edu.columbia.cs.sdarts.backend.doc.DocConfig;
 import edu.columbia.cs.sdarts.backend.doc.DocContentSummaryBuilder;
@@ -46,6 +48,10 @@ public class LuceneSearchEngine implements DocSearchEngine {
   private LSPMetaAttributes     metaAttributes;
   private LuceneQueryProcessor  queryProcessor;
   private String                backEndLSPName;
+  private LSPContentSummary     contentSummary;
+  private long                  contentSummaryModified;
+  private long                  contentSummaryLength;
+  private Object                contentSummaryLock = new Object();
 
 
   /**
@@ -74,6 +80,7 @@ public class LuceneSearchEngine implements DocSearchEngine {
     if (docConfig.reIndex()) {
       LuceneSetup.
           setup(backEndLSPName, sourceDescription, true, docConfig, documentEnum);
+      contentSummaryChanged();
     }
     // done with this either way, free up for gc
     documentEnum = null;
@@ -91,9 +98,20 @@ public class LuceneSearchEngine implements DocSearchEngine {
    */
   public LSPResults query(LSPQuery query) throws BackEndException {
     LSPResults results = queryProcessor.query (query);
+    System.out.println ("term weight cache of " + backEndLSPName + ": " +
+                        getTermCacheStatistics());
     return results;
   }
 
+  /**
+   * Returns the size and hit and miss counts of the cache of term weights
+   * the query processor keeps
+   * @return the term weight cache statistics, for logging
+   */
+  public String getTermCacheStatistics() {
+    return queryProcessor.getTermCacheStatistics();
+  }
+
   /**
    * Lazily instantiates and caches the meta attributes for
    * the collection
@@ -108,15 +126,51 @@ public class LuceneSearchEngine implements DocSearchEngine {
   }
 
   /**
-   * Reads the content summary file from storage, and
-   * returns it. Does not cache, as content summaries tend
-   * to be huge.
+   * Returns the content summary, reading it from storage the first time
+   * and whenever its files have changed since (for example, after the
+   * collection is re-indexed offline). Callers that arrive while the
+   * file is being read wait for that one read rather than starting
+   * their own. The summary returned is shared, so do not modify it.
    * @return the collection's content summary
    */
   public LSPContentSummary getContentSummary() throws BackEndException {
-    LSPContentSummary contentSummary = null;
-    DocContentSummaryBuilder builder = new DocContentSummaryBuilder ();
-    contentSummary = builder.load(backEndLSPName);
-    return contentSummary;
+    synchronized (contentSummaryLock) {
+      DocContentSummaryBuilder builder = new DocContentSummaryBuilder ();
+      File file = builder.getFile (backEndLSPName);
+      File binaryFile = builder.getBinaryFile (backEndLSPName);
+      // a change to either the XML or its binary copy counts
+      long modified = Math.max (file.lastModified(), binaryFile.lastModified());
+      long length = file.length() + binaryFile.length();
+      if (contentSummary == null || modified != contentSummaryModified ||
+          length != contentSummaryLength) {
+        // let the old summary go before parsing the new one
+        contentSummary = null;
+        contentSummary = builder.load(backEndLSPName);
+        contentSummaryModified = modified;
+        contentSummaryLength = length;
+      }
+      return contentSummary;
+    }
+  }
+
+  /**
+   * Returns the version of the index: the last-modified time
+   * {@link edu.columbia.cs.sdarts.backend.doc.lucene.LuceneSearcherManager LuceneSearcherManager}
+   * serves queries from
+   * @return the version of the index
+   */
+  public long getVersion() throws BackEndException {
+    return queryProcessor.getIndexVersion();
+  }
+
+  /**
+   * Drops the cached content summary, so the next
+   * <code>getContentSummary()</code> reads it from storage again. Call
+   * this after the content summary file is rewritten.
+   */
+  public void contentSummaryChanged() {
+    synchronized (contentSummaryLock) {
+      contentSummary = null;
+    }
   }
 }
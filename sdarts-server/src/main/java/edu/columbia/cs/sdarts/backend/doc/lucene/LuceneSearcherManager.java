@@ -0,0 +1,203 @@
+package edu.columbia.cs.sdarts.backend.doc.lucene;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.lucene.index.IndexReader;
+import com.lucene.search.IndexSearcher;
+
+/**
+ * Keeps one long-lived <code>IndexReader</code> and <code>IndexSearcher</code>
+ * open on a Lucene index, and shares it among all concurrent queries
+ * against that index. There is one manager per index directory; get it with
+ * {@link #forIndex(String) forIndex()}.
+ * <p>
+ * A query borrows the current searcher with <code>acquire()</code> and must
+ * hand it back with <code>release()</code>, normally in a
+ * <code>finally</code> block. Each searcher is reference-counted, so when
+ * the index changes the manager can swap in a fresh searcher for new
+ * queries while queries already running finish against the old one; the
+ * old reader is closed when its last query releases it.
+ * <p>
+ * The manager notices a changed index in two ways: the
+ * {@link edu.columbia.cs.sdarts.backend.doc.lucene.LuceneSetup LuceneSetup}
+ * class calls <code>indexChanged()</code> when it finishes rebuilding an
+ * index, and <code>acquire()</code> compares the index's last-modified time
+ * (at most once every {@link #CHECK_INTERVAL} milliseconds), which catches
+ * indexes rebuilt by the offline setup scripts. That time is the version
+ * of the index, as {@link #getVersion()} returns it.
+ *
+ * @version 1.0
+ */
+public class LuceneSearcherManager {
+  /** How often, in milliseconds, to check whether the index has changed */
+  public static final long CHECK_INTERVAL = 1000;
+
+  private static Map managers = new HashMap();
+
+  private String indexFilename;
+  private Searcher current;
+  private long version;
+  private long lastChecked;
+
+
+  // ------------ METHODS ------------
+  // -------- CONSTRUCTOR --------
+  private LuceneSearcherManager (String indexFilename) {
+    this.indexFilename = indexFilename;
+  }
+
+  /**
+   * Returns the one manager for the given index directory, creating it
+   * if needed.
+   * @param indexFilename the directory holding the Lucene index
+   * @return the manager for that index
+   */
+  public static synchronized LuceneSearcherManager forIndex (String indexFilename) {
+    LuceneSearcherManager manager =
+      (LuceneSearcherManager) managers.get (indexFilename);
+    if (manager == null) {
+      manager = new LuceneSearcherManager (indexFilename);
+      managers.put (indexFilename, manager);
+    }
+    return manager;
+  }
+
+  /**
+   * Tells the manager for the given index, if there is one, that the index
+   * has been rebuilt. The next <code>acquire()</code> will open a new
+   * searcher.
+   * @param indexFilename the directory holding the Lucene index
+   */
+  public static void indexChanged (String indexFilename) {
+    LuceneSearcherManager manager;
+    synchronized (LuceneSearcherManager.class) {
+      manager = (LuceneSearcherManager) managers.get (indexFilename);
+    }
+    if (manager != null) {
+      manager.invalidate();
+    }
+  }
+
+  // -------- ACQUIRE / RELEASE --------
+  /**
+   * Borrows the current searcher, opening or re-opening it if the index
+   * has changed. Every call must be matched by a call to
+   * <code>release()</code>.
+   * @return the current searcher
+   * @exception IOException if the index cannot be opened
+   */
+  public synchronized Searcher acquire () throws IOException {
+    checkVersion();
+    if (current == null) {
+      version = IndexReader.lastModified (indexFilename);
+      current = new Searcher (IndexReader.open (indexFilename), version);
+      lastChecked = System.currentTimeMillis();
+    }
+    current.refCount++;
+    return current;
+  }
+
+  /**
+   * Returns the version of the index: its last-modified time, looked at
+   * no more often than <code>acquire()</code> looks at it, so the version
+   * changes when the searcher <code>acquire()</code> hands out does.
+   * @return the version of the index
+   * @exception IOException if the index cannot be read
+   */
+  public synchronized long getVersion () throws IOException {
+    checkVersion();
+    return version;
+  }
+
+  /**
+   * Hands back a searcher borrowed with <code>acquire()</code>. If the
+   * searcher has been replaced and this was its last user, it is closed.
+   * @param searcher the searcher to hand back
+   * @exception IOException if closing the old searcher fails
+   */
+  public synchronized void release (Searcher searcher) throws IOException {
+    if (--searcher.refCount == 0 && searcher != current) {
+      searcher.close();
+    }
+  }
+
+  /**
+   * Drops the current searcher so the next <code>acquire()</code> opens a
+   * new one. Queries still holding the old searcher are unaffected.
+   */
+  public synchronized void invalidate () {
+    lastChecked = 0;
+    try {
+      retire();
+    }
+    catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * Reads the index's last-modified time, if it has not been read in the
+   * last {@link #CHECK_INTERVAL} milliseconds, and drops the current
+   * searcher if the index has changed since it was opened.
+   */
+  private void checkVersion () throws IOException {
+    long now = System.currentTimeMillis();
+    if (lastChecked == 0 || now - lastChecked >= CHECK_INTERVAL) {
+      lastChecked = now;
+      version = IndexReader.lastModified (indexFilename);
+      if (current != null && current.version != version) {
+        retire();
+      }
+    }
+  }
+
+  private void retire () throws IOException {
+    Searcher old = current;
+    current = null;
+    if (old != null && old.refCount == 0) {
+      old.close();
+    }
+  }
+
+
+  // ------------ INNER CLASSES ------------
+  /**
+   * One open reader and its searcher, as handed out by
+   * <code>acquire()</code>.
+   */
+  public static class Searcher {
+    private IndexReader   reader;
+    private IndexSearcher searcher;
+    private long          version;
+    private int           refCount;
+
+    Searcher (IndexReader reader, long version) {
+      this.reader   = reader;
+      this.searcher = new IndexSearcher (reader);
+      this.version  = version;
+    }
+
+    /**
+     * Returns the shared reader. Do not close it.
+     * @return the shared reader
+     */
+    public IndexReader getReader () {
+      return reader;
+    }
+
+    /**
+     * Returns the shared searcher. Do not close it.
+     * @return the shared searcher
+     */
+    public IndexSearcher getSearcher () {
+      return searcher;
+    }
+
+    private void close () throws IOException {
+      // closes the reader too
+      searcher.close();
+    }
+  }
+}
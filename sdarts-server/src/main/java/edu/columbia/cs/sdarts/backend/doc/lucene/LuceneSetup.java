@@ -3,7 +3,20 @@ package edu.columbia.cs.sdarts.backend.doc.lucene;
 import java.io.File;
 import java.io.IOException;
 import java.io.Reader;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import com.lucene.analysis.Analyzer;
 import com.lucene.analysis.LowerCaseTokenizer;
@@ -12,11 +25,14 @@ import com.lucene.analysis.StopFilter;
 import com.lucene.analysis.TokenStream;
 import com.lucene.document.DateField;
 import com.lucene.document.Document;
+import com.lucene.document.Field;
 import com.lucene.index.IndexReader;
 import com.lucene.index.IndexWriter;
 import com.lucene.index.Term;
 import com.lucene.index.TermDocs;
 import com.lucene.index.TermEnum;
+import com.lucene.store.Directory;
+import com.lucene.store.FSDirectory;
 
 import edu.columbia.cs.sdarts.backend.BackEndException;
 import edu.columbia.cs.sdarts.backend.doc.DocConfig;
@@ -26,7 +42,9 @@ import edu.columbia.cs.sdarts.backend.doc.DocContentSummaryBuilder;
 import edu.columbia.cs.sdarts.backend.doc.DocFieldDescriptor;
 import edu.columbia.cs.sdarts.backend.doc.DocMetaAttributesBuilder;
 import edu.columbia.cs.sdarts.common.FieldNames;
+import edu.columbia.cs.sdarts.common.BinaryContentSummaryWriter;
 import edu.columbia.cs.sdarts.common.LSPContentSummary;
+import edu.columbia.cs.sdarts.common.LSPContentSummaryWriter;
 import edu.columbia.cs.sdarts.common.LSPField;
 import edu.columbia.cs.sdarts.common.LSPMetaAttributeSet;
 import edu.columbia.cs.sdarts.common.LSPMetaAttributes;
@@ -58,7 +76,14 @@ import edu.columbia.cs.sdarts.util.XMLWriter;
  * collection (generated, but can also be edited by hand)
  * <li><code>content-summary.xml</code> - the content-summary for the
  * collection (generated)
+ * <li><code>index_manifest.txt</code> - the files in the index, with
+ * their sizes and modification times (only for collections whose
+ * <code>doc_config.xml</code> says <code>re-index="incremental"</code>)
  * </ul>
+ * An incrementally re-indexed collection is rebuilt from scratch the first
+ * time; after that only the documents whose files were added, changed, or
+ * deleted are added to or deleted from the index, and the content summary
+ * is corrected by their term and doc frequencies instead of being rebuilt.
  *
  * @author <a href="mailto:ngreen@cs.columbia.edu">Noah Green</a>
  * @author <i>modified by:</i> <a href="mailto:ss1792@cs.columbia.edu">Sergey Sigelman</a>
@@ -88,8 +113,18 @@ public class LuceneSetup {
 		System.out.println("SDARTS COLLECTION INITIALIZATION FOR: " + name);
 		System.out.println("Using edu.columbia.cs.sdarts.backend.doc.lucene engine");
 		System.out.println();
-		System.out.println("Building index");
-		createIndex(path, config, documentEnum);
+		File manifestFile = new File(path + File.separator + DocConstants.INDEX_MANIFEST_FILENAME);
+		IndexManifest manifest = null;
+		if (config.incremental()) {
+			manifest = loadManifest(name, manifestFile);
+		}
+		if (manifest != null) {
+			System.out.println("Updating index");
+			updateIndex(name, path, config, documentEnum, manifest, manifestFile);
+		} else {
+			System.out.println("Building index");
+			createIndex(path, config, documentEnum, manifestFile);
+		}
 		System.out.println("Index successfully completed!");
 
 		// Build meta-attributes
@@ -113,19 +148,19 @@ public class LuceneSetup {
 			System.out.println("MetaAttributes successfully written!");
 		}
 
-		// Build content summary
+		// Build content summary; an update has already corrected it
+		if (manifest != null) {
+			System.out.println();
+			System.out.println("Collection " + name + " successfully updated!");
+			System.out.println("-------------------------------------------");
+			return;
+		}
 		System.out.println("Building content summary");
-		System.out.println("Analyzing index....(this may take awhile)");
+		System.out.println("Analyzing index and writing content summary to disk....(this may take awhile)");
 		long startBuild = System.currentTimeMillis();
-		LSPContentSummary cs = createContentSummary(name);
+		writeContentSummary(name);
 		long stopBuild = System.currentTimeMillis();
 		System.out.println("Finished analysis in " + (stopBuild - startBuild) + " milliseconds");
-		System.out.println("Writing content summary to disk");
-		long startWrite = System.currentTimeMillis();
-		DocContentSummaryBuilder dcsb = new DocContentSummaryBuilder();
-		dcsb.save(name, cs);
-		long stopWrite = System.currentTimeMillis();
-		System.out.println("Wrote content summary to disk in " + (stopWrite - startWrite) + " milliseconds");
 		System.out.println("Content summary successfully written!");
 		System.out.println();
 		System.out.println("Collection " + name + " successfully indexed!");
@@ -134,49 +169,280 @@ public class LuceneSetup {
 
 	// -------- HELPER METHODS --------
 	// ---- INDEX CREATION ----
-	private static void createIndex(String path, DocConfig docConfig, DocumentEnum documentEnum)
+	/**
+	 * Builds the index as a pipeline. <code>PARSER_THREADS</code> threads
+	 * take files from the <code>DocumentEnum</code> and parse them into
+	 * Lucene <code>Documents</code>, which they put on a bounded queue.
+	 * <code>WRITER_THREADS</code> threads take documents off the queue,
+	 * each adding them to its own temporary index next to the real one.
+	 * When every document is in, the temporary indexes are merged into
+	 * the real index and deleted. For a collection that is re-indexed
+	 * incrementally, each document also gets its path and terms, and the
+	 * files indexed are saved in the manifest.
+	 */
+	private static void createIndex(String path, DocConfig docConfig, DocumentEnum documentEnum, File manifestFile)
 		throws BackEndException {
+		String indexFilename = path + File.separator + DocConstants.INDEX_FILENAME;
+		Analyzer analyzer = getAnalyzer(docConfig);
+		int numWriters = LuceneConstants.WRITER_THREADS;
+		File[] partDirs = new File[numWriters];
+		for (int i = 0; i < numWriters; i++) {
+			partDirs[i] = new File(indexFilename + ".part" + i);
+		}
+		IndexManifest manifest = null;
+		if (docConfig.incremental()) {
+			manifest = new IndexManifest();
+			manifestFile.delete();
+		}
+
 		try {
-			String indexFilename = path + File.separator + DocConstants.INDEX_FILENAME;
-			String[] stopWords = docConfig.getStopWords();
-			if (stopWords == null) {
-				stopWords = StopAnalyzer.ENGLISH_STOP_WORDS;
-			}
-			IndexWriter writer = new IndexWriter(indexFilename, new LIBAnalyzer(stopWords), true);
-			int batch = 1;
-
-			while (!documentEnum.isEmpty()) {
-				System.out.println("Building batch " + batch + " of documents");
-				long buildStart = System.currentTimeMillis();
-				Document[] documents = documentEnum.getDocuments();
-				int numDocs = documents.length;
-				long buildStop = System.currentTimeMillis();
-				System.out.println("Built in " + (buildStop - buildStart) + " ms.");
-
-				System.out.println("Indexing batch " + batch + " of documents");
-				long indexStart = System.currentTimeMillis();
-				for (int i = 0; i < numDocs; i++) {
-					if (documents[i]!=null) {
-						writer.addDocument(documents[i]);
-					}
-				}
-				long indexStop = System.currentTimeMillis();
-				System.out.println("Indexed in " + (indexStop - indexStart) + " ms");
-				System.out.println();
-				documents = null;
-				batch++;
-			}
+			long buildStart = System.currentTimeMillis();
+			int numDocs = runPipeline(documentEnum, null, analyzer, docConfig.incremental(), partDirs, true, null, manifest);
+			long buildStop = System.currentTimeMillis();
+			System.out.println("Built and indexed " + numDocs + " documents in " + (buildStop - buildStart) + " ms.");
 
-			System.out.println("Optimizing index");
+			System.out.println("Merging and optimizing index");
 			long optimizeStart = System.currentTimeMillis();
+			IndexWriter writer = new IndexWriter(indexFilename, analyzer, true);
+			Directory[] parts = new Directory[numWriters];
+			for (int i = 0; i < numWriters; i++) {
+				parts[i] = new FSDirectory(partDirs[i], false);
+			}
+			writer.addIndexes(parts);
 			writer.optimize();
 			writer.close();
+			for (int i = 0; i < numWriters; i++) {
+				parts[i].close();
+			}
+			// let running query processors pick up the new index
+			LuceneSearcherManager.indexChanged(indexFilename);
 			long optimizeStop = System.currentTimeMillis();
 			long optimizeTime = optimizeStop - optimizeStart;
 			System.out.println("Completed optimization in " + optimizeTime + " ms");
+			if (manifest != null) {
+				manifest.save(manifestFile);
+			}
 		} catch (IOException e) {
 			throw new BackEndException(e.getMessage());
+		} finally {
+			for (int i = 0; i < numWriters; i++) {
+				deleteDirectory(partDirs[i]);
+			}
+		}
+	}
+
+	/**
+	 * Reads the manifest of a collection that is re-indexed incrementally.
+	 * Returns <code>null</code>, so that the index is rebuilt, if there is
+	 * no manifest (the index has not been built incrementally before, or
+	 * the last update was interrupted) or no content summary to correct.
+	 */
+	private static IndexManifest loadManifest(String name, File manifestFile) {
+		DocContentSummaryBuilder dcsb = new DocContentSummaryBuilder();
+		if (!manifestFile.exists() || !dcsb.getFile(name).exists()) {
+			return null;
+		}
+		try {
+			return IndexManifest.load(manifestFile);
+		} catch (IOException e) {
+			System.out.println("Could not read " + manifestFile + ", rebuilding: " + e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Updates the index of a collection that is re-indexed incrementally.
+	 * Files are compared with the manifest by size and modification time.
+	 * The documents of deleted and changed files are deleted from the
+	 * index, and their terms taken out of the content summary; then new
+	 * and changed files are parsed by the pipeline, with a single writer
+	 * adding them to the index and their terms to the content summary.
+	 * The manifest is deleted while the index is changed, so an update
+	 * that is interrupted is followed by a full rebuild.
+	 */
+	private static void updateIndex(String name, String path, DocConfig docConfig, DocumentEnum documentEnum,
+		IndexManifest manifest, File manifestFile)
+		throws BackEndException {
+		String indexFilename = path + File.separator + DocConstants.INDEX_FILENAME;
+
+		// Find what changed
+		IndexManifest current = new IndexManifest();
+		List changed = new ArrayList();
+		File f;
+		while ((f = documentEnum.nextFile()) != null) {
+			String filePath = f.getPath();
+			long lastModified = f.lastModified();
+			long length = f.length();
+			current.put(filePath, lastModified, length);
+			if (!manifest.isUnchanged(filePath, lastModified, length)) {
+				changed.add(f);
+			}
+		}
+		List deleted = new ArrayList();
+		for (Iterator it = manifest.paths().iterator(); it.hasNext();) {
+			String filePath = (String) it.next();
+			if (!current.contains(filePath)) {
+				deleted.add(filePath);
+			}
+		}
+		System.out.println(changed.size() + " files new or changed, " + deleted.size() + " deleted");
+		if (changed.isEmpty() && deleted.isEmpty()) {
+			return;
+		}
+
+		DocContentSummaryBuilder dcsb = new DocContentSummaryBuilder();
+		LSPContentSummary contentSummary = dcsb.load(name);
+		try {
+			long updateStart = System.currentTimeMillis();
+			manifestFile.delete();
+
+			// Delete old documents; a new file matches none, unless an
+			// earlier update was interrupted
+			IndexReader reader = IndexReader.open(indexFilename);
+			int numDeleted = 0;
+			try {
+				for (int i = 0; i < deleted.size(); i++) {
+					numDeleted += deleteDocuments(reader, (String) deleted.get(i), contentSummary);
+				}
+				for (int i = 0; i < changed.size(); i++) {
+					numDeleted += deleteDocuments(reader, ((File) changed.get(i)).getPath(), contentSummary);
+				}
+			} finally {
+				reader.close();
+			}
+
+			// Add new ones
+			int numAdded = runPipeline(documentEnum, changed, getAnalyzer(docConfig), true,
+				new File[] { new File(indexFilename) }, false, contentSummary, null);
+			long updateStop = System.currentTimeMillis();
+			System.out.println("Deleted " + numDeleted + " and added " + numAdded + " documents in "
+				+ (updateStop - updateStart) + " ms.");
+			LuceneSearcherManager.indexChanged(indexFilename);
+
+			reader = IndexReader.open(indexFilename);
+			contentSummary.setNumDocs(reader.numDocs());
+			reader.close();
+			System.out.println("Writing content summary to disk");
+			dcsb.save(name, contentSummary);
+			current.save(manifestFile);
+		} catch (IOException e) {
+			throw new BackEndException(e.getMessage());
+		}
+	}
+
+	/** Deletes the documents of a file, taking their terms out of the content summary */
+	private static int deleteDocuments(IndexReader reader, String filePath, LSPContentSummary contentSummary)
+		throws IOException {
+		TermDocs termDocs = reader.termDocs(new Term(LuceneConstants.LUCENE_DOC_PATH, filePath));
+		int numDeleted = 0;
+		if (termDocs == null) {
+			return numDeleted;
+		}
+		try {
+			while (termDocs.next()) {
+				int doc = termDocs.doc();
+				DocumentTerms.apply(reader.document(doc), contentSummary, -1);
+				reader.delete(doc);
+				numDeleted++;
+			}
+		} finally {
+			termDocs.close();
+		}
+		return numDeleted;
+	}
+
+	/**
+	 * Runs the indexing pipeline: parser threads take files and parse them
+	 * onto a bounded queue, and one writer thread per index directory
+	 * takes them off and indexes them. Returns the number of documents
+	 * indexed.
+	 * @param files the files to parse, or <code>null</code> for all the
+	 * files of the <code>DocumentEnum</code>
+	 * @param keepTerms whether to store each document's path and terms
+	 * @param dirs the index directories, one per writer
+	 * @param create whether to create the indexes, or add to them
+	 * @param contentSummary if not <code>null</code>, the terms of every
+	 * document indexed are added to it
+	 * @param manifest if not <code>null</code>, every file parsed is
+	 * recorded in it
+	 */
+	private static int runPipeline(DocumentEnum documentEnum, List files, Analyzer analyzer, boolean keepTerms,
+		File[] dirs, boolean create, LSPContentSummary contentSummary, IndexManifest manifest)
+		throws BackEndException {
+		int numParsers = LuceneConstants.PARSER_THREADS;
+		int numWriters = dirs.length;
+		BlockingQueue queue = new ArrayBlockingQueue(LuceneConstants.INDEX_QUEUE_SIZE);
+		ExecutorService executor = Executors.newFixedThreadPool(numParsers + numWriters);
+		CompletionService completion = new ExecutorCompletionService(executor);
+		try {
+			System.out.println("Parsing with " + numParsers + " threads, indexing with " + numWriters);
+			for (int i = 0; i < numWriters; i++) {
+				completion.submit(new IndexPartWriter(dirs[i], analyzer, create, queue, contentSummary));
+			}
+			for (int i = 0; i < numParsers; i++) {
+				completion.submit(new DocumentParser(documentEnum, files, keepTerms ? analyzer : null, queue, manifest));
+			}
+
+			// Once every parser is done, tell each writer to finish; a
+			// failure anywhere stops the whole pipeline. The queue can be
+			// full while the end is handed over, and stay full if a writer
+			// has failed, so the writers are watched all the while.
+			int tasksLeft = numParsers + numWriters;
+			int parsersLeft = numParsers;
+			int endsLeft = 0;
+			int numDocs = 0;
+			while (tasksLeft > 0) {
+				Future task;
+				if (endsLeft > 0) {
+					if (queue.offer(END_OF_DOCUMENTS, HANDOFF_WAIT, TimeUnit.MILLISECONDS)) {
+						endsLeft--;
+					}
+					task = completion.poll();
+					if (task == null) {
+						continue;
+					}
+				}
+				else {
+					task = completion.take();
+				}
+				Integer done = (Integer) task.get();
+				tasksLeft--;
+				if (done.intValue() < 0 && --parsersLeft == 0) {
+					endsLeft = numWriters;
+				}
+				else if (done.intValue() >= 0) {
+					numDocs += done.intValue();
+				}
+			}
+			return numDocs;
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			cause.printStackTrace();
+			throw new BackEndException(cause.getMessage());
+		} catch (InterruptedException e) {
+			throw new BackEndException("Interrupted while indexing");
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private static Analyzer getAnalyzer(DocConfig docConfig) {
+		String[] stopWords = docConfig.getStopWords();
+		if (stopWords == null) {
+			stopWords = StopAnalyzer.ENGLISH_STOP_WORDS;
 		}
+		return new LIBAnalyzer(stopWords);
+	}
+
+	private static void deleteDirectory(File dir) {
+		File[] files = dir.listFiles();
+		if (files == null) {
+			return;
+		}
+		for (int i = 0; i < files.length; i++) {
+			files[i].delete();
+		}
+		dir.delete();
 	}
 
 	// ---- META-ATTRIBUTES CREATION ----
@@ -264,7 +530,16 @@ public class LuceneSetup {
 	}
 
 	// ---- CONTENT-SUMMARY CREATION ----
-	private static LSPContentSummary createContentSummary(String backEndLSPName) throws BackEndException {
+	/**
+	 * Writes the content summary and its binary copy straight from the
+	 * index to disk, in one sequential pass over the terms, without
+	 * building an <code>LSPContentSummary</code> in memory. The binary
+	 * writer holds one field's entries at a time. The terms come out of the
+	 * index sorted by field, so each field's entries are written together.
+	 * Dates are written in the standard STARTS format; index terms that
+	 * turn into the same date are written as one entry.
+	 */
+	private static void writeContentSummary(String backEndLSPName) throws BackEndException {
 		String filename =
 			SDARTS.CONFIG_DIRECTORY + File.separator + backEndLSPName + File.separator + DocConstants.INDEX_FILENAME;
 
@@ -272,45 +547,64 @@ public class LuceneSetup {
 			IndexReader reader = IndexReader.open(filename);
 			int numDocs = reader.numDocs();
 
-			LSPContentSummary contentSummary = new LSPContentSummary(false, false, true, false, numDocs);
+			DocContentSummaryBuilder dcsb = new DocContentSummaryBuilder();
+			LSPContentSummaryWriter csWriter = dcsb.openWriter(backEndLSPName, false, false, true, false, numDocs);
+			BinaryContentSummaryWriter binWriter = dcsb.openBinaryWriter(backEndLSPName, false, false, true, false, numDocs);
 
+			int[] docs = new int[FREQ_BUFFER_SIZE];
+			int[] freqs = new int[FREQ_BUFFER_SIZE];
 			TermEnum termEnum = reader.terms();
-			boolean moreTerms;
-			int iterations = 0;
-			while ((moreTerms = termEnum.next()) != false) {
-				++iterations;
+			String field = null;
+			String termText = null;
+			int termFreq = 0;
+			int docFreq = 0;
+			while (termEnum.next()) {
 				Term term = termEnum.term();
-				String field = term.field();
-				String value = term.text().trim();
-				String termText = term.text();
-
-				if (field.equals(FieldNames.DATE_LAST_MODIFIED)) {
-					termText = STARTS.STANDARD_DATE_FORMAT.format(DateField.stringToDate(termText));
+				if (term.field().equals(LuceneConstants.LUCENE_DOC_PATH)) {
+					continue;
 				}
-
+				String nextText = term.text();
+				if (term.field().equals(FieldNames.DATE_LAST_MODIFIED)) {
+					nextText = STARTS.STANDARD_DATE_FORMAT.format(DateField.stringToDate(nextText));
+				}
+				if (!term.field().equals(field) || !nextText.equals(termText)) {
+					if (field != null) {
+						LSPField lspField = new LSPField(field);
+						csWriter.addTermDocFieldFreqInfo(lspField, new LSPTerm(null, null, termText), termFreq, docFreq);
+						binWriter.add(lspField, termText, termFreq, docFreq);
+					}
+					field = term.field();
+					termText = nextText;
+					termFreq = 0;
+					docFreq = 0;
+				}
+				docFreq += termEnum.docFreq();
+				termFreq += getTermFreq(reader.termDocs(term), docs, freqs);
+			}
+			if (field != null) {
 				LSPField lspField = new LSPField(field);
-				LSPTerm lspTerm = new LSPTerm(null, null, termText);
-
-				int docFreq = termEnum.docFreq();
-				int termFreq = getTermFreq(reader.termDocs(term));
-
-				contentSummary.addTermDocFieldFreqInfo(lspField, lspTerm, termFreq, docFreq);
+				csWriter.addTermDocFieldFreqInfo(lspField, new LSPTerm(null, null, termText), termFreq, docFreq);
+				binWriter.add(lspField, termText, termFreq, docFreq);
 			}
 			termEnum.close();
 			reader.close();
-
-			return contentSummary;
+			csWriter.close();
+			// written last, so it is never older than the XML
+			binWriter.close();
 		} catch (IOException e) {
 			throw new BackEndException(e.getMessage());
 		}
 
 	}
 
-	private static int getTermFreq(TermDocs termDocs) throws IOException {
-		boolean moreTermDocs = true;
+	/** Sums a term's frequencies, reading its postings in bulk */
+	private static int getTermFreq(TermDocs termDocs, int[] docs, int[] freqs) throws IOException {
 		int freq = 0;
-		while ((moreTermDocs = termDocs.next()) != false) {
-			freq += termDocs.freq();
+		int n;
+		while ((n = termDocs.read(docs, freqs)) > 0) {
+			for (int i = 0; i < n; i++) {
+				freq += freqs[i];
+			}
 		}
 		termDocs.close();
 		return freq;
@@ -483,6 +777,110 @@ public class LuceneSetup {
 
 	// ------------ INNER CLASSES ------------
 	// ----- Used in Lucene index construction
+	/** How many postings to read at once when summing term frequencies */
+	private static final int FREQ_BUFFER_SIZE = 1024;
+
+	/** Put on the queue once per writer, when there are no more documents */
+	private static final Document END_OF_DOCUMENTS = new Document();
+
+	/** How many milliseconds to wait for room on the queue between looks for a failed writer */
+	private static final long HANDOFF_WAIT = 100;
+
+	/**
+	 * Parses files from the <code>DocumentEnum</code>, or from a list,
+	 * until there are no more, putting the documents on the queue. Given
+	 * an analyzer, it adds each document's path and terms for incremental
+	 * re-indexing. Returns -1, which tells <code>runPipeline()</code> that
+	 * a parser has finished.
+	 */
+	private static class DocumentParser implements Callable {
+		private DocumentEnum documentEnum;
+		private List files;
+		private Analyzer termAnalyzer;
+		private BlockingQueue queue;
+		private IndexManifest manifest;
+
+		DocumentParser(DocumentEnum documentEnum, List files, Analyzer termAnalyzer, BlockingQueue queue,
+			IndexManifest manifest) {
+			this.documentEnum = documentEnum;
+			this.files = files;
+			this.termAnalyzer = termAnalyzer;
+			this.queue = queue;
+			this.manifest = manifest;
+		}
+
+		public Object call() throws Exception {
+			File f;
+			while ((f = nextFile()) != null) {
+				if (manifest != null) {
+					manifest.put(f);
+				}
+				Document d = documentEnum.buildDocument(f);
+				if (d != null) {
+					if (termAnalyzer != null) {
+						d.add(Field.Keyword(LuceneConstants.LUCENE_DOC_PATH, f.getPath()));
+						d = DocumentTerms.addTerms(d, termAnalyzer);
+					}
+					queue.put(d);
+				}
+			}
+			return new Integer(-1);
+		}
+
+		private File nextFile() {
+			if (files == null) {
+				return documentEnum.nextFile();
+			}
+			synchronized (files) {
+				return files.isEmpty() ? null : (File) files.remove(files.size() - 1);
+			}
+		}
+	}
+
+	/**
+	 * Takes documents off the queue and adds them to an index of its own,
+	 * until it is told there are no more. Given a content summary, it adds
+	 * the terms of every document to it. Returns the number of documents
+	 * it indexed.
+	 */
+	private static class IndexPartWriter implements Callable {
+		private File partDir;
+		private Analyzer analyzer;
+		private boolean create;
+		private BlockingQueue queue;
+		private LSPContentSummary contentSummary;
+
+		IndexPartWriter(File partDir, Analyzer analyzer, boolean create, BlockingQueue queue,
+			LSPContentSummary contentSummary) {
+			this.partDir = partDir;
+			this.analyzer = analyzer;
+			this.create = create;
+			this.queue = queue;
+			this.contentSummary = contentSummary;
+		}
+
+		public Object call() throws Exception {
+			IndexWriter writer = new IndexWriter(partDir, analyzer, create);
+			writer.maxFieldLength = LuceneConstants.MAX_FIELD_LENGTH;
+			int numDocs = 0;
+			try {
+				Document d;
+				while ((d = (Document) queue.take()) != END_OF_DOCUMENTS) {
+					writer.addDocument(d);
+					if (contentSummary != null) {
+						synchronized (contentSummary) {
+							DocumentTerms.apply(d, contentSummary, 1);
+						}
+					}
+					numDocs++;
+				}
+			} finally {
+				writer.close();
+			}
+			return new Integer(numDocs);
+		}
+	}
+
 	private static class LIBAnalyzer extends Analyzer {
 		private String[] stopWords;
 
@@ -0,0 +1,389 @@
+package edu.columbia.cs.sdarts.backend.impls.text;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import edu.columbia.cs.sdarts.backend.doc.DocFieldDescriptor;
+import edu.columbia.cs.sdarts.util.LRUCache;
+import gnu.regexp.REMatch;
+
+/**
+ * Finds the fields of a plain text document for the
+ * {@link edu.columbia.cs.sdarts.backend.impls.text.TextDocumentEnum TextDocumentEnum}.
+ * The start expressions of all the
+ * {@link edu.columbia.cs.sdarts.backend.doc.DocFieldDescriptor DocFieldDescriptors}
+ * are translated from the <code>sed</code> syntax of <code>gnu.regexp</code>
+ * into <code>java.util.regex</code>, and joined into a single alternation,
+ * with one group for each field. One forward scan of the document with it
+ * finds where every field starts: each hit is the first start of a field
+ * that is still missing, and the scan goes on from there with the
+ * alternation of the fields still missing, until none is. Each end
+ * expression is then only searched for in the text that follows its own
+ * start.
+ * <p>
+ * An expression that cannot be translated exactly (one with a
+ * back-reference, for instance) is left to <code>gnu.regexp</code>, as
+ * before, and only that field is searched for separately.
+ * <p>
+ * A scanner is safe to share among threads.
+ *
+ * @version 1.0
+ */
+final class FieldScanner {
+  /** gnu.regexp's sed syntax: '.' matches a newline, only '\n' ends a line */
+  private static final int FLAGS =
+    Pattern.MULTILINE | Pattern.DOTALL | Pattern.UNIX_LINES;
+
+  private DocFieldDescriptor[] descriptors;
+  private Pattern[] starts;  // null where gnu.regexp is used instead
+  private Pattern[] ends;
+  // the alternation of the starts of each set of missing fields
+  private LRUCache  alternations = new LRUCache (ALTERNATIONS);
+
+  /** How many alternations of missing fields are kept */
+  private static final int ALTERNATIONS = 64;
+
+
+  /**
+   * Compiles the expressions of the field descriptors
+   * @param descriptors the field descriptors, which may be <code>null</code>
+   */
+  FieldScanner (DocFieldDescriptor[] descriptors) {
+    this.descriptors = (descriptors == null) ?
+      new DocFieldDescriptor[0] : descriptors;
+    int len = this.descriptors.length;
+    starts = new Pattern[len];
+    ends   = new Pattern[len];
+    for (int i = 0 ; i < len ; i++) {
+      DocFieldDescriptor fd = this.descriptors[i];
+      String start = translate (fd.getStartExpression());
+      String end   = translate (fd.getEndExpression());
+      if (start == null || end == null) {
+        continue;
+      }
+      try {
+        starts[i] = Pattern.compile (start, FLAGS);
+        ends[i]   = Pattern.compile (end, FLAGS);
+      }
+      catch (PatternSyntaxException e) {
+        starts[i] = null;
+        ends[i]   = null;
+      }
+    }
+  }
+
+  /**
+   * Finds the fields of a document
+   * @param file the file the text came from, for error messages
+   * @param text the text of the document
+   * @return for each field descriptor in turn, four offsets into the text:
+   * where the start match begins and ends, and where the end match begins
+   * and ends. All four are -1 if the field was not found.
+   * @exception TextParseException if a field starts but does not end
+   */
+  int[] scan (File file, CharSequence text) throws TextParseException {
+    int len = descriptors.length;
+    int[] spans = new int[4 * len];
+    Arrays.fill (spans, -1);
+
+    // one scan for the starts of all fields
+    BitSet missing = new BitSet (len);
+    for (int i = 0 ; i < len ; i++) {
+      if (starts[i] != null) {
+        missing.set (i);
+      }
+    }
+    int from = 0;
+    while (!missing.isEmpty()) {
+      Alternation alternation = getAlternation (missing);
+      Matcher m = alternation.pattern.matcher (text);
+      if (!find (m, from)) {
+        break;
+      }
+      for (int j = 0 ; j < alternation.fields.length ; j++) {
+        int g = alternation.groups[j];
+        if (m.start (g) != -1) {
+          int i = alternation.fields[j];
+          spans[4 * i]     = m.start (g);
+          spans[4 * i + 1] = m.end (g);
+          missing.clear (i);
+          break;
+        }
+      }
+      // another missing field may start at the same place
+      from = m.start();
+    }
+
+    // each end is searched for from its own start
+    String string = null;
+    for (int i = 0 ; i < len ; i++) {
+      DocFieldDescriptor fd = descriptors[i];
+      if (starts[i] == null) {
+        if (string == null) {
+          string = text.toString();
+        }
+        REMatch startMatch = fd.getStart().getMatch (string);
+        if (startMatch == null) {
+          continue;
+        }
+        REMatch endMatch =
+          fd.getEnd().getMatch (string, startMatch.getEndIndex());
+        if (endMatch == null) {
+          throw missingEnd (file, fd);
+        }
+        spans[4 * i]     = startMatch.getStartIndex();
+        spans[4 * i + 1] = startMatch.getEndIndex();
+        spans[4 * i + 2] = endMatch.getStartIndex();
+        spans[4 * i + 3] = endMatch.getEndIndex();
+        continue;
+      }
+      if (spans[4 * i] == -1) {
+        continue;
+      }
+      Matcher m = ends[i].matcher (text);
+      if (!find (m, spans[4 * i + 1])) {
+        throw missingEnd (file, fd);
+      }
+      spans[4 * i + 2] = m.start();
+      spans[4 * i + 3] = m.end();
+    }
+    return spans;
+  }
+
+
+  // -------- HELPER METHODS --------
+  /**
+   * Returns the alternation of the starts of the missing fields, each in
+   * a group of its own, compiling it the first time it is needed
+   */
+  private Alternation getAlternation (BitSet missing) {
+    Alternation alternation = (Alternation) alternations.get (missing);
+    if (alternation != null) {
+      return alternation;
+    }
+    alternation = new Alternation();
+    alternation.fields = new int[missing.cardinality()];
+    alternation.groups = new int[alternation.fields.length];
+    StringBuffer regex = new StringBuffer();
+    int group = 1;
+    int j = 0;
+    for (int i = missing.nextSetBit (0) ; i >= 0 ;
+         i = missing.nextSetBit (i + 1)) {
+      if (regex.length() > 0) {
+        regex.append ('|');
+      }
+      regex.append ('(').append (starts[i].pattern()).append (')');
+      alternation.fields[j] = i;
+      alternation.groups[j] = group;
+      // the groups of the start expression itself come next
+      group += 1 + starts[i].matcher ("").groupCount();
+      j++;
+    }
+    alternation.pattern = Pattern.compile (regex.toString(), FLAGS);
+    alternations.put (missing.clone(), alternation);
+    return alternation;
+  }
+
+  /**
+   * Searches from a position, as <code>gnu.regexp</code> does: a search
+   * that starts before the end of the text never matches at its very end,
+   * so, for one, <code>$</code> does not end an unterminated last line.
+   */
+  private static boolean find (Matcher m, int from) {
+    int length = m.regionEnd();
+    return m.find (from) && (m.start() < length || from == length);
+  }
+
+  private static TextParseException missingEnd (File file,
+                                                DocFieldDescriptor fd) {
+    return new TextParseException ("Missing end match", file, fd.getName(),
+                                   fd.getStart(), fd.getEnd());
+  }
+
+  /**
+   * Translates a POSIX basic expression, as gnu.regexp reads it with
+   * <code>RE_SYNTAX_SED</code>, into java.util.regex. In that syntax the
+   * operators <code>( ) { } | + ?</code> are written with a backslash and
+   * are literal without one, and <code>^</code>, <code>$</code> and
+   * <code>*</code> are only special where POSIX says so.
+   * @return the translation, or <code>null</code> if the expression uses
+   * something that cannot be translated exactly
+   */
+  static String translate (String re) {
+    if (re == null) {
+      return null;
+    }
+    StringBuffer out = new StringBuffer();
+    int len = re.length();
+    boolean atStart = true;  // where '*' is literal and '^' an anchor
+    for (int i = 0 ; i < len ; i++) {
+      char c = re.charAt (i);
+      boolean wasStart = atStart;
+      atStart = false;
+      switch (c) {
+        case '\\':
+          if (++i == len) {
+            return null;
+          }
+          char e = re.charAt (i);
+          if (e == '(' || e == '|') {
+            out.append (e);
+            atStart = true;
+          }
+          else if (e == '{') {
+            // an interval: digits and a comma, up to the closing brace
+            int end = re.indexOf ("\\}", i);
+            if (end == -1) {
+              return null;
+            }
+            String interval = re.substring (i + 1, end);
+            for (int j = 0 ; j < interval.length() ; j++) {
+              char d = interval.charAt (j);
+              if (d != ',' && (d < '0' || d > '9')) {
+                return null;
+              }
+            }
+            out.append ('{').append (interval).append ('}');
+            i = end + 1;
+          }
+          else if (e == ')' || e == '+' || e == '?') {
+            out.append (e);
+          }
+          else if (Character.isLetterOrDigit (e) || e == '<' || e == '>' ||
+                   e == '`' || e == '\'') {
+            // back-references, and escapes gnu.regexp may give a meaning
+            return null;
+          }
+          else {
+            quote (out, e);
+          }
+          break;
+
+        case '^':
+          if (wasStart) {
+            // a multi-line '^' of java.util.regex never matches at the end
+            // of the text, where gnu.regexp's does after a newline, and in
+            // an empty text
+            out.append ("(?:^|(?<=\\n)\\z|\\A)");
+            atStart = true;
+          }
+          else {
+            out.append ("\\^");
+          }
+          break;
+
+        case '$':
+          if (i + 1 == len || re.startsWith ("\\)", i + 1) ||
+              re.startsWith ("\\|", i + 1)) {
+            out.append ('$');
+          }
+          else {
+            out.append ("\\$");
+          }
+          break;
+
+        case '*':
+          out.append (wasStart ? "\\*" : "*");
+          break;
+
+        case '.':
+          out.append ('.');
+          break;
+
+        case '[':
+          i = bracket (re, i, out);
+          if (i == -1) {
+            return null;
+          }
+          break;
+
+        default:
+          quote (out, c);
+      }
+    }
+    return out.toString();
+  }
+
+  /** Translates the bracket expression starting at i, returns its end */
+  private static int bracket (String re, int i, StringBuffer out) {
+    int len = re.length();
+    out.append ('[');
+    i++;
+    if (i < len && re.charAt (i) == '^') {
+      out.append ('^');
+      i++;
+    }
+    if (i < len && re.charAt (i) == ']') {
+      out.append ("\\]");
+      i++;
+    }
+    for ( ; i < len ; i++) {
+      char c = re.charAt (i);
+      if (c == ']') {
+        out.append (']');
+        return i;
+      }
+      if (c == '[' && i + 1 < len && re.charAt (i + 1) == ':') {
+        int end = re.indexOf (":]", i + 2);
+        if (end == -1) {
+          return -1;
+        }
+        String name = re.substring (i + 2, end);
+        String property = (String) CLASSES.get (name);
+        if (property == null) {
+          return -1;
+        }
+        out.append ("\\p{").append (property).append ('}');
+        i = end + 1;
+      }
+      else if (c == '[' && i + 1 < len &&
+               (re.charAt (i + 1) == '.' || re.charAt (i + 1) == '=')) {
+        // collating elements and equivalence classes
+        return -1;
+      }
+      else if (c == '-') {
+        out.append ('-');
+      }
+      else {
+        quote (out, c);
+      }
+    }
+    return -1;
+  }
+
+  private static void quote (StringBuffer out, char c) {
+    if (!Character.isLetterOrDigit (c) && c < 128 && c != ' ') {
+      out.append ('\\');
+    }
+    out.append (c);
+  }
+
+  // ----- The alternation of the starts of a set of fields
+  private static class Alternation {
+    Pattern pattern;
+    int[]   fields;  // the fields, in the order of the alternation
+    int[]   groups;  // the group of each field's start
+  }
+
+  private static final Map CLASSES = new HashMap();
+  static {
+    CLASSES.put ("alnum",  "Alnum");
+    CLASSES.put ("alpha",  "Alpha");
+    CLASSES.put ("blank",  "Blank");
+    CLASSES.put ("cntrl",  "Cntrl");
+    CLASSES.put ("digit",  "Digit");
+    CLASSES.put ("graph",  "Graph");
+    CLASSES.put ("lower",  "Lower");
+    CLASSES.put ("print",  "Print");
+    CLASSES.put ("punct",  "Punct");
+    CLASSES.put ("space",  "Space");
+    CLASSES.put ("upper",  "Upper");
+    CLASSES.put ("xdigit", "XDigit");
+  }
+}
@@ -1,11 +1,8 @@
 
 package edu.columbia.cs.sdarts.backend.impls.text;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.InputStreamReader;
-import java.util.StringTokenizer;
+import java.nio.CharBuffer;
 
 import org.omg.CORBA.IntHolder;
 
@@ -16,10 +13,9 @@ import com.lucene.document.Field;
 import edu.columbia.cs.sdarts.backend.BackEndException;
 import edu.columbia.cs.sdarts.backend.doc.DocConfig;
 import edu.columbia.cs.sdarts.backend.doc.DocFieldDescriptor;
+import edu.columbia.cs.sdarts.backend.doc.lucene.DocumentContent;
 import edu.columbia.cs.sdarts.backend.doc.lucene.DocumentEnum;
 import edu.columbia.cs.sdarts.common.FieldNames;
-import gnu.regexp.RE;
-import gnu.regexp.REMatch;
 
 
 /**
@@ -30,11 +26,14 @@ import gnu.regexp.REMatch;
  * Basically, it uses
  * {@link edu.columbia.cs.sdarts.backend.doc.DocFieldDescriptor DocFieldDescriptors}
  * and the regular expressions contained within them to extract fields from
- * a file.
+ * a file. The expressions are compiled once for the collection; see
+ * {@link FieldScanner}.
  * @author <a href="mailto:ngreen@cs.columbia.edu">Noah Green</a>
  * @version 1.0
  */
 public final class TextDocumentEnum extends DocumentEnum {
+  private FieldScanner scanner;
+
 
   /**
    * Builds a Lucene <code>Document</code> from a plain text file
@@ -48,26 +47,11 @@ public final class TextDocumentEnum extends DocumentEnum {
       int len = 0;
       StringBuffer buff = new StringBuffer();
 
-      // Read entire document into buffer
-      StringBuffer docBuffer = new StringBuffer();
-	  BufferedReader br = null;
-      int tokenCount = 0;
-      try {
-        br = new BufferedReader (
-          new InputStreamReader (
-            new FileInputStream (f)));
-        String line = null;
-        while ( (line = br.readLine()) != null ) {
-          docBuffer.append (line);
-          docBuffer.append ("\r\n");
-          tokenCount += new StringTokenizer (line, " ").countTokens();
-        }
-        br.close();
-      }
-      catch (Exception e) {
-        throw new BackEndException (e.getMessage());
-      }
-      storeTokenCountHere.value = tokenCount;
+      // Read entire document into memory, and find all the fields at once
+      DocumentContent content = getContent (f);
+      CharBuffer docBuffer = content.getText();
+      storeTokenCountHere.value = content.countTokens();
+      int[] spans = getScanner().scan (f, docBuffer);
 
       // Build fields
       DocFieldDescriptor[] fieldDescriptors =
@@ -77,49 +61,35 @@ public final class TextDocumentEnum extends DocumentEnum {
         for (int i = 0 ; i < len ; i++) {
           DocFieldDescriptor fd = fieldDescriptors[i];
           String  fieldName = fd.getName();
-//          int     fieldType = fd.getCode();
 		  String  fieldType = fd.getName();
           boolean skipStart = fd.skipStart();
           boolean skipEnd   = fd.skipEnd();
 
-          RE start = fd.getStart();
-          RE end   = fd.getEnd();
-          REMatch startMatch = start.getMatch (docBuffer);
-	
-          if (startMatch == null) {
+          int sStart = spans[4 * i];
+          if (sStart == -1) {
             continue;
           }
-
-          int sEnd   = -1;
-          int eStart = -1;
-          int eEnd   = -1;
-          sEnd   = startMatch.getEndIndex();
+          int sEnd   = spans[4 * i + 1];
+          int eStart = spans[4 * i + 2];
+          int eEnd   = spans[4 * i + 3];
 
           boolean isDate = fd.isDate();
           long dateNum = -1;
 
           if (!isDate && !skipStart) {
-            buff.append (startMatch);
+            buff.append (docBuffer.subSequence (sStart, sEnd));
           }
 
-          REMatch endMatch = end.getMatch (docBuffer, sEnd);
-          if (endMatch == null) {
-            throw new TextParseException ("Missing end match", f, fd.getName(),
-                                          start, end);
-          }
-          
-          eStart = endMatch.getStartIndex();
-          eEnd   = endMatch.getEndIndex();
-
           if (isDate) {
-            String dateString = docBuffer.substring (sEnd,eStart).trim();
+            String dateString =
+              docBuffer.subSequence (sEnd, eStart).toString().trim();
             dateNum = parseDate (dateString);
             document.add (Field.Keyword (fieldName, DateField.timeToString(dateNum)));
           }
           else {
-            buff.append (docBuffer.substring (sEnd, eStart));
+            buff.append (docBuffer.subSequence (sEnd, eStart));
             if (!skipEnd) {
-              buff.append (endMatch);
+              buff.append (docBuffer.subSequence (eStart, eEnd));
             }
             if (fieldType == FieldNames.LINKAGE) {
               buff.insert(0, docConfig.getLinkagePrefix());
@@ -134,4 +104,13 @@ public final class TextDocumentEnum extends DocumentEnum {
       }
     return document;
   }
+
+
+  // -------- HELPER METHODS --------
+  private synchronized FieldScanner getScanner () {
+    if (scanner == null) {
+      scanner = new FieldScanner (getDocConfig().getFieldDescriptors());
+    }
+    return scanner;
+  }
 }
@@ -1,27 +1,23 @@
 
 package edu.columbia.cs.sdarts.backend.impls.xml;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.StringReader;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.StringTokenizer;
 
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.transform.Source;
-import javax.xml.transform.Templates;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.stream.StreamResult;
-import javax.xml.transform.stream.StreamSource;
+import javax.xml.parsers.SAXParserFactory;
+import javax.xml.transform.sax.SAXResult;
+import javax.xml.transform.sax.SAXSource;
 
 import org.omg.CORBA.IntHolder;
-import org.xml.sax.AttributeList;
+import org.xml.sax.Attributes;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
 
 import com.lucene.document.DateField;
 import com.lucene.document.Document;
@@ -33,7 +29,7 @@ import edu.columbia.cs.sdarts.backend.doc.DocFieldDescriptor;
 import edu.columbia.cs.sdarts.backend.doc.lucene.DocumentEnum;
 import edu.columbia.cs.sdarts.common.FieldNames;
 import edu.columbia.cs.sdarts.frontend.SDARTS;
-import edu.columbia.cs.sdarts.util.SDARTSHandlerBase;
+import edu.columbia.cs.sdarts.util.StylesheetRegistry;
 import edu.columbia.cs.sdarts.util.UnsynchStack;
 
 
@@ -69,6 +65,13 @@ import edu.columbia.cs.sdarts.util.UnsynchStack;
  * as a sequence of SAX events back to this class, which then uses them
  * to build the Lucene <code>Document</code> accordingly.
  * </ul>
+ * The file is parsed once, and the output of the stylesheet is never
+ * serialized: it goes straight from the <code>Transformer</code>, through
+ * a <code>SAXResult</code>, into the handler that builds the
+ * <code>Document</code>. Each parser thread keeps its own parser,
+ * <code>Transformer</code>, and handler, and reuses them for every file;
+ * the stylesheet itself is compiled once, by the
+ * {@link edu.columbia.cs.sdarts.util.StylesheetRegistry StylesheetRegistry}.
  * <p>
  * Currently, XSL processing is being carried out by the
  * <a href="http://xml.apache.org/xalan">Apache Xalan</a> XSL
@@ -82,33 +85,25 @@ import edu.columbia.cs.sdarts.util.UnsynchStack;
  */
 public final class XMLDocumentEnum extends DocumentEnum {
 	  //private StylesheetRoot 	stylesheet;
-  private Templates 		template;
+  private File 			stylesheet;
   //private XSLTProcessor  	processor;
-  private Transformer 		transformer;
-  private XDHandler      	handler;
-  Document       			document;
-  boolean        			fdSet;
+  // Transformers, parsers, and handlers are not thread-safe, so each
+  // parser thread gets a Pipeline of its own
+  private ThreadLocal 		pipelines = new ThreadLocal();
   
   /**
-   * Builds a Lucene <code>Document</code> from an XML file
+   * Builds a Lucene <code>Document</code> from an XML file. Safe to call
+   * from several threads at once.
    */
   public Document createDocument(File f, IntHolder storeTokenCountHere) throws BackEndException 
   {
-      // If processor is null, that means that the
-      // stylsheet is null, so load and compile it.
-      if (transformer == null) 
+      Pipeline pipeline = (Pipeline) pipelines.get();
+      if (pipeline == null) 
       {
         try 
         {
-			TransformerFactory 		factory 			= TransformerFactory.newInstance();
-			String 					styleSheetFilename 	= 	SDARTS.CONFIG_DIRECTORY + 
-															File.separator +
-            												getDocConfig().getBackEndLSPName() + 
-            												File.separator +
-            												DocConstants.STYLESHEET_FILENAME;
-			Source 					xsl 				= new StreamSource(new FileInputStream(styleSheetFilename));
-			template 									= factory.newTemplates(xsl);
-			transformer 								= template.newTransformer();
+			pipeline = new Pipeline();
+			pipelines.set(pipeline);
         }
         catch (Exception e) 
         {
@@ -117,44 +112,67 @@ public final class XMLDocumentEnum extends DocumentEnum {
         }
       }
 
-      // If field descriptors have not been set on docConfig, make a note
-      // to do it
-      fdSet = (getDocConfig().getFieldDescriptors() != null);
-
       // Start parsing
       try 
       {
-       // System.out.println ("XSL processing " + f.getName());
-       // long 					startParse 		= System.currentTimeMillis();
-        //XSLTResultTarget 		target 			= new XSLTResultTarget (new XDHandler(storeTokenCountHere));
-        FileInputStream 		fis 			= new FileInputStream (f.getPath());
-		Source 					xml 			= new StreamSource(fis);
-		ByteArrayOutputStream 	oStream 		= new java.io.ByteArrayOutputStream();
-		StreamResult 			result			= new StreamResult(oStream);
-		
-		transformer.transform( xml, result );
-		
-        //stylesheet.process(new XSLTInputSource (fis), target);
-	 	//org.apache.xerces.parsers.SAXParser p = new org.apache.xerces.parsers.SAXParser();
-		//p.setDocumentHandler(new XDHandler(storeTokenCountHere));
-		XDHandler				handler = new XDHandler(storeTokenCountHere);
-		handler.parse(new InputSource(new StringReader(oStream.toString())));
-		//p.parse(new InputSource(oStream.toString()));
-		
-       // long stopParse  = System.currentTimeMillis();
-       // System.out.println ("Processed in " + (stopParse-startParse) + " ms");
+		InputSource 			xml 			= new InputSource(getContent(f).openStream());
+		xml.setSystemId(f.toURI().toString());
+		return pipeline.parse(xml, storeTokenCountHere);
       }
       catch (Exception e) 
       {
+        // a transform that failed half way may leave the pipeline unusable
+        pipelines.set(null);
         e.printStackTrace();
         throw new BackEndException (e.getMessage());
       }
+  }
 
-      // Done
-      return document;
+  /**
+   * Finds the stylesheet the first time it is needed.
+   */
+  private synchronized File getStylesheet()
+  {
+      if (stylesheet == null) 
+      {
+			stylesheet 									= new File(SDARTS.CONFIG_DIRECTORY + 
+															File.separator +
+            												getDocConfig().getBackEndLSPName() + 
+            												File.separator +
+            												DocConstants.STYLESHEET_FILENAME);
+      }
+      return stylesheet;
   }
 
-  private class XDHandler extends SDARTSHandlerBase {
+  /**
+   * One parser thread's parser and handler, and its <code>Transformer</code>,
+   * wired together so that a file goes through all three in a single pass
+   */
+  private class Pipeline {
+      private XMLReader   reader;
+      private XDHandler   handler;
+      private SAXResult   result;
+
+      Pipeline () throws Exception
+      {
+        SAXParserFactory factory = SAXParserFactory.newInstance();
+        factory.setNamespaceAware(true);
+        reader      = factory.newSAXParser().getXMLReader();
+        handler     = new XDHandler();
+        StylesheetRegistry.getTemplates(getStylesheet());
+        result      = new SAXResult(handler);
+      }
+
+      Document parse (InputSource xml, IntHolder tokenCount) throws Exception
+      {
+        handler.reset(tokenCount);
+        StylesheetRegistry.getTransformer(getStylesheet())
+          .transform(new SAXSource(reader, xml), result);
+        return handler.document;
+      }
+  }
+
+  private class XDHandler extends DefaultHandler {
       private int state;
       private static final int UNKNOWN      = 0;
       private static final int INTERMEDIATE = 1;
@@ -165,20 +183,27 @@ public final class XMLDocumentEnum extends DocumentEnum {
 
       private UnsynchStack fields = new UnsynchStack();
       private String fieldName;
-      private StringBuffer fieldValue;
+      private StringBuffer fieldValue = new StringBuffer();
       private IntHolder tokenCount;
+      private Document document;
 
-      public XDHandler (IntHolder tokenCount) throws SAXException, ParserConfigurationException
+      /**
+       * Get ready for the next file
+       */
+      void reset (IntHolder tokenCount)
       {
-		//EnableValidation(true);
-		
         this.tokenCount = tokenCount;
-        fieldValue = new StringBuffer();
+        state = UNKNOWN;
+        fields.clear();
+        fieldName = null;
+        fieldValue.setLength(0);
+        document = null;
       }
 
-      public void startElement (String name, AttributeList atts)
+      public void startElement (String uri, String localName, String qName,
+                                Attributes atts)
         throws SAXException {
-        name = this.removeNamespace(name);
+        String name = elementName (localName, qName);
 	if (name.equals ("intermediate")) {
 	    state = INTERMEDIATE;
 	}
@@ -219,28 +244,32 @@ public final class XMLDocumentEnum extends DocumentEnum {
         }
       }
 
-      public void endElement (String name) throws SAXException {
+      public void endElement (String uri, String localName, String qName)
+        throws SAXException {
           switch (state) {
 	    case INTERMEDIATE:
 	      break;
 
             case SQRDOCUMENT:
-              XMLDocumentEnum.this.document =
-                new Document();
+              document = new Document();
               for (Iterator it = fields.iterator() ; it.hasNext() ; ) {
                 Field f = (Field) it.next();
                 document.add(f);
               }
-              if (!XMLDocumentEnum.this.fdSet) {
-                List fds = new LinkedList();
-                for (Iterator it = fields.iterator() ; it.hasNext() ; ) {
-                  Field f = (Field) it.next();
-                  fds.add (new DocFieldDescriptor (f.name(),true,true));
+              // If field descriptors have not been set on docConfig,
+              // take them from the first document parsed
+              synchronized (getDocConfig()) {
+                if (getDocConfig().getFieldDescriptors() == null) {
+                  List fds = new LinkedList();
+                  for (Iterator it = fields.iterator() ; it.hasNext() ; ) {
+                    Field f = (Field) it.next();
+                    fds.add (new DocFieldDescriptor (f.name(),true,true));
+                  }
+                  getDocConfig().
+                    setFieldDescriptors
+                      ((DocFieldDescriptor[])
+                        fds.toArray(new DocFieldDescriptor[0]));
                 }
-                getDocConfig().
-                  setFieldDescriptors
-                    ((DocFieldDescriptor[])
-                      fds.toArray(new DocFieldDescriptor[0]));
               }
               fields.clear();
 	      state = INTERMEDIATE;
@@ -279,5 +308,14 @@ public final class XMLDocumentEnum extends DocumentEnum {
             break;
           }
       }
+
+      /** The element's name without its namespace prefix */
+      private String elementName (String localName, String qName) {
+        if (localName != null && localName.length() > 0) {
+          return localName;
+        }
+        int i = qName.indexOf(':');
+        return (i > 0) ? qName.substring(i+1) : qName;
+      }
   }
 }
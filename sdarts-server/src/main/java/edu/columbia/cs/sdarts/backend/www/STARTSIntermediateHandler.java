@@ -167,6 +167,24 @@ public class STARTSIntermediateHandler extends SDARTSHandlerBase {
 		return request;
 	}
 
+	/**
+	 * Called with each <code>HTTPRequest</code> as soon as its
+	 * &lt;starts:script&gt; has been read, while the rest of the page is
+	 * still being translated. Queues it for {@link #getRequest()}; a
+	 * subclass may start it early instead.
+	 * @param request the request
+	 */
+	protected void addRequest(HTTPRequest request) {
+		requests.addElement(request);
+	}
+
+	/**
+	 * @return number of documents read so far
+	 */
+	public int getDocCount() {
+		return docs.size();
+	}
+
 	/**
 	 * @return number of requests left
 	 */
@@ -393,10 +411,10 @@ public class STARTSIntermediateHandler extends SDARTSHandlerBase {
 				try {
 					if (method.equals("GET")) {
 						HTTPRequest request = new HTTPGet(url, params);
-						requests.addElement(request);
+						addRequest(request);
 					} else if (method.equals("POST")) {
 						HTTPRequest request = new HTTPPost(url, params);
-						requests.addElement(request);
+						addRequest(request);
 					} else {
 						throw new SAXException("illegal method: " + method);
 					}
@@ -1,7 +1,6 @@
 package edu.columbia.cs.sdarts.backend.www;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.StringReader;
 import java.io.StringWriter;
@@ -18,6 +17,7 @@ import edu.columbia.cs.sdarts.common.LSPQuery;
 //import edu.columbia.cs.sdarts.common.STARTS;
 import edu.columbia.cs.sdarts.frontend.SDARTS;
 import edu.columbia.cs.sdarts.util.HTTPRequest;
+import edu.columbia.cs.sdarts.util.StylesheetRegistry;
 import edu.columbia.cs.sdarts.util.XMLWriter;
 
 import javax.xml.transform.*;
@@ -71,29 +71,27 @@ import java.io.ByteArrayOutputStream;
  */
 public class WWWQueryTranslator implements WWWConstants {
 	//private StylesheetRoot 	stylesheet;
-	private Transformer transformer;
-	private STARTSIntermediateHandler handler;
+	private File stylesheet;
 
 	/**
 	 * Create a <code>WWWQueryTranslator</code>. The class needs to know
 	 * the name of the {@link edu.columbia.cs.sdarts.backend.BackEndLSP BackEndLSP} using it,
-	 * in order to find the <code>www_query.xsl</code> stylsheet. The class
-	 * loads the stylesheet and keeps it in a pre-compiled form.
+	 * in order to find the <code>www_query.xsl</code> stylsheet. The
+	 * stylesheet is kept in a pre-compiled form by the
+	 * {@link edu.columbia.cs.sdarts.util.StylesheetRegistry StylesheetRegistry},
+	 * and a translator can be used by several threads at once.
 	 * @param backEndLSPName the name of the <code>BackEndLSP</code> using this
 	 * class
 	 */
 	public WWWQueryTranslator(String backEndLSPName) throws BackEndException {
 		try {
-			TransformerFactory factory = TransformerFactory.newInstance();
-			String styleSheetFilename =
-				SDARTS.CONFIG_DIRECTORY
+			stylesheet =
+				new File(SDARTS.CONFIG_DIRECTORY
 					+ File.separator
 					+ backEndLSPName
 					+ File.separator
-					+ REQUEST_STYLESHEET_FILENAME;
-
-			Source xsl = new StreamSource(new FileInputStream(styleSheetFilename));
-			transformer = factory.newTemplates(xsl).newTransformer();
+					+ REQUEST_STYLESHEET_FILENAME);
+			StylesheetRegistry.getTemplates(stylesheet);
 
 			// Get Stylsheet
 			//		XSLTProcessor processor = XSLTProcessorFactory.getProcessor();
@@ -104,9 +102,6 @@ public class WWWQueryTranslator implements WWWConstants {
 
 			//		FileInputStream fis = new FileInputStream (styleSheetFilename);
 			//		stylesheet = processor.processStylesheet (new XSLTInputSource (fis));
-
-			// Set up handler
-			handler = new STARTSIntermediateHandler();
 		} catch (Exception e) {
 			e.printStackTrace();
 			throw new BackEndException(e.getMessage());
@@ -139,8 +134,11 @@ public class WWWQueryTranslator implements WWWConstants {
 		ByteArrayOutputStream oStream = new java.io.ByteArrayOutputStream();
 		StreamResult result = new StreamResult(oStream);
 
+		STARTSIntermediateHandler handler = null;
 		try {
-			transformer.transform(xml, result);
+			StylesheetRegistry.getTransformer(stylesheet).transform(xml, result);
+			// handlers are not thread-safe, and keep state between uses
+			handler = new STARTSIntermediateHandler();
 		} catch (Exception e) {
 			e.printStackTrace();
 			throw new BackEndException(e.getMessage());
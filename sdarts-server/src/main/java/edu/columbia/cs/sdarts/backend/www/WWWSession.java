@@ -1,12 +1,26 @@
 package edu.columbia.cs.sdarts.backend.www;
 
-import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.InputStreamReader;
-import java.io.PipedInputStream;
-import java.io.PipedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.PrintWriter;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import javax.xml.XMLConstants;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.sax.SAXResult;
+import javax.xml.validation.Schema;
+import javax.xml.validation.SchemaFactory;
+import javax.xml.validation.ValidatorHandler;
+
 //import java.io.StringWriter;
 
 //import org.apache.xalan.xpath.xdom.XercesLiaison;
@@ -18,16 +32,15 @@ import java.io.PrintWriter;
 import org.w3c.tidy.Tidy;
 //import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
+import org.xml.sax.helpers.XMLReaderAdapter;
 
 import edu.columbia.cs.sdarts.backend.BackEndException;
 import edu.columbia.cs.sdarts.common.LSPDoc;
 import edu.columbia.cs.sdarts.common.LSPField;
 import edu.columbia.cs.sdarts.frontend.SDARTS;
 import edu.columbia.cs.sdarts.util.HTTPRequest;
-
-import javax.xml.transform.*;
-import javax.xml.transform.stream.*;
-import java.io.ByteArrayOutputStream;
+import edu.columbia.cs.sdarts.util.HTTPTransport;
+import edu.columbia.cs.sdarts.util.StylesheetRegistry;
 
 /**
  * Represents the connection between the
@@ -41,13 +54,12 @@ import java.io.ByteArrayOutputStream;
  * <p>
  * During each invocation of <code>getDocs()</code>, the following happens:
  * <ul>
- * <li>In one thread, the CGI request is invoked and results are sent
- * to <a href="http://www.w3.org/People/Raggett/tidy/">HTML Tidy</a>,
- * a free tool from W3C that converts the HTML into well-formed XML. The
- * output of this thread is piped to a second thread.
- * <li>In the second thread, the <a href="http://xml.apache.org/xalan">
- * Apache Xalan</a> XSL processor uses the <code>www_results.xsl</code>
- * stylesheet to transform the incoming XML into
+ * <li>The CGI request is invoked - usually already, see below - and the
+ * page it returned is sent to
+ * <a href="http://www.w3.org/People/Raggett/tidy/">HTML Tidy</a>,
+ * a free tool from W3C that converts the HTML into a well-formed XML DOM.
+ * <li>The XSL processor uses the <code>www_results.xsl</code>
+ * stylesheet to transform the DOM into
  * <code>starts_intermediate</code> form. The result should look something
  * like this:
  * <pre>
@@ -77,8 +89,8 @@ import java.io.ByteArrayOutputStream;
  * The &lt;starts:script&gt; represents a translation of a "more" button at
  * the bottom of the HTML results page, and is present only if there was such
  * a button there.
- * <li>The <code>starts_intermediate</code> output is sent as a stream of
- * SAX events, to an instance of
+ * <li>The <code>starts_intermediate</code> output is validated and sent as
+ * a stream of SAX events, as it is produced, to an instance of
  * {@link edu.columbia.cs.sdarts.backend.www.STARTSIntermediateHandler STARTSIntermediateHandler},
  * which will extract the results as {@link edu.columbia.cs.sdarts.common.LSPDoc LSPDocs} and,
  * if the "more" button was present, will extract a new invocation coded as
@@ -88,14 +100,31 @@ import java.io.ByteArrayOutputStream;
  * for the query is exceeded, or an <code>Exception</code> happened somewhere,
  * then <code>isEmpty()</code> will return <code>true</code> at its next
  * invocation.
- * <li>Otherwise, calling <code>getDocs()</code> again automatically invokes
- * the new <code>HTTPRequest</code> that was retrieved during translation.
+ * <li>Otherwise, calling <code>getDocs()</code> again automatically reads
+ * the page of the new <code>HTTPRequest</code> that was retrieved during
+ * translation.
  * <li>This class now handles multi-level results, i.e., we can simulate 
  * multiple clicks on first level page to retrieve results from second or 
  * deeperlevel pages
  * </ul>
- * This class <b>does not deal with errors on the server, or timeouts, etc.</b>
- * A future version should.
+ * All this happens in the thread that calls <code>getDocs()</code>, and
+ * each page is parsed only once, by Tidy: the DOM is transformed without
+ * being written out, and the result is never written out either.
+ * <p>
+ * The session does not wait for <code>getDocs()</code> to send a request.
+ * As soon as the &lt;starts:script&gt; of a request has been translated,
+ * while the rest of its page is still being translated, the request is
+ * sent in the background, and its page is read into memory, ready for the
+ * next call. No more than
+ * {@link edu.columbia.cs.sdarts.util.HTTPTransport#getPrefetchPages()
+ * getPrefetchPages()} pages of a session are fetched ahead at a time, and
+ * none once the documents read so far reach the maximum the session wants.
+ * <p>
+ * Every request is sent through the back-end's
+ * {@link edu.columbia.cs.sdarts.util.HTTPTransport HTTPTransport}, so a
+ * server that does not answer in time ends the session instead of
+ * blocking it, and the pages of one session reuse the same connection.
+ * This class <b>does not retry after errors on the server.</b>
  * <p>
  * For more information about the <code>starts_intermediate</code>
  * format, see the
@@ -111,14 +140,30 @@ public class WWWSession implements WWWConstants {
 	private String backEndLSPName;
 	private int maxDocs;
 	private int docCount;
-	HTTPRequest request;
+	private LinkedList pages = new LinkedList(); // Pages not yet read
+	private int fetchingAhead;
+	private HTTPTransport transport;
 	private STARTSIntermediateHandler handler;
+	private SAXResult result;
 	private Throwable error;
 	//StylesheetRoot                     		stylesheet;
-	private Transformer transformer;
+	private File stylesheet;
 	Tidy tidy;
 	private int numavailable;
 
+	// validates starts_intermediate against the schema it names
+	private static Schema schema;
+
+	// fetches result pages for all sessions
+	private static final ExecutorService fetcher =
+		Executors.newCachedThreadPool(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "WWWSession fetcher");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+
 	// ------------ METHODS ------------
 	/**
 	 * Start a session with a web search engine.
@@ -135,21 +180,19 @@ public class WWWSession implements WWWConstants {
 	public WWWSession(String backEndLSPName, HTTPRequest request, int maxDocs, LSPField[] answerFields)
 		throws BackEndException, SAXException {
 		this.backEndLSPName = backEndLSPName;
-		this.request = request;
 		this.maxDocs = maxDocs;
+		transport = HTTPTransport.getTransport(backEndLSPName);
 		numavailable = 0;
 
 		try {
-			// Get Stylsheet
-			TransformerFactory factory = TransformerFactory.newInstance();
-			String styleSheetFilename =
-				SDARTS.CONFIG_DIRECTORY
+			// Get Stylsheet, compiled once and shared by all sessions
+			stylesheet =
+				new File(SDARTS.CONFIG_DIRECTORY
 					+ File.separator
 					+ backEndLSPName
 					+ File.separator
-					+ RESULTS_STYLESHEET_FILENAME;
-			Source xsl = new StreamSource(new FileInputStream(styleSheetFilename));
-			transformer = factory.newTemplates(xsl).newTransformer();
+					+ RESULTS_STYLESHEET_FILENAME);
+			StylesheetRegistry.getTemplates(stylesheet);
 
 			//      XercesLiaison liaison = new XercesLiaison();
 			//      liaison.setUseValidation(false);
@@ -158,7 +201,13 @@ public class WWWSession implements WWWConstants {
 			//      stylesheet = processor.processStylesheet (new XSLTInputSource (fis));
 
 			// Set up handler
-			handler = new STARTSIntermediateHandler(answerFields);
+			handler = new SessionHandler(answerFields);
+			XMLReaderAdapter adapter = new XMLReaderAdapter(handler.getParser());
+			adapter.setDocumentHandler(handler);
+			ValidatorHandler validator = getSchema().newValidatorHandler();
+			validator.setErrorHandler(handler);
+			validator.setContentHandler(adapter);
+			result = new SAXResult(validator);
 		} catch (Exception e) {
 			throw new BackEndException(e.getMessage());
 		}
@@ -172,6 +221,10 @@ public class WWWSession implements WWWConstants {
 		tidy.setConfigurationFromFile(SDARTS.CONFIG_DIRECTORY + File.separator + "tidy_config.txt");
 		// This setting can be different from WWWTest class
 		tidy.setErrout(new PrintWriter(System.err, true));
+
+		if (request != null) {
+			addPage(request);
+		}
 	}
 
 	/**
@@ -191,85 +244,28 @@ public class WWWSession implements WWWConstants {
 			return null;
 		}
 
-		// Start the ball rolling
-		try {
-			// Synchronous version - bring this out if asynch should start
-			// acting funny
-			//
-			/*
-			XSLTResultTarget target = new XSLTResultTarget (handler);
-			
-			String fname = SDARTS.CONFIG_DIRECTORY + File.separator + "temp.xml";
-			FileOutputStream fo =
-			  new FileOutputStream (fname);
-			tidy.parseDOM (request.getInputStream(), fo);
-			
-			BufferedReader br =
-			  new BufferedReader (
-			    new InputStreamReader (
-			      new FileInputStream (fname)));
-			stylesheet.process (new XSLTInputSource (br), target);
-			*/
-			//
-
-			// Asynch version - take advantage of processing on web server
-			//
-			final PipedInputStream pis = new PipedInputStream();
-			final PipedOutputStream pos = new PipedOutputStream(pis);
-			//        final BufferedReader br = new BufferedReader(
-			//            new InputStreamReader(pis));
-			//        final StringWriter sw = new StringWriter();
-
-			final Source xml = new StreamSource(new BufferedReader(new InputStreamReader(pis)));
-
-			//        final XSLTInputSource is =
-			//          new XSLTInputSource (
-			//            new InputSource (
-			//              new BufferedReader(
-			//                new InputStreamReader(pis))));
-
-			final ByteArrayOutputStream oStream = new java.io.ByteArrayOutputStream();
-			final StreamResult result = new StreamResult(oStream);
-
-			//        final XSLTResultTarget target = new XSLTResultTarget (handler);
-
-			Thread t1 = new Thread() {
-				public void run() {
-					try {
-						org.w3c.dom.Document doc = tidy.parseDOM(request.getInputStream(), null);
-						tidy.pprint(doc, pos);
-						pos.flush();
-						pos.close();
-					} catch (Exception e) {
-						setError(e);
-					}
-				}
-			};
-			Thread t2 = new Thread() {
-				public void run() {
-					try {
-						transformer.transform(xml, result);
-						handler.parse(new org.xml.sax.InputSource(new java.io.StringReader(oStream.toString())));
-
-						//stylesheet.process (is, target);
-					} catch (Exception e) {
-						setError(e);
-					}
-				}
-			};
-
-			// Start processing the XSL transformation of results
-			t1.start();
-			t2.start();
-
-			t1.join();
-			t2.join();
+		// Take the next page, fetched ahead or not
+		final Page page;
+		synchronized (pages) {
+			page = (Page) pages.removeFirst();
+			if (page.body != null) {
+				fetchingAhead--;
+			}
+		}
 
-			//
-			request.close();
-		} catch (Exception e) {
-			e.printStackTrace(System.err);
-			//throw new BackEndException (e.getMessage());
+		// Tidy the page into a DOM, and transform the DOM straight into
+		// the handler, all in this thread
+		try {
+			byte[] body;
+			try {
+				body = (page.body != null) ? (byte[]) page.body.get() : fetch(page.request);
+			} catch (ExecutionException e) {
+				throw e.getCause();
+			}
+			org.w3c.dom.Document doc = tidy.parseDOM(new ByteArrayInputStream(body), null);
+			StylesheetRegistry.getTransformer(stylesheet).transform(new DOMSource(doc), result);
+		} catch (Throwable e) {
+			setError(e);
 		}
 
 		if (error != null) {
@@ -277,14 +273,11 @@ public class WWWSession implements WWWConstants {
 			//throw new BackEndException (error.getMessage());
 		}
 
-		// When stylesheet.process() unblocks, we are done!
-
-		// First, see if there was a "more" button
-		// VERY IMPORTANT: If no more button, handler returns null
-		// so that isEmpty() returns true from now on
-		// we are now dealing with multi-level of results,
-		// so maybe more than one requests left at given moment
-		request = handler.getRequest();
+		// Any "more" buttons on the page were queued by the handler, and
+		// maybe fetched already. If there were none, and no requests are
+		// left from earlier pages, isEmpty() returns true from now on.
+		// We are dealing with multi-level results, so there may be more
+		// than one request left at a given moment.
 
 		if (numavailable == 0)
 			numavailable = handler.getNumAvailable();
@@ -305,6 +298,20 @@ public class WWWSession implements WWWConstants {
 			docCount += docs.length;
 		}
 
+		// Fetch further pages, or stop fetching if this session is done
+		if (isEmpty()) {
+			synchronized (pages) {
+				for (Iterator it = pages.iterator(); it.hasNext();) {
+					Page p = (Page) it.next();
+					if (p.body != null) {
+						p.body.cancel(false);
+					}
+				}
+			}
+		} else {
+			fetchAhead();
+		}
+
 		return docs;
 	}
 
@@ -317,7 +324,9 @@ public class WWWSession implements WWWConstants {
 	 * <code>Exception</code>; <code>false</code> otherwise
 	 */
 	public boolean isEmpty() {
-		return (docCount >= maxDocs || request == null || error != null);
+		synchronized (pages) {
+			return (docCount >= maxDocs || pages.isEmpty() || error != null);
+		}
 	}
 
 	void setError(Throwable error) {
@@ -328,4 +337,93 @@ public class WWWSession implements WWWConstants {
 		return numavailable;
 	}
 
+	/**
+	 * Return the schema that validates the transformed pages. It is
+	 * loaded from the location the stylesheet's output names, and kept.
+	 */
+	private static synchronized Schema getSchema() throws SAXException {
+		if (schema == null) {
+			schema = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI).newSchema();
+		}
+		return schema;
+	}
+
+	/**
+	 * Queue the page of a request for reading, and fetch it ahead if
+	 * there is room
+	 */
+	private void addPage(HTTPRequest request) {
+		request.setTransport(transport);
+		synchronized (pages) {
+			pages.addLast(new Page(request));
+		}
+		fetchAhead();
+	}
+
+	/**
+	 * Start fetching the next queued pages, unless enough are being fetched
+	 * already, or enough documents have been read
+	 */
+	private void fetchAhead() {
+		synchronized (pages) {
+			for (Iterator it = pages.iterator(); it.hasNext();) {
+				if (fetchingAhead >= transport.getPrefetchPages()
+					|| docCount + handler.getDocCount() >= maxDocs) {
+					return;
+				}
+				final Page page = (Page) it.next();
+				if (page.body == null) {
+					page.body = fetcher.submit(new Callable() {
+						public Object call() throws IOException {
+							return fetch(page.request);
+						}
+					});
+					fetchingAhead++;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Send a request and read its whole page, so that its connection is
+	 * free for the next request
+	 */
+	private static byte[] fetch(HTTPRequest request) throws IOException {
+		try {
+			InputStream in = request.getInputStream();
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			int n;
+			while ((n = in.read(buffer)) != -1) {
+				out.write(buffer, 0, n);
+			}
+			return out.toByteArray();
+		} finally {
+			request.close();
+		}
+	}
+
+	// ------------ INNER CLASSES ------------
+	// ----- A results page: its request, and its body once it is fetched
+	private static class Page {
+		HTTPRequest request;
+		Future body; // null until it is fetched ahead
+
+		Page(HTTPRequest request) {
+			this.request = request;
+		}
+	}
+
+	// ----- Fetches the "more" pages as soon as they are found
+	private class SessionHandler extends STARTSIntermediateHandler {
+		SessionHandler(LSPField[] answerFields)
+			throws SAXException, javax.xml.parsers.ParserConfigurationException {
+			super(answerFields);
+		}
+
+		protected void addRequest(HTTPRequest request) {
+			addPage(request);
+		}
+	}
+
 }
@@ -0,0 +1,111 @@
+package edu.columbia.cs.sdarts.backend.www.contentsummarybuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import edu.columbia.cs.sdarts.util.HTTPTransport;
+
+/**
+ * Downloads the documents that the probe queries of a
+ * {@link edu.columbia.cs.sdarts.backend.www.contentsummarybuilder.WWWContentSummaryBuilder WWWContentSummaryBuilder}
+ * return, several at a time, in the background.
+ * <p>
+ * At most {@link #THREADS} documents are downloaded at once, and at most
+ * {@link #QUEUE} more wait for their turn; a probe that asks for one more
+ * than that downloads it itself, which holds it back until the downloader
+ * catches up. How hard any one site is pressed is up to the
+ * <code>HTTPTransport</code> of the back-end, which limits the requests
+ * open to each host, and how often they start.
+ * <p>
+ * A page in the {@link ProbeCache} of the database is taken from there;
+ * one that is not is kept there once it is downloaded.
+ *
+ * @version 1.0
+ */
+class DocumentDownloader {
+	/** How many documents are downloaded at once */
+	public static final int THREADS = 8;
+	/** How many documents may wait to be downloaded */
+	public static final int QUEUE = 64;
+
+	private HTTPTransport transport;
+	private ProbeCache cache;
+	private ThreadPoolExecutor executor;
+
+	/**
+	 * Creates a downloader
+	 * @param transport the transport to download through
+	 * @param cache the cache to keep the pages in, or <code>null</code>
+	 */
+	public DocumentDownloader(HTTPTransport transport, ProbeCache cache)
+	{
+		this.transport = transport;
+		this.cache = cache;
+		executor = new ThreadPoolExecutor(THREADS, THREADS, 60, TimeUnit.SECONDS,
+			new ArrayBlockingQueue(QUEUE),
+			new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "DocumentDownloader");
+					t.setDaemon(true);
+					return t;
+				}
+			},
+			new ThreadPoolExecutor.CallerRunsPolicy() {
+				public void rejectedExecution(Runnable r, ThreadPoolExecutor e) {
+					// a download run by no one would keep its probe waiting
+					if (e.isShutdown())
+						throw new RejectedExecutionException("the downloader is shut down");
+					super.rejectedExecution(r, e);
+				}
+			});
+		executor.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * Starts downloading a document
+	 * @param url the URL of the document
+	 * @return the words of the document, as a <code>String</code>, when
+	 * they are in; see
+	 * {@link edu.columbia.cs.sdarts.backend.www.contentsummarybuilder.WWWUtilities#getPage(String,HTTPTransport) WWWUtilities.getPage()}
+	 * @exception RejectedExecutionException if the downloader is shut down
+	 */
+	public Future download(final String url)
+	{
+		return executor.submit(new Callable() {
+			public Object call() throws Exception {
+				String page = null;
+				if (cache != null)
+					page = cache.getPage(url);
+				if (page == null) {
+					page = WWWUtilities.getPage(url, transport);
+					// a page that could not be fetched is tried again next time
+					if (cache != null && page.length() > 0)
+						cache.putPage(url, page);
+				}
+				return page;
+			}
+		});
+	}
+
+	/**
+	 * Stops the downloads that have not started, and lets the threads go.
+	 * A probe waiting for a download that has not started is told that it
+	 * was cancelled. The downloads under way are left to finish, rather
+	 * than interrupted in the middle of writing the cache.
+	 */
+	public void shutdown()
+	{
+		executor.shutdown();
+		List waiting = new ArrayList();
+		executor.getQueue().drainTo(waiting);
+		for (int i = 0; i < waiting.size(); i++)
+			((Future)waiting.get(i)).cancel(false);
+	}
+}
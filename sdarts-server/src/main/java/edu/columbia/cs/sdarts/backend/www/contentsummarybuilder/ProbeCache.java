@@ -0,0 +1,317 @@
+package edu.columbia.cs.sdarts.backend.www.contentsummarybuilder;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The probes a
+ * {@link edu.columbia.cs.sdarts.backend.www.contentsummarybuilder.WWWContentSummaryBuilder WWWContentSummaryBuilder}
+ * has sent, and the pages they returned, kept in a single file,
+ * {@link #FILENAME}, in the <code>cache_location</code> of
+ * <code>doc_config.xml</code>.
+ * <p>
+ * A probe is kept under the name of the database and its query, with the
+ * number of hits and the URLs of the documents it sampled. A page is kept,
+ * gzip-compressed, under its URL only, so databases whose
+ * <code>cache_location</code> is the same directory share the pages they
+ * both fetch.
+ * <p>
+ * The file is only ever appended to. Each record carries a checksum, and
+ * where each one starts is kept in memory, so a lookup is one read of the
+ * file; a later record for the same key replaces the earlier one. A probe
+ * is written after its pages, and the file is forced to disk after it, so
+ * a probe that is found has its pages. A record cut short by a crash is
+ * found, and cut off, when the file is opened again.
+ * <p>
+ * There is one <code>ProbeCache</code> for each file, shared by all the
+ * builders of the server, and it is safe to use from several threads. The
+ * file is locked, so that another server cannot use it at the same time.
+ * It is read and written through a <code>RandomAccessFile</code> rather
+ * than its <code>FileChannel</code>: a thread interrupted in the middle of
+ * a channel operation closes the channel, and with it the lock, for every
+ * builder sharing the cache.
+ *
+ * @version 1.0
+ */
+final class ProbeCache {
+	/** The name of the cache file */
+	public static final String FILENAME = "probes.cache";
+
+	private static final byte PAGE  = 'P';
+	private static final byte PROBE = 'Q';
+
+	// type, key length, value length
+	private static final int HEADER = 9;
+	// the checksum after the value
+	private static final int TRAILER = 4;
+
+	private static final Map caches = new HashMap();  // path -> ProbeCache
+
+	private File             file;
+	private RandomAccessFile data;
+	private long             end;
+	private Map         index = new HashMap();  // type + key -> long[] {start, length}
+
+
+	/**
+	 * Returns the cache in a directory, opening it the first time
+	 * @param location the directory, which is created if need be
+	 * @return the cache
+	 * @exception IOException if the cache file cannot be opened, or is
+	 * used by another server
+	 */
+	public static ProbeCache open(String location) throws IOException
+	{
+		File dir = new File(location);
+		dir.mkdirs();
+		String path = new File(dir, FILENAME).getCanonicalPath();
+		synchronized (caches) {
+			ProbeCache cache = (ProbeCache)caches.get(path);
+			if (cache == null) {
+				cache = new ProbeCache(new File(path));
+				caches.put(path, cache);
+			}
+			return cache;
+		}
+	}
+
+	private ProbeCache(File file) throws IOException
+	{
+		this.file = file;
+		data = new RandomAccessFile(file, "rw");
+		if (data.getChannel().tryLock() == null) {
+			data.close();
+			throw new IOException("probe cache in use: " + file.getPath());
+		}
+		load();
+	}
+
+	/**
+	 * Returns what a probe found
+	 * @param database the name of the database probed
+	 * @param query the probe query
+	 * @return the probe, or <code>null</code> if it is not in the cache
+	 * @exception IOException if the cache file cannot be read
+	 */
+	public Probe getProbe(String database, String query) throws IOException
+	{
+		byte[] value = get(PROBE, database + '\n' + query);
+		if (value == null)
+			return null;
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(value));
+		long hits = in.readLong();
+		String[] urls = new String[in.readInt()];
+		for (int i = 0; i < urls.length; i++)
+			urls[i] = in.readUTF();
+		return new Probe(hits, urls);
+	}
+
+	/**
+	 * Keeps what a probe found. The pages of its documents should be kept
+	 * first.
+	 * @param database the name of the database probed
+	 * @param query the probe query
+	 * @param hits how many documents the database said it has
+	 * @param urls the URLs of the documents sampled
+	 * @exception IOException if the cache file cannot be written
+	 */
+	public void putProbe(String database, String query, long hits, String[] urls) throws IOException
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeLong(hits);
+		out.writeInt(urls.length);
+		for (int i = 0; i < urls.length; i++)
+			out.writeUTF(urls[i]);
+		out.close();
+		put(PROBE, database + '\n' + query, bytes.toByteArray(), true);
+	}
+
+	/**
+	 * Returns a page
+	 * @param url the URL of the page
+	 * @return the page, as returned by
+	 * {@link edu.columbia.cs.sdarts.backend.www.contentsummarybuilder.WWWUtilities#getPage(String,edu.columbia.cs.sdarts.util.HTTPTransport) WWWUtilities.getPage()},
+	 * or <code>null</code> if it is not in the cache
+	 * @exception IOException if the cache file cannot be read
+	 */
+	public String getPage(String url) throws IOException
+	{
+		byte[] value = get(PAGE, url);
+		if (value == null)
+			return null;
+		InputStream in = new GZIPInputStream(new ByteArrayInputStream(value));
+		ByteArrayOutputStream out = new ByteArrayOutputStream(value.length * 4);
+		byte[] buffer = new byte[8192];
+		int n;
+		while ((n = in.read(buffer)) != -1)
+			out.write(buffer, 0, n);
+		return out.toString("UTF-8");
+	}
+
+	/**
+	 * Keeps a page
+	 * @param url the URL of the page
+	 * @param page the page
+	 * @exception IOException if the cache file cannot be written
+	 */
+	public void putPage(String url, String page) throws IOException
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		GZIPOutputStream out = new GZIPOutputStream(bytes);
+		out.write(page.getBytes("UTF-8"));
+		out.close();
+		put(PAGE, url, bytes.toByteArray(), false);
+	}
+
+
+	// -------- HELPER METHODS --------
+	/** Reads the keys of the file, and cuts off a record left unfinished */
+	private void load() throws IOException
+	{
+		long size = data.length();
+		long start = 0;
+		String lastKey = null;
+		long[] last = null;
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			while (start + HEADER + TRAILER <= size) {
+				byte type = in.readByte();
+				int keyLength = in.readInt();
+				int valueLength = in.readInt();
+				long length = (long)HEADER + keyLength + valueLength + TRAILER;
+				if ((type != PAGE && type != PROBE) || keyLength < 0 ||
+						valueLength < 0 || start + length > size)
+					break;
+				byte[] key = new byte[keyLength];
+				in.readFully(key);
+				in.skipBytes(valueLength + TRAILER);
+				lastKey = (char)type + new String(key, "UTF-8");
+				last = new long[] {start, length};
+				index.put(lastKey, last);
+				start += length;
+			}
+		}
+		catch (EOFException e) {
+		}
+		finally {
+			in.close();
+		}
+
+		// A crash can leave the last record half written. One further back
+		// that is damaged fails its checksum when it is read, and is taken
+		// for a record that is not there.
+		if (last != null && read(last) == null) {
+			index.remove(lastKey);
+			start = last[0];
+		}
+		if (start < size) {
+			System.err.println("Truncating " + file.getPath() + " at " + start + " of " + size + " bytes");
+			data.setLength(start);
+		}
+		end = start;
+	}
+
+	private byte[] get(byte type, String key) throws IOException
+	{
+		long[] extent;
+		synchronized (this) {
+			extent = (long[])index.get((char)type + key);
+		}
+		return (extent == null) ? null : read(extent);
+	}
+
+	/**
+	 * Reads a record, returns its value, or null if its checksum is wrong
+	 * or the file ends before it does
+	 */
+	private byte[] read(long[] extent) throws IOException
+	{
+		byte[] record = new byte[(int)extent[1]];
+		synchronized (this) {
+			data.seek(extent[0]);
+			try {
+				data.readFully(record);
+			}
+			catch (EOFException e) {
+				return null;
+			}
+		}
+		ByteBuffer buffer = ByteBuffer.wrap(record);
+		CRC32 crc = new CRC32();
+		crc.update(record, 0, record.length - TRAILER);
+		buffer.position(record.length - TRAILER);
+		if ((int)crc.getValue() != buffer.getInt())
+			return null;
+		buffer.position(1);
+		int keyLength = buffer.getInt();
+		int valueLength = buffer.getInt();
+		byte[] value = new byte[valueLength];
+		System.arraycopy(record, HEADER + keyLength, value, 0, valueLength);
+		return value;
+	}
+
+	private synchronized void put(byte type, String key, byte[] value, boolean force) throws IOException
+	{
+		byte[] keyBytes = key.getBytes("UTF-8");
+		ByteBuffer buffer = ByteBuffer.allocate(HEADER + keyBytes.length + value.length + TRAILER);
+		buffer.put(type);
+		buffer.putInt(keyBytes.length);
+		buffer.putInt(value.length);
+		buffer.put(keyBytes);
+		buffer.put(value);
+		CRC32 crc = new CRC32();
+		crc.update(buffer.array(), 0, buffer.position());
+		buffer.putInt((int)crc.getValue());
+
+		long start = end;
+		data.seek(start);
+		data.write(buffer.array());
+		if (force)
+			data.getFD().sync();
+		end = start + buffer.capacity();
+		index.put((char)type + key, new long[] {start, buffer.capacity()});
+	}
+
+
+	// ------------ INNER CLASSES ------------
+	// ----- What a probe found
+	static class Probe
+	{
+		private long hits;
+		private String[] urls;
+
+		Probe(long hits, String[] urls)
+		{
+			this.hits = hits;
+			this.urls = urls;
+		}
+
+		/** Returns how many documents the database said it has */
+		long getHits()
+		{
+			return hits;
+		}
+
+		/** Returns the URLs of the documents sampled */
+		String[] getURLs()
+		{
+			return urls;
+		}
+	}
+}
@@ -469,7 +469,8 @@ public class WWWContentSummary {
 				rank_elements ++;
 		}
 
-		if (rank_elements > 1)
+		// the lowest sample frequency, however many terms have it
+		if (rank_elements > 0)
 		{
 			double rank = (double)terms.size() - ((double)(rank_elements - 1)) / 2.0;
 			WordToRankMap.put(new Double(rank_value), new Double(rank));
@@ -13,18 +13,16 @@ import java.util.Set;
 import java.util.Iterator;
 import java.util.TreeSet;
 import java.util.StringTokenizer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
-import java.io.BufferedWriter;
-import java.io.BufferedReader;
-import java.io.FileWriter;
-import java.io.FileReader;
-import java.io.Reader;
-import java.io.IOException;
 import java.lang.StringBuffer;
-import java.io.StringReader;
-
-import  org.w3c.dom.*;
-import org.apache.xerces.parsers.*;
 
 import edu.columbia.cs.sdarts.frontend.SDARTS;
 import edu.columbia.cs.sdarts.backend.doc.DocConstants;
@@ -47,19 +45,37 @@ import edu.columbia.cs.sdarts.common.LSPSource;
 import edu.columbia.cs.sdarts.common.LSPFilter;
 import edu.columbia.cs.sdarts.common.LSPTerm;
 import edu.columbia.cs.sdarts.common.LSPField;
+import edu.columbia.cs.sdarts.util.HTTPTransport;
 
 /**
- * @author Yan
+ * Samples a web database with the probe queries of the rules of a
+ * classification hierarchy. The rules of a node are probed all at once,
+ * as many at a time as the back-end's <code>HTTPTransport</code> lets talk
+ * to one host, and the documents they return are downloaded in the
+ * background by a {@link DocumentDownloader}. Each probe adds its documents
+ * to the content summary as they come in, under the lock of the summary;
+ * the hits are still counted, and reported, in the order of the rules, and
+ * a document that several rules return is still kept by the first of them.
+ * <p>
+ * If the database has a <code>cache_location</code>, what each probe found,
+ * and the pages of its documents, are kept in the {@link ProbeCache} there,
+ * and a probe found in it is not sent again.
  *
- * To change the template for this generated type comment go to
- * Window&gt;Preferences&gt;Java&gt;Code Generation&gt;Code and Comments
+ * @author Yan
  */
 public class WWWContentSummaryBuilder {
 	private DocConfig config;
 	private Hierarchy hierarchy;
-	private LSPQuery query;
 	private WWWQueryProcessor queryProcessor;
 	
+	// probe queries run on the prober, and the documents they return are
+	// fetched by the downloader
+	private ExecutorService prober;
+	private DocumentDownloader downloader;
+	
+	// null if the database has no cache_location
+	private ProbeCache cache;
+	
 	private WWWContentSummary cs;
 	private TreeSet documents;
 	
@@ -100,8 +116,6 @@ public class WWWContentSummaryBuilder {
 	{
 		this.queryProcessor = queryProcessor;
 		
-		LSPQuery query = CreateQuery();
-		
 		classifiers = new Vector();	
 		
 		cs = new WWWContentSummary();
@@ -116,47 +130,68 @@ public class WWWContentSummaryBuilder {
 		this.B = new Vector();
 		this.docs = new Vector();
 		
+		cache = null;
 		if (config.getCacheLocation().length() > 0)
-			CreateDirectory(config.getCacheLocation());
+			cache = ProbeCache.open(config.getCacheLocation());
 		
-		CheckClassificationNode("Root");
+		HTTPTransport transport = HTTPTransport.getTransport(config.getBackEndLSPName());
 		
-		System.out.print("Database " + config.getBackEndLSPName() + " was classified under the following node(s) : ");
+		prober = Executors.newFixedThreadPool(transport.getConnectionsPerHost(), new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "WWWContentSummaryBuilder prober");
+				t.setDaemon(true);
+				return t;
+			}
+		});
 		
-		String ClassifiedAs = "";
+		downloader = new DocumentDownloader(transport, cache);
 		
-		for (int i = 0; i < classifiers.size(); i++)
+		try{
+			CheckClassificationNode("Root");
+			
+			System.out.print("Database " + config.getBackEndLSPName() + " was classified under the following node(s) : ");
+			
+			String ClassifiedAs = "";
+			
+			for (int i = 0; i < classifiers.size(); i++)
+			{
+				if (i > 0)
+					ClassifiedAs = ClassifiedAs + ",";
+				ClassifiedAs = ClassifiedAs + GetNodePath(classifiers.get(i).toString()) + classifiers.get(i).toString();			
+			}
+			
+			System.out.println(ClassifiedAs);
+			
+			cs.DetectCommonWords();
+			
+			cs.ClearResults();
+			
+			passNo ++;
+			
+			CheckClassificationNode("Root");
+			
+			cs.PrintCoefficients();
+			
+			double EstimatedDBSize = EstimateDatabaseSize(10, 0.1, 0.9);
+			
+			System.out.println("Estimated database size = " + EstimatedDBSize);
+			
+			cs.WriteContentSummary(SDARTS.CONFIG_DIRECTORY + File.separator + config.getBackEndLSPName() + File.separator + DocConstants.CONTENT_SUMMARY_FILENAME, EstimatedDBSize);
+			
+			return ClassifiedAs;
+		}
+		finally
 		{
-			if (i > 0)
-				ClassifiedAs = ClassifiedAs + ",";
-			ClassifiedAs = ClassifiedAs + GetNodePath(classifiers.get(i).toString()) + classifiers.get(i).toString();			
+			// nothing is interrupted, since a probe may be using the cache
+			prober.shutdown();
+			downloader.shutdown();
 		}
-		
-		System.out.println(ClassifiedAs);
-		
-		cs.DetectCommonWords();
-		
-		cs.ClearResults();
-		
-		passNo ++;
-		
-		CheckClassificationNode("Root");
-		
-		cs.PrintCoefficients();
-		
-		double EstimatedDBSize = EstimateDatabaseSize(10, 0.1, 0.9);
-		
-		System.out.println("Estimated database size = " + EstimatedDBSize);
-		
-		cs.WriteContentSummary(SDARTS.CONFIG_DIRECTORY + File.separator + config.getBackEndLSPName() + File.separator + DocConstants.CONTENT_SUMMARY_FILENAME, EstimatedDBSize);
-		
-		return ClassifiedAs;
 	}
 	
 	
-	private LSPQuery CreateQuery()
+	private LSPQuery CreateQuery(String searchString)
 	{
-		query = new LSPQuery("STARTS 1.0", false, "basic-1", 0.0, (int)config.getMaxDocumentPerQuery());
+		LSPQuery query = new LSPQuery("STARTS 1.0", false, "basic-1", 0.0, (int)config.getMaxDocumentPerQuery());
 		
 		LSPSource[] sources = new LSPSource[1];
 		sources[0] = new LSPSource(config.getBackEndLSPName());
@@ -170,10 +205,12 @@ public class WWWContentSummaryBuilder {
 
 		query.setAnswerFields(answer_fields);
 		
+		SetSearchString(query, searchString);
+		
 		return query;
 	}
 	
-	private void SetSearchString(String searchString)
+	private void SetSearchString(LSPQuery query, String searchString)
 	{
 		LSPField field = new LSPField("basic1", "body-of-text");
 		
@@ -205,82 +242,66 @@ public class WWWContentSummaryBuilder {
 			return;
 		}
 		
+		// the rules are probed all at once, and their hits counted in order
+		Future[] probes = new Future[rules.size()];
+		ProbeTurn[] turns = new ProbeTurn[rules.size()];
+		
+		for (int i = 0; i < rules.size(); i++)
+		{
+			final Rule rule = (Rule)rules.get(i);
+			final ProbeTurn previous = (i == 0) ? null : turns[i - 1];
+			final ProbeTurn turn = turns[i] = new ProbeTurn();
+			probes[i] = prober.submit(new Callable() {
+				public Object call() throws Exception {
+					try{
+						return ProbeRule(rule, previous, turn);
+					}
+					finally
+					{
+						turn.claimed.countDown();
+						turn.added.countDown();
+					}
+				}
+			});
+		}
+		
 		for (int i = 0; i < rules.size(); i++)
 		{
 			System.out.print("->");
 			Rule currRule = (Rule)rules.get(i);
 			System.out.print(nodePath + nodeName + "." + currRule.getCategory() + " = " + currRule.getString());
 			
+			Probe probe;
 			try{
-				String information = "";
-				String Path = config.getCacheLocation() + "/" + currRule.getString() + "/";
-				if (config.getCacheLocation().length() > 0)
-				{
-					try{
-						information = ReadFromFile(Path + "info.result");
-					}
-					catch(Exception e){}
-				}
-				
-				long numberOfHits = 0;
-				
-				if (information.length() == 0)
-				{
-					SetSearchString(currRule.getString());
-			
-					LSPResults results = queryProcessor.query(query);
-				
-					String path = config.getCacheLocation() + "/" + currRule.getString();
-				
-					CreateDirectory(path);
-				
-					path += "/";
-				
-					WriteToFile(path + "info.result", "<QueryInfo hits=\"" + results.getNumAvailable() + "\"/>");
-				
-					AddQueryResults(path, results);
-					
-					numberOfHits = results.getNumAvailable();
-				}
-				else
-				{
-					DOMParser parser = new DOMParser();
-				  	Reader sReader = new StringReader(information);
-   					org.xml.sax.InputSource source = new org.xml.sax.InputSource(sReader);
-   					parser.parse(source);
-   					Document doc = parser.getDocument();
-					doc.normalize();
-					Element element = doc.getDocumentElement();
-									
-					numberOfHits = Long.parseLong(element.getAttribute("hits"));
-					
-					AddCachedQueryResults(Path);
-					
-					System.out.print(" (cached) ");
-					
-				}
-				
-				System.out.println(" - " + numberOfHits + " document(s) available");
-				
-				totalHits += numberOfHits;
-				
-				if (hitList.containsKey(currRule.getCategory()))
+				probe = (Probe)probes[i].get();
+			}
+			catch(ExecutionException e)
+			{
+				for (int j = i + 1; j < probes.length; j++)
 				{
-					Long l = new Long(hitList.get(currRule.getCategory()).toString());
-					hitList.put(currRule.getCategory(), Long.toString(l.intValue() + numberOfHits));
+					turns[j].cancelled = true;
+					probes[j].cancel(false);
 				}
-				
-				else
-					hitList.put(currRule.getCategory(), Long.toString(numberOfHits));
-					
+				throw(new Exception(e.getCause().getMessage()));
 			}
-			catch(Exception e)
+			
+			if (probe.cached)
+				System.out.print(" (cached) ");
+			
+			long numberOfHits = probe.hits;
+			
+			System.out.println(" - " + numberOfHits + " document(s) available");
+			
+			totalHits += numberOfHits;
+			
+			if (hitList.containsKey(currRule.getCategory()))
 			{
-				throw(new Exception(e.getMessage()));
+				Long l = new Long(hitList.get(currRule.getCategory()).toString());
+				hitList.put(currRule.getCategory(), Long.toString(l.intValue() + numberOfHits));
 			}
 			
-			if (passNo == 2)
-			cs.GetIntermediateResults();
+			else
+				hitList.put(currRule.getCategory(), Long.toString(numberOfHits));
 		}
 		
 		boolean haveHits = false;
@@ -309,6 +330,47 @@ public class WWWContentSummaryBuilder {
 			classifiers.add(nodeName);
 	}
 	
+	/**
+	 * Sends the probe query of a rule, or finds its results in the cache,
+	 * and adds the documents it returns to the content summary. Probes of
+	 * sibling rules run at once, on the prober, but take their turns in
+	 * the order of the rules, so that the sample does not depend on which
+	 * probe is answered first: a probe claims its documents after the one
+	 * before it has claimed its own, and adds them to the content summary
+	 * after the one before it has added its own.
+	 */
+	private Probe ProbeRule(Rule rule, ProbeTurn previous, ProbeTurn turn) throws Exception
+	{
+		Probe probe = new Probe();
+		
+		ProbeCache.Probe cached = null;
+		if (cache != null)
+			cached = cache.getProbe(config.getBackEndLSPName(), rule.getString());
+		
+		if (cached == null)
+		{
+			LSPResults results = queryProcessor.query(CreateQuery(rule.getString()));
+		
+			String[] urls = AddQueryResults(results, previous, turn);
+			
+			probe.hits = results.getNumAvailable();
+			
+			// after the pages, so that a probe in the cache has its pages
+			if (cache != null)
+				cache.putProbe(config.getBackEndLSPName(), rule.getString(), probe.hits, urls);
+		}
+		else
+		{
+			probe.hits = cached.getHits();
+			
+			AddDocuments(cached.getURLs(), false, previous, turn);
+			
+			probe.cached = true;
+		}
+		
+		return probe;
+	}
+	
 	private String GetNodePath(String nodeName)
 	{
 		String name = new String();
@@ -323,95 +385,103 @@ public class WWWContentSummaryBuilder {
 		return name;
 	}
 	
-	private void AddQueryResults(String path, LSPResults results) throws Exception 
+	/**
+	 * Adds the documents a probe query returned, and returns the URLs of
+	 * those no probe before it had
+	 */
+	private String[] AddQueryResults(LSPResults results, ProbeTurn previous, ProbeTurn turn) throws Exception 
 	{
-		costQueries++;
+		synchronized (cs)
+		{
+			costQueries++;
+		}
 		
-		if (results.getNumDocs() == 0)
-			return;
-			
 		LSPDoc[] LSPdocs = results.getDocs();
 		
-		for (int i = 0; i < results.getNumDocs(); i++)
+		String[] urls = new String[results.getNumDocs()];
+		
+		for (int i = 0; i < urls.length; i++)
 		{
 			String url = LSPdocs[i].getValue("linkage");
 			
 			if (url.startsWith("<![CDATA["))
 				url = url.substring(9, url.length() - 3);
 			
-			if (documents.contains(url))
-				continue;
-
-			documents.add(url);
-						
-			this.costDocuments++;
-			
-			cs.increaseSampleSize();
-			
-//			get the contents of the retrieved document
-			String r = new String();
-			
-			r = WWWUtilities.getPage(url);
-			//r = WWWUtilities.extractStrings(url);
-			
-			WriteToFile(path + i + ".result", r);
-			
-			ProcessDocument(r);
+			urls[i] = url;
 		}
 		
-	}
-
-	private void WriteToFile(String filename, String content) throws IOException
-	{
-		if (config.getCacheLocation().length() == 0)
-			return;
-			
-		BufferedWriter bw = new BufferedWriter(new FileWriter(filename));
-		bw.write(content);
-		bw.close();		
+		return AddDocuments(urls, true, previous, turn);
 	}
 	
-	private void CreateDirectory(String dirname) throws IOException
+	/**
+	 * Claims documents, once the probe before has claimed its own, and
+	 * adds them, once it has added its own. If <code>onlyNew</code> is set,
+	 * a document that another probe has claimed already is left out.
+	 * Returns the URLs of the documents added.
+	 */
+	private String[] AddDocuments(String[] urls, boolean onlyNew, ProbeTurn previous, ProbeTurn turn) throws Exception
 	{
-		if (config.getCacheLocation().length() == 0)
-			return;
+		// get the contents of the documents, in the background
+		Future[] pages = new Future[urls.length];
+		Vector added = new Vector();
+		
+		if (previous != null)
+			previous.claimed.await();
+		
+		if (turn.cancelled)
+			throw(new CancellationException());
+		
+		for (int i = 0; i < urls.length; i++)
+		{
+			synchronized (documents)
+			{
+				if (!documents.add(urls[i]) && onlyNew)
+					continue;
+			}
 			
-		(new File(dirname)).mkdir();				
-	}
-	
-	private String ReadFromFile(String filename) throws IOException
-	{
-		if (config.getCacheLocation().length() == 0)
-			return "";
+			pages[i] = downloader.download(urls[i]);
+			added.add(urls[i]);
+		}
+		
+		turn.claimed.countDown();
+		
+		// the words of each document are found as soon as it is in
+		String[] docs = new String[pages.length];
+		TreeSet[] words = new TreeSet[pages.length];
+		for (int i = 0; i < pages.length; i++)
+		{
+			if (pages[i] == null)
+				continue;
 			
-		StringBuffer sb = new StringBuffer("");
-		BufferedReader br = new BufferedReader(new FileReader(filename));
-		String line;
-		while((line = br.readLine()) != null)
-			sb.append(line);
+			try{
+				docs[i] = (String)pages[i].get();
+			}
+			catch(ExecutionException e)
+			{
+				throw(new Exception(e.getCause().getMessage()));
+			}
 			
-		br.close();
+			words[i] = WWWUtilities.getWords(docs[i]);
+		}
 		
-		return sb.toString();		
-	}
-	
-	private void AddCachedQueryResults(String path)
-	{
-		try{
-			for (int i = 0; i < config.getMaxDocumentPerQuery(); i++)
+		if (previous != null)
+			previous.added.await();
+		
+		synchronized (cs)
+		{
+			for (int i = 0; i < docs.length; i++)
 			{
-				String r = ReadFromFile(path + i + ".result");
-				
-				this.costDocuments++;
-			
-				cs.increaseSampleSize();
-
-				ProcessDocument(r);
-
+				if (docs[i] != null)
+					AddDocument(docs[i], words[i]);
 			}
+			
+			if (passNo == 2)
+				cs.GetIntermediateResults();
 		}
-		catch(Exception e){ 
-			String s = e.getMessage();}
+		
+		turn.added.countDown();
+		
+		return (String[])added.toArray(new String[added.size()]);
 	}
 	
 	private double EstimateDatabaseSize(int NumQrys, double lowBorder, double highBorder) throws Exception
@@ -435,11 +505,9 @@ public class WWWContentSummaryBuilder {
 			
 			Queries.add(word);
 			
-			SetSearchString(word);
-			
 			LSPResults results;
 			try{
-				results = queryProcessor.query(query);
+				results = queryProcessor.query(CreateQuery(word));
 			}
 			catch(Exception e){
 				throw new Exception(e.getMessage());
@@ -458,12 +526,16 @@ public class WWWContentSummaryBuilder {
 		return size / (double)NumQrys;
 	}
 	
-	private void ProcessDocument(String doc)
+	/**
+	 * Adds a sampled document, whose words have been found already, to the
+	 * content summary. It is called under the lock of the summary.
+	 */
+	private void AddDocument(String doc, TreeSet wordset)
 	{
-//		get the individual words
-		doc.toLowerCase();
+		this.costDocuments++;
+		
+		cs.increaseSampleSize();
 		
-		TreeSet wordset = WWWUtilities.getWords(doc);// .getWordsStemmed(r);
 	 	for (Iterator iter = wordset.iterator(); iter.hasNext();) {
 			 String w = (String)iter.next();	
 			 if (!cs.contains(w)) {
@@ -481,7 +553,24 @@ public class WWWContentSummaryBuilder {
 		while (st.hasMoreTokens()) {
 			cs.increaseSampleTermFrequency(st.nextToken());
 		}
-
 	}
 	
-}
+	// The outcome of the probe query of one rule
+	private static class Probe
+	{
+		long hits;
+		boolean cached;
+	}
+	
+	// The turns of the probe of one rule, among the probes of its siblings
+	private static class ProbeTurn
+	{
+		// counted down once the probe has claimed its documents
+		final CountDownLatch claimed = new CountDownLatch(1);
+		// counted down once the probe has added its documents
+		final CountDownLatch added = new CountDownLatch(1);
+		// set once the probe is not wanted any more
+		volatile boolean cancelled;
+	}
+	
+}
\ No newline at end of file
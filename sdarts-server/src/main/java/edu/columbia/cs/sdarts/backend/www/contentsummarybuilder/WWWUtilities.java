@@ -5,8 +5,8 @@ import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileReader;
 import java.io.FileWriter;
+import java.io.IOException;
 import java.io.InputStreamReader;
-import java.net.HttpURLConnection;
 import java.net.URL;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -20,6 +20,8 @@ import org.htmlparser.util.ParserException;
 import org.htmlparser.Node;
 import org.htmlparser.Parser;
 
+import edu.columbia.cs.sdarts.util.HTTPTransport;
+
 
 
 /**
@@ -376,16 +378,23 @@ public class WWWUtilities {
 
 
 	public static String getPage(String URLName) {
+		return getPage(URLName, HTTPTransport.getDefault());
+	}
+
+	/**
+	 * Fetches a page through a transport, without following redirects,
+	 * and returns its words as {@link #cleanLine(String) cleanLine()}
+	 * leaves them. The connection is kept alive for the next page.
+	 */
+	public static String getPage(String URLName, HTTPTransport transport) {
 		StringBuffer buffer = new StringBuffer();
+		BufferedReader dataInput = null;
 
 		try {
-			HttpURLConnection.setFollowRedirects(false);
-			HttpURLConnection connection =
-				(HttpURLConnection) new URL(URLName).openConnection();
-
-			BufferedReader dataInput =
+			dataInput =
 				new BufferedReader(
-					new InputStreamReader(connection.getInputStream()));
+					new InputStreamReader(
+						transport.open(new URL(URLName), null, null, false)));
 			String line;
 
 			while ((line = dataInput.readLine()) != null) {
@@ -394,6 +403,13 @@ public class WWWUtilities {
 			}
 		} catch (Exception ex) {
 			ex.printStackTrace();
+		} finally {
+			if (dataInput != null) {
+				try {
+					dataInput.close();
+				} catch (IOException e) {
+				}
+			}
 		}
 		return buffer.toString();
 	}
@@ -0,0 +1,164 @@
+package edu.columbia.cs.sdarts.common;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+/**
+ * Reads a content summary written by a
+ * {@link edu.columbia.cs.sdarts.common.BinaryContentSummaryWriter BinaryContentSummaryWriter}.
+ * Opening the file only reads its header; the terms are read from start to
+ * end, in one pass, as they are turned into an
+ * <code>LSPContentSummary</code>, which is much faster than parsing the XML
+ * form.
+ * <p>
+ * A reader is safe to share among threads.
+ * @version 1.0
+ */
+public class BinaryContentSummaryReader {
+    private File    file;
+    private boolean stemming;
+    private boolean stopWords;
+    private boolean caseSensitive;
+    private boolean fields;
+    private int     numDocs;
+
+
+    /**
+     * Read the header of a binary content summary file
+     * @param file the file
+     * @exception IOException if the file cannot be read, or is not a
+     * binary content summary
+     */
+    public BinaryContentSummaryReader (File file) throws IOException {
+      this.file = file;
+      DataInputStream in = open();
+      try {
+        stemming      = in.readBoolean();
+        stopWords     = in.readBoolean();
+        caseSensitive = in.readBoolean();
+        fields        = in.readBoolean();
+        numDocs       = in.readInt();
+      }
+      finally {
+        in.close();
+      }
+    }
+
+    /**
+     * Whether the collection supports stemming
+     * @return whether the collection supports stemming
+     */
+    public boolean getStemming () {
+      return stemming;
+    }
+
+    /**
+     * Whether the collection supports stop-words
+     * @return whether the collection supports stop-words
+     */
+    public boolean getStopWords () {
+      return stopWords;
+    }
+
+    /**
+     * Whether the collection supports case-sensitive queries
+     * @return whether the collection supports case-sensitive queries
+     */
+    public boolean getCaseSensitive () {
+      return caseSensitive;
+    }
+
+    /**
+     * Whether field names appear in the frequency entries
+     * @return whether field names appear in the frequency entries
+     */
+    public boolean getFields () {
+      return fields;
+    }
+
+    /**
+     * Return the number of documents in the collection
+     * @return the number of documents in the collection
+     */
+    public int getNumDocs () {
+      return numDocs;
+    }
+
+    /**
+     * Build an <code>LSPContentSummary</code> holding the whole summary
+     * @return the content summary
+     * @exception IOException if the file cannot be read, or is cut short
+     */
+    public LSPContentSummary toContentSummary () throws IOException {
+      LSPContentSummary contentSummary =
+        new LSPContentSummary (stemming, stopWords, caseSensitive, fields,
+                               numDocs);
+      DataInputStream in = open();
+      try {
+        // the rest of the header was read by the constructor
+        in.readFully (new byte[8]);
+        byte[] term = new byte[64];
+        while (in.readBoolean()) {
+          LSPField field = in.readBoolean() ? new LSPField (in.readUTF()) : null;
+          int numTerms = in.readInt();
+          for (int i = 0 ; i < numTerms ; i++) {
+            // front-coded: the prefix is left from the term before
+            int prefix = readVInt (in);
+            int length = prefix + readVInt (in);
+            if (length > term.length) {
+              byte[] temp = new byte[Math.max (length, 2 * term.length)];
+              System.arraycopy (term, 0, temp, 0, prefix);
+              term = temp;
+            }
+            in.readFully (term, prefix, length - prefix);
+            int termFreq = in.readInt();
+            int docFreq  = in.readInt();
+            contentSummary.add (field, new String (term, 0, length, "UTF-8"),
+                                termFreq, docFreq);
+          }
+        }
+        if (in.readInt() != BinaryContentSummaryWriter.MAGIC) {
+          throw new IOException ("not a binary content summary: " + file);
+        }
+      }
+      finally {
+        in.close();
+      }
+      return contentSummary;
+    }
+
+
+    // -------- HELPER METHODS --------
+    /** Opens the file, and checks its magic number and version */
+    private DataInputStream open () throws IOException {
+      DataInputStream in = new DataInputStream
+        (new BufferedInputStream (new FileInputStream (file)));
+      try {
+        if (in.readInt() != BinaryContentSummaryWriter.MAGIC) {
+          throw new IOException ("not a binary content summary: " + file);
+        }
+        if (in.readInt() != BinaryContentSummaryWriter.VERSION) {
+          throw new IOException ("unknown binary content summary version: " +
+                                 file);
+        }
+      }
+      catch (IOException e) {
+        in.close();
+        throw e;
+      }
+      return in;
+    }
+
+    private static int readVInt (DataInputStream in) throws IOException {
+      int b = in.readByte();
+      int i = b & 0x7f;
+      for (int shift = 7 ; (b & 0x80) != 0 ; shift += 7) {
+        b = in.readByte();
+        i |= (b & 0x7f) << shift;
+      }
+      return i;
+    }
+}
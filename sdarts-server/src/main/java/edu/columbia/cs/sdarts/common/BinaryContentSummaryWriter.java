@@ -0,0 +1,256 @@
+package edu.columbia.cs.sdarts.common;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Writes a content summary in a compact binary form, to be kept next to
+ * its STARTS XML file and read back with a
+ * {@link edu.columbia.cs.sdarts.common.BinaryContentSummaryReader BinaryContentSummaryReader}.
+ * Entries are added one at a time, like with an
+ * {@link edu.columbia.cs.sdarts.common.LSPContentSummaryWriter LSPContentSummaryWriter};
+ * only the entries of the current field are held in memory, so entries for
+ * the same field should be added one after another.
+ * <p>
+ * The file is laid out as follows (all numbers big-endian), to be read
+ * from start to end:
+ * <pre>
+ * header:   int MAGIC, int VERSION,
+ *           byte stemming, byte stopwords, byte case-sensitive, byte fields,
+ *           int numdocs
+ * sections: one per field, each:
+ *           byte 1, byte hasField, UTF fieldName (if hasField),
+ *           int numTerms, then per term:
+ *           vint prefix, vint suffix, byte[suffix] term,
+ *           int term-freq, int doc-freq
+ * trailer:  byte 0, int MAGIC
+ * </pre>
+ * The terms of a section are sorted by their UTF-8 bytes and front-coded:
+ * each is stored as the number of leading bytes it shares with the previous
+ * term and the remaining bytes, both lengths as variable-length ints. A
+ * missing frequency is stored as -1.
+ * @version 1.0
+ */
+public class BinaryContentSummaryWriter {
+    /** Identifies a binary content summary file */
+    public static final int MAGIC = 0x53444353;  // "SDCS"
+
+    /** The version of the layout */
+    public static final int VERSION = 2;
+
+    private DataOutputStream out;
+    private boolean          inField;
+    private LSPField         currentField;
+    private List             entries = new ArrayList();
+    private boolean          finished;
+
+
+    /**
+     * Create the writer, and write the header
+     * @param out where to write; closed by <code>close()</code>
+     * @param stemming whether the underlying collection supported stemming
+     * @param stopWords whether the underyling collection supports stop-words
+     * @param caseSensitive whether the underyling collection supports
+     * case-sensitive queries
+     * @param fields whether field names appear with the terms in a content
+     * summary
+     * @param numDocs the number of documents in the underlying collection
+     * @exception IOException if the header cannot be written
+     */
+    public BinaryContentSummaryWriter (OutputStream out, boolean stemming,
+                                       boolean stopWords,
+                                       boolean caseSensitive,
+                                       boolean fields, int numDocs)
+      throws IOException {
+      this.out = new DataOutputStream (new BufferedOutputStream (out));
+      this.out.writeInt (MAGIC);
+      this.out.writeInt (VERSION);
+      this.out.writeBoolean (stemming);
+      this.out.writeBoolean (stopWords);
+      this.out.writeBoolean (caseSensitive);
+      this.out.writeBoolean (fields);
+      this.out.writeInt (numDocs);
+    }
+
+    /**
+     * Add an entry with term frequency only
+     * @param field the field where this term appears (can be <code>null</code>
+     * if unknown)
+     * @param term the term
+     * @param termFrequency term frequency
+     * @exception IOException if the previous field cannot be written
+     */
+    public void addTermFieldFreqInfo (LSPField field, LSPTerm term,
+                                      int termFrequency) throws IOException {
+      add (field, term.getValue().getValue(), termFrequency, -1);
+    }
+
+    /**
+     * Add an entry with doc frequency only
+     * @param field the field where this term appears (can be <code>null</code>
+     * if unknown)
+     * @param term the term
+     * @param docFrequency doc frequency
+     * @exception IOException if the previous field cannot be written
+     */
+    public void addDocFieldFreqInfo (LSPField field, LSPTerm term,
+                                     int docFrequency) throws IOException {
+      add (field, term.getValue().getValue(), -1, docFrequency);
+    }
+
+    /**
+     * Add an entry with both term frequency and doc frequency
+     * @param field the field where this term appears (can be <code>null</code>
+     * if unknown)
+     * @param term the term
+     * @param termFrequency term frequency
+     * @param docFrequency doc frequency
+     * @exception IOException if the previous field cannot be written
+     */
+    public void addTermDocFieldFreqInfo (LSPField field, LSPTerm term,
+                                         int termFrequency, int docFrequency)
+      throws IOException {
+      add (field, term.getValue().getValue(), termFrequency, docFrequency);
+    }
+
+    /**
+     * Add an entry
+     * @param field the field where this term appears (can be <code>null</code>
+     * if unknown)
+     * @param term the text of the term
+     * @param termFrequency term frequency, or -1 if unknown
+     * @param docFrequency doc frequency, or -1 if unknown
+     * @exception IOException if the previous field cannot be written
+     */
+    public void add (LSPField field, String term, int termFrequency,
+                     int docFrequency) throws IOException {
+      if (!inField || !sameField (field, currentField)) {
+        endField();
+        inField = true;
+        currentField = field;
+      }
+      entries.add (new Entry (utf8 (term), termFrequency, docFrequency));
+    }
+
+    /**
+     * Write the last field and the trailer, and flush. Does not close the
+     * underlying stream.
+     * @exception IOException if something goes wrong
+     */
+    public void finish () throws IOException {
+      if (finished) {
+        return;
+      }
+      finished = true;
+      endField();
+      out.writeBoolean (false);
+      out.writeInt (MAGIC);
+      out.flush();
+    }
+
+    /**
+     * Finish the file, and close the underlying stream.
+     * @exception IOException if something goes wrong
+     */
+    public void close () throws IOException {
+      finish();
+      out.close();
+    }
+
+
+    // -------- HELPER METHODS --------
+    private void endField () throws IOException {
+      if (!inField) {
+        return;
+      }
+      inField = false;
+
+      Entry[] sorted = (Entry[]) entries.toArray (new Entry[0]);
+      entries.clear();
+      Arrays.sort (sorted, ENTRY_ORDER);
+
+      out.writeBoolean (true);
+      out.writeBoolean (currentField != null);
+      if (currentField != null) {
+        out.writeUTF (currentField.getName());
+      }
+      out.writeInt (sorted.length);
+      byte[] previous = new byte[0];
+      for (int i = 0 ; i < sorted.length ; i++) {
+        byte[] term = sorted[i].term;
+        int prefix = 0;
+        int max = Math.min (previous.length, term.length);
+        while (prefix < max && previous[prefix] == term[prefix]) {
+          prefix++;
+        }
+        writeVInt (prefix);
+        writeVInt (term.length - prefix);
+        out.write (term, prefix, term.length - prefix);
+        out.writeInt (sorted[i].termFreq);
+        out.writeInt (sorted[i].docFreq);
+        previous = term;
+      }
+    }
+
+    private void writeVInt (int i) throws IOException {
+      while ((i & ~0x7f) != 0) {
+        out.write ((i & 0x7f) | 0x80);
+        i >>>= 7;
+      }
+      out.write (i);
+    }
+
+    private static boolean sameField (LSPField field, LSPField other) {
+      return (field == null) ? (other == null) : field.equals (other);
+    }
+
+    static byte[] utf8 (String s) {
+      try {
+        return s.getBytes ("UTF-8");
+      }
+      catch (UnsupportedEncodingException e) {
+        throw new RuntimeException (e.getMessage());
+      }
+    }
+
+    /** Unsigned byte-by-byte order, the same as the order of the strings */
+    static int compareBytes (byte[] a, int aLen, byte[] b, int bLen) {
+      int len = Math.min (aLen, bLen);
+      for (int i = 0 ; i < len ; i++) {
+        int diff = (a[i] & 0xff) - (b[i] & 0xff);
+        if (diff != 0) {
+          return diff;
+        }
+      }
+      return aLen - bLen;
+    }
+
+
+    // ------------ INNER CLASSES ------------
+    private static class Entry {
+      byte[] term;
+      int    termFreq;
+      int    docFreq;
+
+      Entry (byte[] term, int termFreq, int docFreq) {
+        this.term     = term;
+        this.termFreq = termFreq;
+        this.docFreq  = docFreq;
+      }
+    }
+
+    private static final Comparator ENTRY_ORDER = new Comparator() {
+      public int compare (Object obj1, Object obj2) {
+        byte[] a = ((Entry) obj1).term;
+        byte[] b = ((Entry) obj2).term;
+        return compareBytes (a, a.length, b, b.length);
+      }
+    };
+}
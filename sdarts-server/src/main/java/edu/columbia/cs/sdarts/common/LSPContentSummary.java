@@ -2,8 +2,10 @@
 package edu.columbia.cs.sdarts.common;
 
 import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 
 import edu.columbia.cs.sdarts.util.XMLWriter;
@@ -18,6 +20,17 @@ import edu.columbia.cs.sdarts.util.XMLWriter;
  * needed for content-summary creation and storage on the back-end, and
  * may be available via the <code>FrontEndLSP</code> in the future.
  * <p>
+ * The frequencies are kept compactly: every distinct term text is stored
+ * once, as characters packed into a shared array, and each field keeps
+ * its entries as arrays of term numbers and <code>int</code> frequencies,
+ * found through an open-addressing table. Only the text of an
+ * <code>LSPTerm</code> is kept, which is all a content summary's terms
+ * have. Entries are written out in the order they were first added
+ * (a removed entry's place is taken by the last one).
+ * A summary too large to hold in memory can instead be written one entry
+ * at a time with an
+ * {@link edu.columbia.cs.sdarts.common.LSPContentSummaryWriter LSPContentSummaryWriter}.
+ * <p>
  * The back end developer instantiates this object and returns it from
  * the
  * {@link edu.columbia.cs.sdarts.backend.BackEndLSP#getContentSummary() getContentSummary()}
@@ -40,17 +53,14 @@ public class LSPContentSummary extends LSPObject {
     private static final String UNSPECIFIED =
       new String ("LSPOBJECTADAPTERUNSPECIFIED");
 
-    // the number of field-frequency-records that can be batched
-    // in memory before being written to I/O. Adjust this for
-    // performance if you like
-    private static final int BATCH_SIZE = 1000;
-
-    private Map     fieldFreqInfo;
-    private boolean stemming;
-    private boolean stopWords;
-    private boolean caseSensitive;
-    private boolean fields;
-    private int     numDocs;
+    private Map            fieldFreqInfo;   // field (or UNSPECIFIED) -> FieldTerms
+    private List           fieldOrder;      // of FieldTerms, as first added
+    private TermDictionary dictionary;
+    private boolean        stemming;
+    private boolean        stopWords;
+    private boolean        caseSensitive;
+    private boolean        fields;
+    private int            numDocs;
 
 
     /**
@@ -72,6 +82,8 @@ public class LSPContentSummary extends LSPObject {
 	       this.fields = fields;
 	       this.numDocs = numDocs;
 	       fieldFreqInfo = new HashMap();
+	       fieldOrder = new ArrayList();
+	       dictionary = new TermDictionary();
     }
 
     /**
@@ -84,7 +96,7 @@ public class LSPContentSummary extends LSPObject {
      * @param termFrequency term frequency
      */
     public void addTermFieldFreqInfo (LSPField field, LSPTerm term, int termFrequency) {
-	       addFieldFreqImpl (field, term, new TermFreq (termFrequency));
+	       add (field, term.getValue().getValue(), termFrequency, -1);
     }
 
     /**
@@ -97,7 +109,7 @@ public class LSPContentSummary extends LSPObject {
      * @param docFrequency doc frequency
      */
     public void addDocFieldFreqInfo (LSPField field, LSPTerm term, int docFrequency) {
-	       addFieldFreqImpl (field, term, new DocFreq (docFrequency));
+	       add (field, term.getValue().getValue(), -1, docFrequency);
     }
 
     /**
@@ -114,29 +126,72 @@ public class LSPContentSummary extends LSPObject {
     public void addTermDocFieldFreqInfo (LSPField field, LSPTerm term,
 					 int termFrequency,
 					 int docFrequency) {
-        addFieldFreqImpl (field, term, new TermDocFreq (termFrequency, docFrequency));
+        add (field, term.getValue().getValue(), termFrequency, docFrequency);
     }
 
-    private void addFieldFreqImpl (LSPField field, LSPTerm term, LSPObject obj) {
-      Map terms = null;
-      if (field == null) {
-        terms = (Map) fieldFreqInfo.get (UNSPECIFIED);
-      }
-      else {
-        terms = (Map) fieldFreqInfo.get (field);
+    /**
+     * Add an entry, replacing any earlier one for the same field and term.
+     * Used by the other <code>add</code> methods, and by readers that have
+     * the term as a string already.
+     * @param term the text of the term
+     * @param termFrequency term frequency, or -1 if unknown
+     * @param docFrequency doc frequency, or -1 if unknown
+     */
+    void add (LSPField field, String term, int termFrequency,
+              int docFrequency) {
+      Object key = (field == null) ? (Object) UNSPECIFIED : field;
+      FieldTerms terms = (FieldTerms) fieldFreqInfo.get (key);
+	  if (terms == null) {
+         terms = new FieldTerms (field);
+         fieldFreqInfo.put (key, terms);
+         fieldOrder.add (terms);
       }
+	  terms.put (dictionary.intern (term), termFrequency, docFrequency);
+    }
 
-	  if (terms == null) {
-         terms = new HashMap();
-         if (field == null) {
-	      fieldFreqInfo.put (UNSPECIFIED, terms);
-         }
-         else {
-          fieldFreqInfo.put (field, terms);
-         }
+    /**
+     * Change the frequencies of an entry by the given amounts, as when
+     * documents are added to or removed from the collection. An entry that
+     * is not in the summary yet is added; an entry whose doc frequency
+     * drops to zero is removed. A frequency the entry does not have stays
+     * missing.
+     * @param field the field where this term appears (can be <code>null</code>
+     * if unknown)
+     * @param term the text of the term
+     * @param termFreqDelta the change in term frequency
+     * @param docFreqDelta the change in doc frequency
+     */
+    public void addFreqs (LSPField field, String term, int termFreqDelta,
+                          int docFreqDelta) {
+      int i = find (field, term);
+      if (i == -1) {
+        if (docFreqDelta > 0) {
+          add (field, term, Math.max (termFreqDelta, 0), docFreqDelta);
+        }
+        return;
       }
+      FieldTerms terms = getTerms (field);
+      if (terms.termFreqs[i] != -1) {
+        terms.termFreqs[i] = Math.max (terms.termFreqs[i] + termFreqDelta, 0);
+      }
+      if (terms.docFreqs[i] != -1) {
+        terms.docFreqs[i] += docFreqDelta;
+        if (terms.docFreqs[i] <= 0) {
+          terms.remove (i);
+        }
+      }
+    }
 
-	  terms.put (term, obj);
+    /**
+     * Return the number of frequency entries in the content summary
+     * @return the number of (field, term) entries
+     */
+    public int getNumEntries () {
+      int numEntries = 0;
+      for (int i = 0 ; i < fieldOrder.size() ; i++) {
+        numEntries += ((FieldTerms) fieldOrder.get (i)).size;
+      }
+      return numEntries;
     }
 
     /**
@@ -181,6 +236,15 @@ public class LSPContentSummary extends LSPObject {
       return numDocs;
     }
 
+    /**
+     * Set the number of documents in the collection, as when documents
+     * are added or removed
+     * @param numDocs the number of documents in the collection
+     */
+    public void setNumDocs(int numDocs) {
+      this.numDocs = numDocs;
+    }
+
     /**
      * Generates an XML representation of <code>LSPContentSummary</code>,
      * and writes it directly to a <code>Writer</code>. This method is
@@ -191,96 +255,253 @@ public class LSPContentSummary extends LSPObject {
      * @writer the writer to write the XML to
      */
     public void toXML (XMLWriter writer) throws IOException {
-      writer.setDefaultFormat();
-      writer.setIsolateAttributes(true);
-      writer.enterNamespace(STARTS.NAMESPACE_NAME);
-      writer.printStartElement ("scontent-summary", true);
-      writer.printNamespaceDeclaration
-        (STARTS.NAMESPACE_NAME, STARTS.NAMESPACE_VALUE);
-		writer.printAttribute("xmlns:xsi", "http://www.w3.org/2001/XMLSchema-instance");
-	  writer.printAttribute("xsi:schemaLocation", STARTS.NAMESPACE_VALUE + " " + writer.GetDocTypeMapEntry(STARTS.NAMESPACE_NAME + ":smeta-attributes"));
-      writer.printAttribute ("version", version);
-      writer.printAttribute ("stemming", stemming);
-      writer.printAttribute ("stopwords", stopWords);
-      writer.printAttribute ("case-sensitive", caseSensitive);
-      writer.printAttribute ("fields", fields);
-      writer.printAttribute ("numdocs", numDocs);
-      writer.printStartElementClose();
-      writer.setIsolateAttributes (false);
-      writer.flush();
-
-      writer.indent();
-	  for (Iterator it1 = fieldFreqInfo.keySet().iterator() ; it1.hasNext() ; ) {
-        Object obj = it1.next();
-        writer.printStartElement ("field-freq-info");
-        writer.indent();
-        if (!(obj instanceof String)) {
-           LSPField field = (LSPField) obj;
-	       field.toXML (writer);
-        }
-        int iterations = 0;
-	    Map terms = (Map) fieldFreqInfo.get (obj);
-	    for (Iterator it2 = terms.keySet().iterator() ; it2.hasNext() ; ) {
-	    	LSPTerm term = (LSPTerm) it2.next();
-		    term.toXML (writer);
-		    LSPObject obj1 = (LSPObject) terms.get (term);
-		    obj1.toXML (writer);
-            if (++iterations == BATCH_SIZE) {
-              writer.flush();
-              iterations = 0;
-            }
+      LSPContentSummaryWriter csWriter =
+        new LSPContentSummaryWriter (writer, stemming, stopWords,
+                                     caseSensitive, fields, numDocs);
+	  for (int f = 0 ; f < fieldOrder.size() ; f++) {
+	    FieldTerms terms = (FieldTerms) fieldOrder.get (f);
+	    for (int i = 0 ; i < terms.size ; i++) {
+	    	LSPTerm term =
+	    	  new LSPTerm (null, null, dictionary.get (terms.termIds[i]));
+	    	int tf = terms.termFreqs[i];
+	    	int df = terms.docFreqs[i];
+		    if (tf != -1 && df != -1) {
+		      csWriter.addTermDocFieldFreqInfo (terms.field, term, tf, df);
+		    }
+		    else if (tf != -1) {
+		      csWriter.addTermFieldFreqInfo (terms.field, term, tf);
+		    }
+		    else {
+		      csWriter.addDocFieldFreqInfo (terms.field, term, df);
+		    }
 	    }
-        writer.unindent();
-        writer.printEndElement("field-freq-info");
-        writer.flush();
       }
-      writer.unindent();
-      writer.printEndElement("scontent-summary");
-      writer.flush();
-      writer.exitNamespace();
+      csWriter.finish();
+    }
+
+
+    /**
+     * Writes the content summary in the compact binary form read by
+     * {@link edu.columbia.cs.sdarts.common.BinaryContentSummaryReader BinaryContentSummaryReader}.
+     * @param out where to write; not closed
+     * @exception IOException if something goes wrong
+     */
+    public void toBinary (OutputStream out) throws IOException {
+      BinaryContentSummaryWriter binWriter =
+        new BinaryContentSummaryWriter (out, stemming, stopWords,
+                                        caseSensitive, fields, numDocs);
+	  for (int f = 0 ; f < fieldOrder.size() ; f++) {
+	    FieldTerms terms = (FieldTerms) fieldOrder.get (f);
+	    for (int i = 0 ; i < terms.size ; i++) {
+	      binWriter.add (terms.field, dictionary.get (terms.termIds[i]),
+	                     terms.termFreqs[i], terms.docFreqs[i]);
+	    }
+      }
+      binWriter.finish();
+    }
+
+
+    // -------- HELPER METHODS --------
+    private FieldTerms getTerms (LSPField field) {
+      return (FieldTerms) fieldFreqInfo.get
+        ((field == null) ? (Object) UNSPECIFIED : field);
+    }
+
+    /** @return the index of the term's entry in its field, or -1 */
+    private int find (LSPField field, String term) {
+      FieldTerms terms = getTerms (field);
+      if (terms == null) {
+        return -1;
+      }
+      int termId = dictionary.lookup (term);
+      return (termId == -1) ? -1 : terms.indexOf (termId);
+    }
+
+    private static int[] grow (int[] array, int size) {
+      int[] temp = new int[size];
+      System.arraycopy (array, 0, temp, 0, array.length);
+      return temp;
     }
 
 
     // ------------ INNER CLASSES ------------
-    private class TermFreq extends LSPObject {
-      int     freq;
+    // ----- Every distinct term text, stored once however many fields
+    // ----- it appears in, and numbered in the order first seen. The
+    // ----- characters of all terms are packed into one array, and an
+    // ----- open-addressing table of term numbers finds them.
+    private static class TermDictionary {
+      private char[] chars  = new char[1024];
+      private int    numChars;
+      private int[]  starts = new int[65];   // starts[id], end is starts[id + 1]
+      private int    numTerms;
+      private int[]  table  = new int[128];  // term number + 1, or 0 if empty
+
+      /** @return the number of the term, adding it if it is new */
+      int intern (String term) {
+        int slot = slot (term);
+        if (table[slot] != 0) {
+          return table[slot] - 1;
+        }
+        int length = term.length();
+        if (numChars + length > chars.length) {
+          char[] temp = new char[Math.max (numChars + length, 2 * chars.length)];
+          System.arraycopy (chars, 0, temp, 0, numChars);
+          chars = temp;
+        }
+        term.getChars (0, length, chars, numChars);
+        numChars += length;
+        if (numTerms + 2 > starts.length) {
+          starts = grow (starts, 2 * starts.length);
+        }
+        starts[++numTerms] = numChars;
+        table[slot] = numTerms;
+        if (3 * numTerms > 2 * table.length) {
+          rehash();
+        }
+        return numTerms - 1;
+      }
 
-      public TermFreq (int freq) {
-	    this.freq = freq;
+      /** @return the number of the term, or -1 if it is not in the dictionary */
+      int lookup (String term) {
+        return table[slot (term)] - 1;
       }
 
-	  public void toXML (XMLWriter writer) throws IOException {
-        writer.setDefaultFormat();
-        writer.printEntireElement("term-freq", freq);
+      String get (int id) {
+        return new String (chars, starts[id], starts[id + 1] - starts[id]);
       }
-    }
 
-      private class DocFreq extends LSPObject {
-    	int     freq;
+      /** the slot holding the term, or the empty slot it would go in */
+      private int slot (String term) {
+        int mask = table.length - 1;
+        int length = term.length();
+        int slot = mix (term.hashCode()) & mask;
+        while (table[slot] != 0) {
+          int id = table[slot] - 1;
+          int start = starts[id];
+          if (starts[id + 1] - start == length) {
+            int i = 0;
+            while (i < length && chars[start + i] == term.charAt (i)) {
+              i++;
+            }
+            if (i == length) {
+              return slot;
+            }
+          }
+          slot = (slot + 1) & mask;
+        }
+        return slot;
+      }
 
-	    public DocFreq (int freq) {
-	           this.freq = freq;
-	    }
+      private void rehash () {
+        int[] newTable = new int[2 * table.length];
+        int mask = newTable.length - 1;
+        for (int id = 0 ; id < numTerms ; id++) {
+          // the same hash as String.hashCode()
+          int hash = 0;
+          for (int i = starts[id] ; i < starts[id + 1] ; i++) {
+            hash = 31 * hash + chars[i];
+          }
+          int slot = mix (hash) & mask;
+          while (newTable[slot] != 0) {
+            slot = (slot + 1) & mask;
+          }
+          newTable[slot] = id + 1;
+        }
+        table = newTable;
+      }
+    }
+
+    // ----- The entries of one field: parallel arrays of term number,
+    // ----- term frequency and doc frequency (-1 when missing), in the
+    // ----- order added, and an open-addressing table from term number
+    // ----- to entry
+    private static class FieldTerms {
+      LSPField field;
+      int[]    termIds   = new int[16];
+      int[]    termFreqs = new int[16];
+      int[]    docFreqs  = new int[16];
+      int      size;
+      private int[] table = new int[32];   // entry index + 1, or 0 if empty
+
+      FieldTerms (LSPField field) {
+        this.field = field;
+      }
 
-	    public void toXML (XMLWriter writer) throws IOException {
-          writer.setDefaultFormat();
-          writer.printEntireElement("doc-freq", freq);
+      void put (int termId, int termFreq, int docFreq) {
+        int slot = slot (termId);
+        int i = table[slot] - 1;
+        if (i == -1) {
+          if (size == termIds.length) {
+            termIds   = grow (termIds, 2 * size);
+            termFreqs = grow (termFreqs, 2 * size);
+            docFreqs  = grow (docFreqs, 2 * size);
+          }
+          i = size++;
+          termIds[i] = termId;
+          table[slot] = size;
+          if (3 * size > 2 * table.length) {
+            rehash();
+          }
         }
-       }
+        termFreqs[i] = termFreq;
+        docFreqs[i]  = docFreq;
+      }
 
-       private class TermDocFreq extends LSPObject {
-	       TermFreq termFreq;
-	       DocFreq  docFreq;
+      int indexOf (int termId) {
+        return table[slot (termId)] - 1;
+      }
 
-	       public TermDocFreq (int termFreq, int docFreq) {
-	         this.termFreq = new TermFreq (termFreq);
-	         this.docFreq  = new DocFreq (docFreq);
-           }
+      /** removes entry i, moving the last entry into its place */
+      void remove (int i) {
+        // empty its slot, shifting back any later entries of the same run
+        // that could no longer be found past the gap
+        int mask = table.length - 1;
+        int hole = slot (termIds[i]);
+        int next = (hole + 1) & mask;
+        while (table[next] != 0) {
+          int home = mix (termIds[table[next] - 1]) & mask;
+          if (((next - home) & mask) >= ((next - hole) & mask)) {
+            table[hole] = table[next];
+            hole = next;
+          }
+          next = (next + 1) & mask;
+        }
+        table[hole] = 0;
+
+        int last = --size;
+        if (i != last) {
+          table[slot (termIds[last])] = i + 1;
+          termIds[i]   = termIds[last];
+          termFreqs[i] = termFreqs[last];
+          docFreqs[i]  = docFreqs[last];
+        }
+      }
 
-           public void toXML (XMLWriter writer) throws IOException {
-             termFreq.toXML (writer);
-             docFreq.toXML (writer);
+      private int slot (int termId) {
+        int mask = table.length - 1;
+        int slot = mix (termId) & mask;
+        while (table[slot] != 0 && termIds[table[slot] - 1] != termId) {
+          slot = (slot + 1) & mask;
+        }
+        return slot;
+      }
+
+      private void rehash () {
+        table = new int[2 * table.length];
+        int mask = table.length - 1;
+        for (int i = 0 ; i < size ; i++) {
+          int slot = mix (termIds[i]) & mask;
+          while (table[slot] != 0) {
+            slot = (slot + 1) & mask;
           }
+          table[slot] = i + 1;
         }
-}
+      }
+    }
 
+    /** spreads the bits of a hash, so that masking off the low ones works */
+    private static int mix (int hash) {
+      hash *= 0x9E3779B9;
+      return hash ^ (hash >>> 16);
+    }
+}
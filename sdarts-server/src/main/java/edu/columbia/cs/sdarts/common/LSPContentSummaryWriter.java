@@ -0,0 +1,195 @@
+package edu.columbia.cs.sdarts.common;
+
+import java.io.IOException;
+
+import edu.columbia.cs.sdarts.util.XMLWriter;
+
+/**
+ * Writes an "scontent-summary", as defined in the STARTS 1.0 spec, one
+ * frequency entry at a time, without ever holding the whole summary in
+ * memory. It writes exactly the XML that
+ * {@link edu.columbia.cs.sdarts.common.LSPContentSummary#toXML(XMLWriter) LSPContentSummary.toXML()}
+ * does (which in fact uses this class), so the result can be read back with
+ * an {@link edu.columbia.cs.sdarts.common.LSPContentSummaryBuilder LSPContentSummaryBuilder}.
+ * <p>
+ * The heading is written when the writer is created, so the number of
+ * documents must be known up front. Entries for the same field should be
+ * added one after another: each change of field closes one
+ * <code>field-freq-info</code> element and opens the next. (Entries for a
+ * field that comes back later are still read correctly, but the field is
+ * then written more than once.) Call <code>finish()</code> or
+ * <code>close()</code> when done.
+ *
+ * @version 1.0
+ */
+public class LSPContentSummaryWriter {
+    // the number of field-frequency-records that can be batched
+    // in memory before being written to I/O. Adjust this for
+    // performance if you like
+    private static final int BATCH_SIZE = 1000;
+
+    private XMLWriter writer;
+    private boolean   inField;
+    private LSPField  currentField;
+    private int       iterations;
+    private boolean   finished;
+
+
+    /**
+     * Create the writer, and write the heading of the content summary
+     * @param writer where to write the XML
+     * @param stemming whether the underlying collection supported stemming
+     * @param stopWords whether the underyling collection supports stop-words
+     * @param caseSensitive whether the underyling collection supports
+     * case-sensitive queries
+     * @param fields whether field names appear with the terms in a content
+     * summary
+     * @param numDocs the number of documents in the underlying collection
+     * @exception IOException if the heading cannot be written
+     */
+    public LSPContentSummaryWriter (XMLWriter writer, boolean stemming,
+                                    boolean stopWords, boolean caseSensitive,
+                                    boolean fields, int numDocs)
+      throws IOException {
+      this.writer = writer;
+      writer.setDefaultFormat();
+      writer.setIsolateAttributes(true);
+      writer.enterNamespace(STARTS.NAMESPACE_NAME);
+      writer.printStartElement ("scontent-summary", true);
+      writer.printNamespaceDeclaration
+        (STARTS.NAMESPACE_NAME, STARTS.NAMESPACE_VALUE);
+      writer.printAttribute("xmlns:xsi", "http://www.w3.org/2001/XMLSchema-instance");
+      writer.printAttribute("xsi:schemaLocation", STARTS.NAMESPACE_VALUE + " " + writer.GetDocTypeMapEntry(STARTS.NAMESPACE_NAME + ":smeta-attributes"));
+      writer.printAttribute ("version", LSPContentSummary.version);
+      writer.printAttribute ("stemming", stemming);
+      writer.printAttribute ("stopwords", stopWords);
+      writer.printAttribute ("case-sensitive", caseSensitive);
+      writer.printAttribute ("fields", fields);
+      writer.printAttribute ("numdocs", numDocs);
+      writer.printStartElementClose();
+      writer.setIsolateAttributes (false);
+      writer.flush();
+
+      writer.indent();
+    }
+
+    /**
+     * Write a field frequency information entry with term frequency
+     * (number of times a term appears throughout the collection)
+     * @param field the field where this term appears (can be <code>null</code>
+     * if unknown)
+     * @param term the term
+     * @param termFrequency term frequency
+     * @exception IOException if the entry cannot be written
+     */
+    public void addTermFieldFreqInfo (LSPField field, LSPTerm term,
+                                      int termFrequency) throws IOException {
+      startEntry (field, term);
+      writer.setDefaultFormat();
+      writer.printEntireElement("term-freq", termFrequency);
+      endEntry();
+    }
+
+    /**
+     * Write a field frequency information entry with doc frequency
+     * (number of documents that contain the term)
+     * @param field the field where this term appears (can be <code>null</code>
+     * if unknown)
+     * @param term the term
+     * @param docFrequency doc frequency
+     * @exception IOException if the entry cannot be written
+     */
+    public void addDocFieldFreqInfo (LSPField field, LSPTerm term,
+                                     int docFrequency) throws IOException {
+      startEntry (field, term);
+      writer.setDefaultFormat();
+      writer.printEntireElement("doc-freq", docFrequency);
+      endEntry();
+    }
+
+    /**
+     * Write a field frequency information entry with both term frequency
+     * (number of times a term appears throughout the collection)
+     * and doc frequency (number of documents that contain the term)
+     * @param field the field where this term appears (can be <code>null</code>
+     * if unknown)
+     * @param term the term
+     * @param termFrequency term frequency
+     * @param docFrequency doc frequency
+     * @exception IOException if the entry cannot be written
+     */
+    public void addTermDocFieldFreqInfo (LSPField field, LSPTerm term,
+                                         int termFrequency, int docFrequency)
+      throws IOException {
+      startEntry (field, term);
+      writer.setDefaultFormat();
+      writer.printEntireElement("term-freq", termFrequency);
+      writer.setDefaultFormat();
+      writer.printEntireElement("doc-freq", docFrequency);
+      endEntry();
+    }
+
+    /**
+     * Write the end of the content summary, and flush. Does not close the
+     * underlying <code>XMLWriter</code>.
+     * @exception IOException if the end cannot be written
+     */
+    public void finish () throws IOException {
+      if (finished) {
+        return;
+      }
+      finished = true;
+      endField();
+      writer.unindent();
+      writer.printEndElement("scontent-summary");
+      writer.flush();
+      writer.exitNamespace();
+    }
+
+    /**
+     * Finish the content summary, and close the underlying
+     * <code>XMLWriter</code>.
+     * @exception IOException if something goes wrong
+     */
+    public void close () throws IOException {
+      finish();
+      writer.close();
+    }
+
+
+    // -------- HELPER METHODS --------
+    private void startEntry (LSPField field, LSPTerm term) throws IOException {
+      if (!inField || !sameField (field, currentField)) {
+        endField();
+        writer.printStartElement ("field-freq-info");
+        writer.indent();
+        if (field != null) {
+          field.toXML (writer);
+        }
+        inField = true;
+        currentField = field;
+      }
+      term.toXML (writer);
+    }
+
+    private void endEntry () {
+      if (++iterations == BATCH_SIZE) {
+        writer.flush();
+        iterations = 0;
+      }
+    }
+
+    private void endField () throws IOException {
+      if (inField) {
+        writer.unindent();
+        writer.printEndElement("field-freq-info");
+        writer.flush();
+        inField = false;
+        iterations = 0;
+      }
+    }
+
+    private static boolean sameField (LSPField field, LSPField other) {
+      return (field == null) ? (other == null) : field.equals (other);
+    }
+}
@@ -139,6 +139,29 @@ public class LSPResults extends LSPObject {
   }
 
   public void toXML (XMLWriter writer) throws IOException {
+    printStart (writer);
+
+    int numDocs = docs.length;
+    int iterations = 0;
+    for (int i = 0 ; i < numDocs ; i++) {
+      docs[i].toXML (writer);
+      if (++iterations == BATCH_SIZE) {
+        writer.flush();
+        iterations = 0;
+      }
+    }
+    printEnd (writer);
+  }
+
+  /**
+   * Prints everything in the <code>sqresults</code> element that comes
+   * before the documents. Together with <code>printEnd()</code>, this lets
+   * a caller write the documents one at a time, flushing as it goes, instead
+   * of calling <code>toXML()</code>.
+   * @param writer the writer
+   * @exception IOException if something goes wrong
+   */
+  public void printStart (XMLWriter writer) throws IOException {
     writer.setDefaultFormat();
     writer.enterNamespace(STARTS.NAMESPACE_NAME);
     writer.printStartElement ("sqresults", true);
@@ -159,16 +182,15 @@ public class LSPResults extends LSPObject {
       ranking.toXML (writer);
     }
     source.toXML (writer);
+  }
 
-    int numDocs = docs.length;
-    int iterations = 0;
-    for (int i = 0 ; i < numDocs ; i++) {
-      docs[i].toXML (writer);
-      if (++iterations == BATCH_SIZE) {
-        writer.flush();
-        iterations = 0;
-      }
-    }
+  /**
+   * Prints everything in the <code>sqresults</code> element that comes
+   * after the documents. See <code>printStart()</code>.
+   * @param writer the writer
+   * @exception IOException if something goes wrong
+   */
+  public void printEnd (XMLWriter writer) throws IOException {
     writer.unindent();
     writer.printEndElement("sqresults");
     writer.exitNamespace();
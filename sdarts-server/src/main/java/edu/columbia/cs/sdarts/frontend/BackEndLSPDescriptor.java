@@ -4,6 +4,7 @@ package edu.columbia.cs.sdarts.frontend;
 import java.io.IOException;
 
 import edu.columbia.cs.sdarts.common.LSPObject;
+import edu.columbia.cs.sdarts.util.LegalCharsInputStream;
 import edu.columbia.cs.sdarts.util.XMLWriter;
 
 
@@ -16,6 +17,10 @@ import edu.columbia.cs.sdarts.util.XMLWriter;
  * <code>sdarts_config.xml</code> file. There is one descriptor for
  * each of these tags present in the file, and they are all stored inside the
  * {@link edu.columbia.cs.sdarts.frontend.SDARTSConfig SDARTSConfig} object.
+ * <p>
+ * The optional settings of a back end start out at 0, which means the
+ * default, or <code>ascii</code> for the character filter, and are set one
+ * at a time.
  *
  * @author <a href="mailto:ngreen@cs.columbia.edu">Noah Green</a>
  * @version 1.0
@@ -25,6 +30,15 @@ public class BackEndLSPDescriptor extends LSPObject {
   private String name;
   private String description;
   private String[] queryLanguages;
+  private long queryTimeout;
+  private int resultCacheSize;
+  private long resultCacheTTL;
+  private int httpConnectTimeout;
+  private int httpReadTimeout;
+  private int httpConnections;
+  private int httpRequestInterval;
+  private int httpPrefetchPages;
+  private int httpCharFilter;
 
   /**
    * Instantiates a descriptor. Typically, descriptors are instantiated
@@ -82,6 +96,173 @@ public class BackEndLSPDescriptor extends LSPObject {
     return queryLanguages;
   }
 
+  /**
+   * Returns how many milliseconds the <code>FrontEndLSP</code> waits for
+   * this back end to answer a query, or 0 if the server default applies
+   * @return the query deadline in milliseconds, or 0 for the default
+   */
+  public long getQueryTimeout () {
+    return queryTimeout;
+  }
+
+  /**
+   * Sets how many milliseconds the <code>FrontEndLSP</code> waits for
+   * this back end to answer a query
+   * @param queryTimeout the query deadline in milliseconds; 0 means use the
+   * server default
+   */
+  public void setQueryTimeout (long queryTimeout) {
+    this.queryTimeout = queryTimeout;
+  }
+
+  /**
+   * Returns how many query results to cache for this back end, or 0 if
+   * its results are not cached
+   * @return the size of the result cache, or 0 for none
+   */
+  public int getResultCacheSize () {
+    return resultCacheSize;
+  }
+
+  /**
+   * Sets how many query results to cache for this back end
+   * @param resultCacheSize the size of the result cache; 0 means do not cache
+   */
+  public void setResultCacheSize (int resultCacheSize) {
+    this.resultCacheSize = resultCacheSize;
+  }
+
+  /**
+   * Returns how many milliseconds a cached result stays good, or 0 if it
+   * stays good until it is evicted
+   * @return the result time-to-live in milliseconds, or 0 for no limit
+   */
+  public long getResultCacheTTL () {
+    return resultCacheTTL;
+  }
+
+  /**
+   * Sets how many milliseconds a cached result stays good
+   * @param resultCacheTTL the result time-to-live in milliseconds; 0 means
+   * until it is evicted
+   */
+  public void setResultCacheTTL (long resultCacheTTL) {
+    this.resultCacheTTL = resultCacheTTL;
+  }
+
+  /**
+   * Returns how many milliseconds a web back end waits to connect to its
+   * server, or 0 for the default
+   * @return the connect timeout in milliseconds, or 0 for the default
+   */
+  public int getHTTPConnectTimeout () {
+    return httpConnectTimeout;
+  }
+
+  /**
+   * Sets how many milliseconds a web back end waits to connect to its
+   * server
+   * @param httpConnectTimeout the connect timeout in milliseconds; 0 means use
+   * the default
+   */
+  public void setHTTPConnectTimeout (int httpConnectTimeout) {
+    this.httpConnectTimeout = httpConnectTimeout;
+  }
+
+  /**
+   * Returns how many milliseconds a web back end waits for data from its
+   * server, or 0 for the default
+   * @return the read timeout in milliseconds, or 0 for the default
+   */
+  public int getHTTPReadTimeout () {
+    return httpReadTimeout;
+  }
+
+  /**
+   * Sets how many milliseconds a web back end waits for data from its
+   * server
+   * @param httpReadTimeout the read timeout in milliseconds; 0 means use the
+   * default
+   */
+  public void setHTTPReadTimeout (int httpReadTimeout) {
+    this.httpReadTimeout = httpReadTimeout;
+  }
+
+  /**
+   * Returns how many requests a web back end may have open to one host at
+   * once, or 0 for the default
+   * @return the connections per host, or 0 for the default
+   */
+  public int getHTTPConnections () {
+    return httpConnections;
+  }
+
+  /**
+   * Sets how many requests a web back end may have open to one host at
+   * once
+   * @param httpConnections the connections per host; 0 means use the default
+   */
+  public void setHTTPConnections (int httpConnections) {
+    this.httpConnections = httpConnections;
+  }
+
+  /**
+   * Returns how many milliseconds a web back end leaves between the starts
+   * of two requests to one host, or 0 for none
+   * @return the request interval in milliseconds, or 0 for none
+   */
+  public int getHTTPRequestInterval () {
+    return httpRequestInterval;
+  }
+
+  /**
+   * Sets how many milliseconds a web back end leaves between the starts
+   * of two requests to one host
+   * @param httpRequestInterval the request interval in milliseconds; 0 means
+   * none
+   */
+  public void setHTTPRequestInterval (int httpRequestInterval) {
+    this.httpRequestInterval = httpRequestInterval;
+  }
+
+  /**
+   * Returns how many result pages a web back end fetches ahead, 0 for the
+   * default, or less than 0 for none
+   * @return the number of pages fetched ahead
+   */
+  public int getHTTPPrefetchPages () {
+    return httpPrefetchPages;
+  }
+
+  /**
+   * Sets how many result pages a web back end fetches ahead
+   * @param httpPrefetchPages the number of pages fetched ahead; 0 means use
+   * the default, and less than 0 means none
+   */
+  public void setHTTPPrefetchPages (int httpPrefetchPages) {
+    this.httpPrefetchPages = httpPrefetchPages;
+  }
+
+  /**
+   * Returns which characters of its pages a web back end keeps
+   * @return one of the
+   * {@link edu.columbia.cs.sdarts.util.LegalCharsInputStream LegalCharsInputStream}
+   * modes
+   */
+  public int getHTTPCharFilter () {
+    return httpCharFilter;
+  }
+
+  /**
+   * Sets which characters of its pages a web back end keeps
+   * @param httpCharFilter one of the
+   * {@link edu.columbia.cs.sdarts.util.LegalCharsInputStream LegalCharsInputStream}
+   * modes
+   */
+  public void setHTTPCharFilter (int httpCharFilter) {
+    this.httpCharFilter = httpCharFilter;
+  }
+
   public void toXML (XMLWriter writer) throws IOException {
     writer.setDefaultFormat();
     writer.printStartElement("back-end-lsp");
@@ -93,6 +274,38 @@ public class BackEndLSPDescriptor extends LSPObject {
     for (int i = 0 ; i < len ; i++) {
       writer.printEntireElement ("query-language", queryLanguages[i]);
     }
+    if (queryTimeout > 0) {
+      writer.printEntireElement ("query-timeout", "" + queryTimeout);
+    }
+    if (resultCacheSize > 0) {
+      writer.printEntireElement ("result-cache-size", "" + resultCacheSize);
+      if (resultCacheTTL > 0) {
+        writer.printEntireElement ("result-cache-ttl", "" + resultCacheTTL);
+      }
+    }
+    if (httpConnectTimeout > 0) {
+      writer.printEntireElement ("http-connect-timeout",
+                                 "" + httpConnectTimeout);
+    }
+    if (httpReadTimeout > 0) {
+      writer.printEntireElement ("http-read-timeout", "" + httpReadTimeout);
+    }
+    if (httpConnections > 0) {
+      writer.printEntireElement ("http-connections", "" + httpConnections);
+    }
+    if (httpRequestInterval > 0) {
+      writer.printEntireElement ("http-request-interval",
+                                 "" + httpRequestInterval);
+    }
+    if (httpPrefetchPages != 0) {
+      writer.printEntireElement ("http-prefetch-pages",
+                                 "" + httpPrefetchPages);
+    }
+    if (httpCharFilter != LegalCharsInputStream.ASCII) {
+      writer.printEntireElement
+        ("http-char-filter",
+         LegalCharsInputStream.getModeName (httpCharFilter));
+    }
     writer.unindent();
     writer.printEndElement ("back-end-lsp");
   }
@@ -3,18 +3,29 @@ package edu.columbia.cs.sdarts.frontend;
 
 
 import java.io.IOException;
+import java.io.Reader;
 import java.io.StringReader;
 import java.io.StringWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import org.omg.CORBA.IntHolder;
 import org.w3c.dom.Element;
 import org.w3c.dom.NodeList;
+import org.xml.sax.InputSource;
 
 import sdlip.Metadata;
 import sdlip.SDLIP;
@@ -24,6 +35,7 @@ import sdlip.XMLObject;
 import sdlip.xml.dom.DOMUtil;
 import edu.columbia.cs.sdarts.backend.BackEndException;
 import edu.columbia.cs.sdarts.backend.BackEndLSP;
+import edu.columbia.cs.sdarts.backend.CachingBackEndLSP;
 import edu.columbia.cs.sdarts.common.LSPContentSummary;
 import edu.columbia.cs.sdarts.common.LSPMetaAttributes;
 import edu.columbia.cs.sdarts.common.LSPQuery;
@@ -31,6 +43,7 @@ import edu.columbia.cs.sdarts.common.LSPQueryBuilder;
 import edu.columbia.cs.sdarts.common.LSPResults;
 import edu.columbia.cs.sdarts.common.LSPSource;
 import edu.columbia.cs.sdarts.common.STARTS;
+import edu.columbia.cs.sdarts.util.HTTPTransport;
 import edu.columbia.cs.sdarts.util.XMLWriter;
 
 /**
@@ -57,7 +70,8 @@ import edu.columbia.cs.sdarts.util.XMLWriter;
  * <ul>
  * <li>Receives STARTS XML requests via SDLIP method calls from clients
  * <li>Passes these requests as {@link edu.columbia.cs.sdarts.common.LSPObject} headers
- * to one or more underlying <code>BackEndLSPs</code>
+ * to one or more underlying <code>BackEndLSPs</code>, all at once, on a
+ * bounded pool of search threads
  * <li>Receives <code>LSPObject</code> replies from the <code>BackEndLSPs</code>
  * <li>Converts these into SDLIP/STARTS XML, and returns them to the clients.
  * </ul>
@@ -77,7 +91,19 @@ import edu.columbia.cs.sdarts.util.XMLWriter;
  */
 public class FrontEndLSP implements Search, Metadata {
   // ------------ FIELDS ------------
+  // -------- CONSTANTS --------
+  /** How many back-end queries run at once, unless
+   * <code>sdarts_config.xml</code> says otherwise */
+  public static final int  DEFAULT_SEARCH_THREADS = 8;
+
+  /** How many milliseconds to wait for a back end to answer, unless
+   * its <code>back-end-lsp</code> entry says otherwise */
+  public static final long DEFAULT_QUERY_TIMEOUT  = 30000;
+
   protected Map backEndLSPs;
+  protected Map queryTimeouts;
+  protected Map scoreRanges;
+  private ExecutorService searchExecutor;
 
 
 
@@ -124,6 +150,8 @@ public class FrontEndLSP implements Search, Metadata {
       BackEndLSPDescriptor[] descriptors = config.getBackEndLSPDescriptors();
       int len = descriptors.length;
       backEndLSPs = new HashMap (len);
+      queryTimeouts = new HashMap (len);
+      scoreRanges = new HashMap (len);
       for (int i = 0 ; i < len ; i++) {
         BackEndLSPDescriptor descriptor = descriptors[i];
         String name = descriptor.getName();
@@ -133,10 +161,41 @@ public class FrontEndLSP implements Search, Metadata {
         BackEndLSP lsp =
           (BackEndLSP) Class.forName (descriptor.getClassname()).newInstance();
         System.out.println("Initializing " + name + " back-end");
+        HTTPTransport.configure (name, descriptor.getHTTPConnectTimeout(),
+                                 descriptor.getHTTPReadTimeout(),
+                                 descriptor.getHTTPConnections(),
+                                 descriptor.getHTTPRequestInterval(),
+                                 descriptor.getHTTPPrefetchPages(),
+                                 descriptor.getHTTPCharFilter());
         lsp.initialize (name, description, queryLanguages);
         System.out.println("Initialized!");
+        if (descriptor.getResultCacheSize() > 0) {
+          lsp = new CachingBackEndLSP (lsp, descriptor.getResultCacheSize(),
+                                       descriptor.getResultCacheTTL());
+        }
         backEndLSPs.put (name, lsp);
+
+        long timeout = descriptor.getQueryTimeout();
+        if (timeout <= 0) {
+          timeout = DEFAULT_QUERY_TIMEOUT;
+        }
+        queryTimeouts.put (name, new Long (timeout));
+
+        try {
+          scoreRanges.put (name, lsp.getMetaAttributes().getScoreRange());
+        }
+        catch (BackEndException e) {
+          System.out.println ("no score range for " + name + ": " +
+                              e.getMessage());
+        }
+      }
+
+      int searchThreads = config.getSearchThreads();
+      if (searchThreads <= 0) {
+        searchThreads = DEFAULT_SEARCH_THREADS;
       }
+      searchExecutor =
+        Executors.newFixedThreadPool (searchThreads, new SearchThreadFactory());
     }
     catch (Exception e) {
       e.printStackTrace();
@@ -195,6 +254,25 @@ public class FrontEndLSP implements Search, Metadata {
    * </pre><br>
    * There will be one <code>&lt;doc&gt;</code> element, with associated
    * embedded STARTS XML, for each subcollection/back-end that is queried.
+   * The documents of all the back ends are ranked against each other by
+   * the query's sort fields, with each back end's raw scores normalized
+   * by the score range in its meta-attributes, and only the best
+   * <code>max-docs</code> of them are returned; see
+   * {@link edu.columbia.cs.sdarts.frontend.ResultMerger ResultMerger}.
+   * All back ends are queried at the same time, or as soon as a search
+   * thread is free. A back end that fails, returns nothing, does not get a
+   * thread within its <code>query-timeout</code>, or does not answer within
+   * its <code>query-timeout</code> of starting, is left out, and is listed
+   * instead in a trailing element of the form:
+   * <pre>
+   *    &lt;failedSubcols&gt;
+   *       &lt;failedSubcol&gt;
+   *          &lt;subcolName&gt; ... &lt;/subcolName&gt;
+   *          &lt;reason&gt; ... &lt;/reason&gt;
+   *       &lt;/failedSubcol&gt;
+   *    &lt;/failedSubcols&gt;
+   * </pre>
+   * The search only fails as a whole if no back end answers.
    * The merging of STARTS and SDLIP means that there are some parameters
    * in this method that duplicate items that appear in the STARTS
    * XML <code>query</code> parameter. In addition, this framework does not
@@ -300,37 +378,110 @@ public class FrontEndLSP implements Search, Metadata {
     BackEndLSP[] collections =
       (BackEndLSP[]) collList.toArray (new BackEndLSP[0]);
 
-    // Perform queries
-    int totalDocs = 0;
-    List results = new ArrayList (len);
-    for (int i = 0 ; i < len ; i++) {
-      LSPResults resultObj = null;
+    // Perform queries, all at once. Each QueryProcessor clones the
+    // LSPQuery before touching it, so the back ends can share queryObj.
+    int numCollections = collections.length;
+    BackEndQuery[] queries = new BackEndQuery[numCollections];
+    Future[] futures = new Future[numCollections];
+    long[] deadlines = new long[numCollections];
+    for (int i = 0 ; i < numCollections ; i++) {
+      queries[i] = new BackEndQuery (collections[i], queryObj);
+      deadlines[i] = System.currentTimeMillis() +
+        getQueryTimeout (collections[i].getName());
+      futures[i] = searchExecutor.submit (queries[i]);
+    }
+
+    // Collect whatever comes back before each back end's deadline, which
+    // was set when its query was submitted, so it takes in any wait for a
+    // search thread, and does not move while earlier back ends are waited on
+    List results = new ArrayList (numCollections);
+    List failures = new LinkedList();
+    for (int i = 0 ; i < numCollections ; i++) {
+      String name = collections[i].getName();
+      long timeout = getQueryTimeout (name);
       try {
-        // TODO : MAKE LSPQUERY CLONEABLE!!!!  AND CLONE IT HERE !!!!!
-        resultObj = collections[i].query (queryObj);
+        long remaining = deadlines[i] - System.currentTimeMillis();
+        LSPResults resultObj =
+          (LSPResults) futures[i].get (Math.max (remaining, 0),
+                                       TimeUnit.MILLISECONDS);
+        if (resultObj != null) {
+          results.add (resultObj);
+        }
+        else {
+          failures.add (new String[] {name, "no results returned"});
+        }
       }
-      catch (BackEndException e) {
-        throw new SDLIPException (SDLIPException.BAD_QUERY_EXC, e.getMessage());
+      catch (TimeoutException e) {
+        futures[i].cancel (true);
+        failures.add (new String[] {name, queries[i].hasStarted() ?
+          "no answer within " + timeout + " ms" :
+          "no search thread free within " + timeout + " ms"});
       }
-      totalDocs += resultObj.getNumDocs();
-      if (resultObj != null) {
-        results.add (resultObj);
+      catch (ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (!(cause instanceof BackEndException)) {
+          cause.printStackTrace();
+        }
+        failures.add (new String[] {name, String.valueOf (cause.getMessage())});
       }
+      catch (InterruptedException e) {
+        for (int j = i ; j < numCollections ; j++) {
+          futures[j].cancel (true);
+        }
+        throw new SDLIPException (SDLIPException.SERVER_ERROR_EXC,
+                                  "Interrupted while searching");
+      }
+    }
+    for (Iterator it = failures.iterator() ; it.hasNext() ; ) {
+      String[] failure = (String[]) it.next();
+      System.out.println ("dropped " + failure[0] + ": " + failure[1]);
+    }
+    if (results.size() == 0) {
+      String reason = "No source answered the query";
+      if (failures.size() > 0) {
+        reason = ((String[]) failures.get (0))[1];
+      }
+      throw new SDLIPException (SDLIPException.BAD_QUERY_EXC, reason);
     }
 
-    // Merge results
-    String resultString = null;
+    // Keep the best documents across all the back ends. The DOM-based
+    // XMLObject can read the response a chunk at a time; anything else
+    // gets it as one String.
+    LSPResults[] resultArray =
+      (LSPResults[]) results.toArray (new LSPResults[0]);
+    double[][] ranges = new double[resultArray.length][];
+    for (int i = 0 ; i < resultArray.length ; i++) {
+      ranges[i] = (double[]) scoreRanges.get
+        (resultArray[i].getSource().getName());
+    }
+    LSPResults[] merged = ResultMerger.merge (resultArray, ranges, queryObj);
+    int totalDocs = 0;
+    for (int i = 0 ; i < merged.length ; i++) {
+      totalDocs += merged[i].getNumDocs();
+    }
+    expectedTotal.value = totalDocs;
     try {
-      resultString = mergeResults (results);
+      Reader resultReader =
+        new SearchResultReader (Arrays.asList (merged), failures);
+      if (result instanceof sdlip.xml.dom.XMLObject) {
+        ((sdlip.xml.dom.XMLObject) result).setInputSource
+          (new InputSource (resultReader));
+      }
+      else {
+        result.setString (readAll (resultReader));
+      }
     }
     catch (IOException e) {
       throw new SDLIPException (SDLIPException.SERVER_ERROR_EXC, e.getMessage());
     }
-
-
-   expectedTotal.value = totalDocs;
-   result.setString (resultString);
-   System.out.println ("processed search request");
+    for (int i = 0 ; i < numCollections ; i++) {
+      if (collections[i] instanceof CachingBackEndLSP) {
+        System.out.println ("result cache of " + collections[i].getName() +
+                            ": " + ((CachingBackEndLSP) collections[i]).
+                            getCacheStatistics());
+      }
+    }
+    System.out.println ("processed search request");
   }
 
 
@@ -496,37 +647,54 @@ public class FrontEndLSP implements Search, Metadata {
   }
 
   // -------- HELPER METHODS --------
-  private String mergeResults (List resultObjs) throws IOException {
+  private long getQueryTimeout (String backEndLSPName) {
+    Long timeout = (Long) queryTimeouts.get (backEndLSPName);
+    return (timeout == null ? DEFAULT_QUERY_TIMEOUT : timeout.longValue());
+  }
+
+  private static String readAll (Reader reader) throws IOException {
     StringWriter sw = new StringWriter ();
-    XMLWriter writer =
-      new XMLWriter (sw, new String[] {"SearchResult"});
-    writer.printStartElement ("SearchResult", true);
-    writer.printNamespaceDeclaration (SDLIP.Namespace);
-    writer.printStartElementClose();
-    writer.indent();
-
-    int docId = 1;
-    for (Iterator it = resultObjs.iterator() ; it.hasNext() ; ) {
-      LSPResults results = (LSPResults) it.next();
-      writer.indent();
-      writer.printStartElement("doc");
-      writer.printEntireElement("DID", docId++);
-      writer.printStartElement ("propList");
-      writer.indent();
-      results.toXML (writer);
-      writer.unindent();
-      writer.printEndElement ("propList");
-      writer.printEndElement("doc");
-      writer.unindent();
+    char[] buf = new char[SearchResultReader.CHUNK_SIZE];
+    int n;
+    while ((n = reader.read (buf)) != -1) {
+      sw.write (buf, 0, n);
+    }
+    reader.close();
+    return sw.toString();
+  }
+
+
+  // ------------ INNER CLASSES ------------
+  // ----- One back-end query, run on the search pool
+  private static class BackEndQuery implements Callable {
+    private BackEndLSP       backEnd;
+    private LSPQuery         query;
+    private volatile boolean started;
+
+    BackEndQuery (BackEndLSP backEnd, LSPQuery query) {
+      this.backEnd = backEnd;
+      this.query   = query;
+    }
+
+    public Object call () throws BackEndException {
+      started = true;
+      return backEnd.query (query);
     }
-    writer.unindent();
-    writer.printEndElement ("SearchResult");
-    writer.flush();
-    String resultString = sw.toString();
-    writer.close();
 
-    return resultString;
+    /** Whether a search thread has picked the query up */
+    boolean hasStarted () {
+      return started;
+    }
   }
-}
 
+  // ----- Daemon threads, so a hung back end cannot keep the server alive
+  private static class SearchThreadFactory implements ThreadFactory {
+    private int count = 0;
 
+    public synchronized Thread newThread (Runnable r) {
+      Thread t = new Thread (r, "sdarts-search-" + (++count));
+      t.setDaemon (true);
+      return t;
+    }
+  }
+}
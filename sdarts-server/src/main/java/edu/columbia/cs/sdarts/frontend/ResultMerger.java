@@ -0,0 +1,204 @@
+package edu.columbia.cs.sdarts.frontend;
+
+import java.util.Comparator;
+import java.util.PriorityQueue;
+
+import edu.columbia.cs.sdarts.common.LSPDoc;
+import edu.columbia.cs.sdarts.common.LSPQuery;
+import edu.columbia.cs.sdarts.common.LSPResults;
+import edu.columbia.cs.sdarts.common.LSPSortByField;
+
+/**
+ * Ranks the documents of several back ends against each other, and keeps
+ * the best of them, for the
+ * {@link edu.columbia.cs.sdarts.frontend.FrontEndLSP FrontEndLSP} to return
+ * for a search over more than one source.
+ * <p>
+ * Raw scores from different back ends are not comparable, so each
+ * document's score is first normalized into [0, 1] using the score range
+ * its back end advertises in its <code>LSPMetaAttributes</code>. If a back
+ * end advertises no usable range (none at all, an empty one, or an
+ * unbounded one), the lowest and highest scores in its own results are
+ * used instead.
+ * <p>
+ * Every back end has already sorted its documents by the query's
+ * <code>sort-by-fields</code>, so the lists are merged k ways with a heap
+ * holding the head of each list, in the same order
+ * {@link edu.columbia.cs.sdarts.backend.LSPDocSorter LSPDocSorter} uses
+ * (comparing normalized instead of raw scores). The merge stops as soon as
+ * it has the query's <code>maxDocs</code> documents. Documents tied on every
+ * sort key keep the order of their back ends in the query.
+ * <p>
+ * The results are still returned one <code>LSPResults</code> per back end,
+ * as STARTS reports them, each with the filter and ranking its back end
+ * actually used. The merge takes each back end's documents in their own
+ * order, so what a back end keeps is the first few of its documents.
+ * @version 1.0
+ */
+public class ResultMerger {
+  private ResultMerger () {}
+
+  /**
+   * Merges the results of several back ends.
+   * @param results the results of every back end that answered, in the
+   * order they should win ties
+   * @param scoreRanges the <code>{min, max}</code> score range of each
+   * back end, in the same order; any entry may be <code>null</code>
+   * @param query the query the back ends answered
+   * @return the results of each back end, in the same order, holding
+   * between them at most <code>maxDocs</code> documents
+   */
+  public static LSPResults[] merge (LSPResults[] results,
+                                    double[][] scoreRanges, LSPQuery query) {
+    int numResults = results.length;
+    int total = 0;
+    for (int i = 0 ; i < numResults ; i++) {
+      total += results[i].getNumDocs();
+    }
+
+    int maxDocs = query.getMaxDocs();
+    int limit = (maxDocs > 0) ? Math.min (maxDocs, total) : total;
+    LSPSortByField[] sortByFields = query.getSortByFields();
+    if (sortByFields == null || sortByFields.length == 0) {
+      sortByFields = new LSPSortByField[] {new LSPSortByField()};
+    }
+
+    PriorityQueue heap =
+      new PriorityQueue (Math.max (numResults, 1),
+                         new CursorComparator (sortByFields));
+    for (int i = 0 ; i < numResults ; i++) {
+      Cursor cursor = new Cursor (i, results[i],
+                                  normalizer (results[i], scoreRanges[i]));
+      if (cursor.advance()) {
+        heap.add (cursor);
+      }
+    }
+
+    // how many documents of each back end make it
+    int[] kept = new int[numResults];
+    int count = 0;
+    while (count < limit && !heap.isEmpty()) {
+      Cursor cursor = (Cursor) heap.poll();
+      kept[cursor.index]++;
+      count++;
+      if (cursor.advance()) {
+        heap.add (cursor);
+      }
+    }
+
+    // results may be shared through a CachingBackEndLSP, so are copied
+    // rather than cut down
+    LSPResults[] merged = new LSPResults[numResults];
+    for (int i = 0 ; i < numResults ; i++) {
+      LSPResults result = results[i];
+      if (kept[i] == result.getNumDocs()) {
+        merged[i] = result;
+        continue;
+      }
+      LSPDoc[] docs = new LSPDoc[kept[i]];
+      System.arraycopy (result.getDocs(), 0, docs, 0, kept[i]);
+      merged[i] = new LSPResults (result.getFilter(), result.getRanking(),
+                                  result.getSource(), docs,
+                                  result.getNumAvailable());
+    }
+    return merged;
+  }
+
+  /**
+   * Works out the <code>{min, max}</code> to normalize a back end's scores
+   * with: its advertised range if that is usable, otherwise the range of
+   * the scores it returned.
+   */
+  private static double[] normalizer (LSPResults result, double[] range) {
+    if (range != null && range.length >= 2 &&
+        range[1] > range[0] &&
+        !Double.isInfinite (range[0]) && !Double.isInfinite (range[1])) {
+      return range;
+    }
+    LSPDoc[] docs = result.getDocs();
+    double min = Double.POSITIVE_INFINITY;
+    double max = Double.NEGATIVE_INFINITY;
+    for (int i = 0 ; i < docs.length ; i++) {
+      double score = docs[i].getRawScore();
+      min = Math.min (min, score);
+      max = Math.max (max, score);
+    }
+    return new double[] {min, max};
+  }
+
+
+  // ------------ INNER CLASSES ------------
+  // ----- The head of one back end's list of documents
+  private static class Cursor {
+    int      index;
+    LSPDoc[] docs;
+    double   min;
+    double   width;
+    int      next;
+    LSPDoc   doc;
+    double   score;
+
+    Cursor (int index, LSPResults result, double[] range) {
+      this.index = index;
+      this.docs  = result.getDocs();
+      this.min   = range[0];
+      this.width = range[1] - range[0];
+    }
+
+    boolean advance () {
+      if (next == docs.length) {
+        return false;
+      }
+      doc = docs[next++];
+      if (width > 0) {
+        score = (doc.getRawScore() - min) / width;
+        score = Math.max (0.0, Math.min (1.0, score));
+      }
+      else {
+        score = 1.0;
+      }
+      return true;
+    }
+  }
+
+  // ----- LSPDocSorter's order, on normalized scores, then back end order
+  private static class CursorComparator implements Comparator {
+    private LSPSortByField[] sortByFields;
+
+    CursorComparator (LSPSortByField[] sortByFields) {
+      this.sortByFields = sortByFields;
+    }
+
+    public int compare (Object obj1, Object obj2) {
+      Cursor first  = (Cursor) obj1;
+      Cursor second = (Cursor) obj2;
+      for (int i = 0 ; i < sortByFields.length ; i++) {
+        LSPSortByField sbf = sortByFields[i];
+        if (sbf.isScore()) {
+          if (first.score != second.score) {
+            return (first.score > second.score) ? -1 : 1;
+          }
+          continue;
+        }
+        String fieldName  = sbf.getField().getName();
+        String firstVal   = first.doc.getValue (fieldName);
+        String secondVal  = second.doc.getValue (fieldName);
+        int comp;
+        if (firstVal == null) {
+          comp = (secondVal == null) ? 0 : -1;
+        }
+        else if (secondVal == null) {
+          comp = 1;
+        }
+        else {
+          comp = firstVal.compareTo (secondVal);
+        }
+        if (comp != 0) {
+          return (sbf.getAscendingDescending() == LSPSortByField.DESCENDING) ?
+            -comp : comp;
+        }
+      }
+      return first.index - second.index;
+    }
+  }
+}
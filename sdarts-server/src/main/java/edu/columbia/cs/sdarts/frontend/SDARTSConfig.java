@@ -24,6 +24,7 @@ public class SDARTSConfig extends LSPObject {
   private String startsDtdURL;
   private String sdlipDtdURL;
   private BackEndLSPDescriptor[] lspDescriptors;
+  private int searchThreads;
 
 
   /**
@@ -35,9 +36,25 @@ public class SDARTSConfig extends LSPObject {
    */
   public SDARTSConfig (String sdlipDtdURL, String startsDtdURL,
                        BackEndLSPDescriptor[] descriptors) {
+    this (sdlipDtdURL, startsDtdURL, descriptors, 0);
+  }
+
+  /**
+   * Creates the configuration object.
+   * @param sdlipDtdURL where to find the SDLIP DTD
+   * @param startsDtdURL where to find the STARTS DTD
+   * @param descriptors objects describing each <code>BackEndLSP</code>
+   * the SDARTS server is fronting.
+   * @param searchThreads the most back-end queries the server runs at
+   * once; 0 means use the server default
+   */
+  public SDARTSConfig (String sdlipDtdURL, String startsDtdURL,
+                       BackEndLSPDescriptor[] descriptors,
+                       int searchThreads) {
     this.sdlipDtdURL = sdlipDtdURL;
     this.startsDtdURL = startsDtdURL;
     this.lspDescriptors = descriptors;
+    this.searchThreads = searchThreads;
   }
 
   /**
@@ -66,6 +83,15 @@ public class SDARTSConfig extends LSPObject {
     return lspDescriptors;
   }
 
+  /**
+   * Returns the most back-end queries the server runs at once,
+   * or 0 if the server default applies
+   * @return the size of the search thread pool, or 0 for the default
+   */
+  public int getSearchThreads () {
+    return searchThreads;
+  }
+
   public void toXML (XMLWriter writer) throws java.io.IOException {
     writer.setDefaultFormat();
     writer.printStartElement("sdarts-config");
@@ -75,6 +101,9 @@ public class SDARTSConfig extends LSPObject {
     writer.printStartElement("starts-dtd-url");
     writer.print(startsDtdURL);
     writer.printEndElement("dtd-url");
+    if (searchThreads > 0) {
+      writer.printEntireElement ("search-threads", searchThreads);
+    }
     int len = lspDescriptors.length;
     for (int i = 0 ; i < len ; i++) {
       lspDescriptors[i].toXML (writer);
@@ -14,6 +14,7 @@ import org.xml.sax.SAXException;
 
 import sdlip.SDLIPException;
 import edu.columbia.cs.sdarts.util.IntStack;
+import edu.columbia.cs.sdarts.util.LegalCharsInputStream;
 import edu.columbia.cs.sdarts.util.SDARTSHandlerBase;
 import edu.columbia.cs.sdarts.util.UnsynchStack;
 
@@ -82,6 +83,16 @@ public class SDARTSConfigBuilder {
     private static final int NAME           = 5;
     private static final int DESCRIPTION    = 6;
     private static final int QUERY_LANGUAGE = 7;
+    private static final int SEARCH_THREADS = 8;
+    private static final int QUERY_TIMEOUT  = 9;
+    private static final int RESULT_CACHE_SIZE = 10;
+    private static final int RESULT_CACHE_TTL  = 11;
+    private static final int HTTP_CONNECT_TIMEOUT = 12;
+    private static final int HTTP_READ_TIMEOUT    = 13;
+    private static final int HTTP_CONNECTIONS     = 14;
+    private static final int HTTP_PREFETCH_PAGES  = 15;
+    private static final int HTTP_CHAR_FILTER     = 16;
+    private static final int HTTP_REQUEST_INTERVAL = 17;
 
     // -------- PARSING --------
     private IntStack state = new IntStack();
@@ -93,6 +104,16 @@ public class SDARTSConfigBuilder {
     private String lspName;
     private String description;
     private UnsynchStack queryLanguages = new UnsynchStack();
+    private String searchThreads;
+    private String queryTimeout;
+    private String resultCacheSize;
+    private String resultCacheTTL;
+    private String httpConnectTimeout;
+    private String httpReadTimeout;
+    private String httpConnections;
+    private String httpPrefetchPages;
+    private String httpCharFilter;
+    private String httpRequestInterval;
     private String configPath;
 
 
@@ -141,6 +162,36 @@ public class SDARTSConfigBuilder {
       else if (name.equals ("query-language")) {
         state.push (QUERY_LANGUAGE);
       }
+      else if (name.equals ("search-threads")) {
+        state.push (SEARCH_THREADS);
+      }
+      else if (name.equals ("query-timeout")) {
+        state.push (QUERY_TIMEOUT);
+      }
+      else if (name.equals ("result-cache-size")) {
+        state.push (RESULT_CACHE_SIZE);
+      }
+      else if (name.equals ("result-cache-ttl")) {
+        state.push (RESULT_CACHE_TTL);
+      }
+      else if (name.equals ("http-connect-timeout")) {
+        state.push (HTTP_CONNECT_TIMEOUT);
+      }
+      else if (name.equals ("http-read-timeout")) {
+        state.push (HTTP_READ_TIMEOUT);
+      }
+      else if (name.equals ("http-connections")) {
+        state.push (HTTP_CONNECTIONS);
+      }
+      else if (name.equals ("http-request-interval")) {
+        state.push (HTTP_REQUEST_INTERVAL);
+      }
+      else if (name.equals ("http-prefetch-pages")) {
+        state.push (HTTP_PREFETCH_PAGES);
+      }
+      else if (name.equals ("http-char-filter")) {
+        state.push (HTTP_CHAR_FILTER);
+      }
       else {
         throw new SAXException ("unknown element");
       }
@@ -178,6 +229,46 @@ public class SDARTSConfigBuilder {
         case QUERY_LANGUAGE:
           queryLanguages.push (value);
         break;
+
+        case SEARCH_THREADS:
+          searchThreads = value;
+        break;
+
+        case QUERY_TIMEOUT:
+          queryTimeout = value;
+        break;
+
+        case RESULT_CACHE_SIZE:
+          resultCacheSize = value;
+        break;
+
+        case RESULT_CACHE_TTL:
+          resultCacheTTL = value;
+        break;
+
+        case HTTP_CONNECT_TIMEOUT:
+          httpConnectTimeout = value;
+        break;
+
+        case HTTP_READ_TIMEOUT:
+          httpReadTimeout = value;
+        break;
+
+        case HTTP_CONNECTIONS:
+          httpConnections = value;
+        break;
+
+        case HTTP_REQUEST_INTERVAL:
+          httpRequestInterval = value;
+        break;
+
+        case HTTP_PREFETCH_PAGES:
+          httpPrefetchPages = value;
+        break;
+
+        case HTTP_CHAR_FILTER:
+          httpCharFilter = value;
+        break;
       }
     }
 
@@ -188,24 +279,75 @@ public class SDARTSConfigBuilder {
           BackEndLSPDescriptor[] descriptors =
             (BackEndLSPDescriptor[]) backEndLSPDescriptors.toArray (new BackEndLSPDescriptor[0]);
           sdartsConfig = new SDARTSConfig (sdlipDtdURL, startsDtdURL,
-                                           descriptors);
+                                           descriptors,
+                                           parseInt (searchThreads,
+                                                     "search-threads"));
           backEndLSPDescriptors.clear();
           sdlipDtdURL = null;
           startsDtdURL = null;
+          searchThreads = null;
         break;
 
         case BACK_END_LSP:
           String[] queryLangs =
             (String[]) queryLanguages.toArray (new String[0]);
           queryLanguages.clear();
+          int charFilter = LegalCharsInputStream.ASCII;
+          if (httpCharFilter != null) {
+            charFilter = LegalCharsInputStream.getMode (httpCharFilter.trim());
+            if (charFilter == -1) {
+              throw new SAXException ("bad http-char-filter: " +
+                                      httpCharFilter);
+            }
+          }
           BackEndLSPDescriptor descriptor =
-            new BackEndLSPDescriptor (classname, lspName, description, queryLangs);
+            new BackEndLSPDescriptor (classname, lspName, description,
+                                      queryLangs);
+          descriptor.setQueryTimeout
+            (parseInt (queryTimeout, "query-timeout"));
+          descriptor.setResultCacheSize
+            (parseInt (resultCacheSize, "result-cache-size"));
+          descriptor.setResultCacheTTL
+            (parseInt (resultCacheTTL, "result-cache-ttl"));
+          descriptor.setHTTPConnectTimeout
+            (parseInt (httpConnectTimeout, "http-connect-timeout"));
+          descriptor.setHTTPReadTimeout
+            (parseInt (httpReadTimeout, "http-read-timeout"));
+          descriptor.setHTTPConnections
+            (parseInt (httpConnections, "http-connections"));
+          descriptor.setHTTPRequestInterval
+            (parseInt (httpRequestInterval, "http-request-interval"));
+          descriptor.setHTTPPrefetchPages
+            (parseInt (httpPrefetchPages, "http-prefetch-pages"));
+          descriptor.setHTTPCharFilter (charFilter);
           classname = null;
+          queryTimeout = null;
+          resultCacheSize = null;
+          resultCacheTTL = null;
+          httpConnectTimeout = null;
+          httpReadTimeout = null;
+          httpConnections = null;
+          httpRequestInterval = null;
+          httpPrefetchPages = null;
+          httpCharFilter = null;
           name = null;
           description = null;
           backEndLSPDescriptors.push (descriptor);
         break;
       }
     }
+
+    // the value of an optional numeric element, or 0 if it is absent
+    private int parseInt (String value, String element) throws SAXException {
+      if (value == null) {
+        return 0;
+      }
+      try {
+        return Integer.parseInt (value.trim());
+      }
+      catch (NumberFormatException e) {
+        throw new SAXException ("bad " + element + ": " + value);
+      }
+    }
   }
 }
@@ -0,0 +1,201 @@
+package edu.columbia.cs.sdarts.frontend;
+
+import java.io.CharArrayWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Iterator;
+import java.util.List;
+
+import sdlip.SDLIP;
+import edu.columbia.cs.sdarts.common.LSPDoc;
+import edu.columbia.cs.sdarts.common.LSPResults;
+import edu.columbia.cs.sdarts.util.XMLWriter;
+
+/**
+ * A <code>Reader</code> over the SDLIP <code>SearchResult</code> that the
+ * {@link edu.columbia.cs.sdarts.frontend.FrontEndLSP FrontEndLSP} returns
+ * for a search. Rather than building the whole response as one
+ * <code>String</code>, it writes the XML a piece at a time (the opening
+ * tags of each back end's results, then each document, then the closing
+ * tags) into a small buffer, and refills the buffer only when the reader
+ * has consumed it. However large the response, only about
+ * {@link #CHUNK_SIZE} characters of it are held here at once.
+ * <p>
+ * The XML is the same as the <code>FrontEndLSP.search()</code>
+ * documentation describes: one <code>&lt;doc&gt;</code> per back end that
+ * answered, followed by a <code>&lt;failedSubcols&gt;</code> element if
+ * any back end did not.
+ * @version 1.0
+ */
+public class SearchResultReader extends Reader {
+  /** The number of characters to buffer before handing them to the reader */
+  public static final int CHUNK_SIZE = 8192;
+
+  // -------- STAGES --------
+  private static final int HEADER  = 0;
+  private static final int SOURCE  = 1;
+  private static final int DOCS    = 2;
+  private static final int TRAILER = 3;
+  private static final int DONE    = 4;
+
+  private LSPResults[] results;
+  private List         failures;
+  private Chunk        chunk;
+  private XMLWriter    writer;
+  private int          position;
+  private int          stage = HEADER;
+  private int          resultIndex;
+  private int          docIndex;
+
+
+  /**
+   * Creates the reader.
+   * @param results the <code>LSPResults</code> of every back end that
+   * answered
+   * @param failures one <code>String[] {name, reason}</code> for every back
+   * end that did not
+   * @exception IOException if the XML heading cannot be written
+   */
+  public SearchResultReader (List results, List failures) throws IOException {
+    this.results  = (LSPResults[]) results.toArray (new LSPResults[0]);
+    this.failures = failures;
+    this.chunk    = new Chunk();
+    this.writer   = new XMLWriter (chunk, new String[] {"SearchResult"});
+    writer.flush();
+  }
+
+  public int read (char[] cbuf, int off, int len) throws IOException {
+    if (len == 0) {
+      return 0;
+    }
+    while (position == chunk.size()) {
+      chunk.reset();
+      position = 0;
+      if (!fill()) {
+        return -1;
+      }
+    }
+    int n = Math.min (len, chunk.size() - position);
+    chunk.copy (position, cbuf, off, n);
+    position += n;
+    return n;
+  }
+
+  public void close () {
+    results = null;
+    stage = DONE;
+    chunk.reset();
+    position = 0;
+  }
+
+  // -------- HELPER METHODS --------
+  /**
+   * Writes pieces of the response until the buffer holds at least
+   * <code>CHUNK_SIZE</code> characters or the response is finished.
+   * @return false if there was nothing left to write
+   */
+  private boolean fill () throws IOException {
+    boolean wrote = false;
+    while (chunk.size() < CHUNK_SIZE && writeNextPiece()) {
+      wrote = true;
+    }
+    writer.flush();
+    return wrote;
+  }
+
+  private boolean writeNextPiece () throws IOException {
+    switch (stage) {
+      case HEADER:
+        writer.printStartElement ("SearchResult", true);
+        writer.printNamespaceDeclaration (SDLIP.Namespace);
+        writer.printStartElementClose();
+        writer.indent();
+        stage = SOURCE;
+        return true;
+
+      case SOURCE:
+        if (resultIndex == results.length) {
+          stage = TRAILER;
+          return writeNextPiece();
+        }
+        writer.indent();
+        writer.printStartElement("doc");
+        writer.printEntireElement("DID", resultIndex + 1);
+        writer.printStartElement ("propList");
+        writer.indent();
+        results[resultIndex].printStart (writer);
+        docIndex = 0;
+        stage = DOCS;
+        return true;
+
+      case DOCS:
+        LSPDoc[] docs = results[resultIndex].getDocs();
+        if (docIndex < docs.length) {
+          docs[docIndex++].toXML (writer);
+          return true;
+        }
+        results[resultIndex].printEnd (writer);
+        writer.unindent();
+        writer.printEndElement ("propList");
+        writer.printEndElement("doc");
+        writer.unindent();
+        resultIndex++;
+        stage = SOURCE;
+        return true;
+
+      case TRAILER:
+        if (failures.size() > 0) {
+          writer.indent();
+          writer.printStartElement ("failedSubcols");
+          writer.indent();
+          for (Iterator it = failures.iterator() ; it.hasNext() ; ) {
+            String[] failure = (String[]) it.next();
+            writer.printStartElement ("failedSubcol");
+            writer.indent();
+            writer.printEntireElement ("subcolName", failure[0]);
+            writer.printEntireElement ("reason", escape (failure[1]));
+            writer.unindent();
+            writer.printEndElement ("failedSubcol");
+          }
+          writer.unindent();
+          writer.printEndElement ("failedSubcols");
+          writer.unindent();
+        }
+        writer.unindent();
+        writer.printEndElement ("SearchResult");
+        stage = DONE;
+        return true;
+
+      default:
+        return false;
+    }
+  }
+
+  private static String escape (String s) {
+    StringBuffer sb = new StringBuffer (s.length());
+    int len = s.length();
+    for (int i = 0 ; i < len ; i++) {
+      char c = s.charAt (i);
+      switch (c) {
+        case '<': sb.append ("&lt;");  break;
+        case '>': sb.append ("&gt;");  break;
+        case '&': sb.append ("&amp;"); break;
+        default:  sb.append (c);
+      }
+    }
+    return sb.toString();
+  }
+
+
+  // ------------ INNER CLASSES ------------
+  // ----- A CharArrayWriter whose contents can be read without copying
+  private static class Chunk extends CharArrayWriter {
+    Chunk () {
+      super (CHUNK_SIZE + CHUNK_SIZE / 2);
+    }
+
+    void copy (int from, char[] dest, int off, int len) {
+      System.arraycopy (buf, from, dest, off, len);
+    }
+  }
+}
@@ -0,0 +1,43 @@
+package edu.columbia.cs.sdarts.util;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Reads the bytes of a <code>ByteBuffer</code>, from its position to its
+ * limit, as an <code>InputStream</code>. Reading moves the position of the
+ * buffer, so a buffer that is read elsewhere as well should be passed as a
+ * <code>duplicate()</code>.
+ * @version 1.0
+ */
+public class ByteBufferInputStream extends InputStream {
+  private ByteBuffer buffer;
+
+  /**
+   * Creates a stream over a buffer
+   * @param buffer the buffer to read
+   */
+  public ByteBufferInputStream (ByteBuffer buffer) {
+    this.buffer = buffer;
+  }
+
+  public int read () {
+    return buffer.hasRemaining() ? (buffer.get() & 0xff) : -1;
+  }
+
+  public int read (byte[] b, int off, int len) {
+    if (len == 0) {
+      return 0;
+    }
+    if (!buffer.hasRemaining()) {
+      return -1;
+    }
+    len = Math.min (len, buffer.remaining());
+    buffer.get (b, off, len);
+    return len;
+  }
+
+  public int available () {
+    return buffer.remaining();
+  }
+}
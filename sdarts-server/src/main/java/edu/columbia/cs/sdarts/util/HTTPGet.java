@@ -114,12 +114,12 @@ public class HTTPGet extends HTTPRequest {
 	}
 
 	public BufferedReader getReader() throws IOException {
-		reader = new BufferedReader(new InputStreamReader(new LegalCharsInputStream(url.openStream())));
+		reader = new BufferedReader(new InputStreamReader(sendFiltered(null)));
 		return reader;
 	}
 
 	public InputStream getInputStream() throws IOException {
-		inputStream = new LegalCharsInputStream(url.openStream());
+		inputStream = sendFiltered(null);
 
 		return inputStream;
 	}
@@ -127,7 +127,7 @@ public class HTTPGet extends HTTPRequest {
 	public void close() throws IOException {
 		if (reader != null) {
 			reader.close();
-		} else {
+		} else if (inputStream != null) {
 			inputStream.close();
 		}
 	}
@@ -1,13 +1,10 @@
 package edu.columbia.cs.sdarts.util;
 
 import java.io.BufferedReader;
-import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
-import java.net.URL;
 import java.net.URLEncoder;
 import java.util.Vector;
 
@@ -23,7 +20,6 @@ import java.util.Vector;
 public class HTTPPost extends HTTPRequest {
     private BufferedReader     reader;
     private InputStream        inputStream;
-    private HttpURLConnection  connection;
     private String             paramString;
 
     /**
@@ -106,50 +102,32 @@ public class HTTPPost extends HTTPRequest {
 	    if (!isAlreadyEncoded) {
 	        paramString = URLEncoder.encode (paramString);
 	    }
+	    this.paramString = paramString;
       }
     }
 
-    private void init () throws IOException {
-      URL url = getURL();
-      connection = (HttpURLConnection) url.openConnection();
-      connection.setDoOutput (true);
-      connection.setRequestMethod ("POST");
-      connection.setUseCaches (false);
-      connection.setRequestProperty
-        ("Content-Type",
-         "application/x-www-form-urlencoded");
-
-      DataOutputStream printout = new DataOutputStream
-        (connection.getOutputStream ());
-      printout.writeBytes (paramString);
-      printout.flush();
-      printout.close();
-    }
-
     public BufferedReader getReader() throws IOException {
-      init();
-
       reader = new BufferedReader
-        (new InputStreamReader (new LegalCharsInputStream(connection.getInputStream())));
+        (new InputStreamReader (sendFiltered(postData())));
       return reader;
     }
 
     public InputStream getInputStream() throws IOException {
-      init();
-
-	    inputStream = new LegalCharsInputStream(connection.getInputStream());
+	    inputStream = sendFiltered(postData());
       return inputStream;
     }
 
+    private String postData () {
+      return (paramString == null) ? "" : paramString;
+    }
+
     public void close () throws IOException {
       if (reader != null) {
 	    reader.close();
       }
-      else {
+      else if (inputStream != null) {
         inputStream.close();
       }
-
-	    connection.disconnect();
     }
 
     /* convert a map contains name / value pair into string
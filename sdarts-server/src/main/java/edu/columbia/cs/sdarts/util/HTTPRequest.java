@@ -13,12 +13,19 @@ import java.net.URL;
  * POST. This class is used particularly in the
  * {@link edu.columbia.cs.sdarts.backend.www} package to represent a call to a
  * CGI-bin script on a web search engine.
+ * <p>
+ * The request is sent through an
+ * {@link edu.columbia.cs.sdarts.util.HTTPTransport HTTPTransport}, which
+ * sets its timeouts, keeps its connection alive for later requests, and
+ * limits how many requests talk to the same host at once. Unless another
+ * is set, the default transport is used.
  * @author <a href="mailto:ngreen@cs.columbia.edu">Noah Green</a>
  * @version 1.0
  */
 public abstract class HTTPRequest {
   protected URL url;
   protected String cookie;
+  private HTTPTransport transport = HTTPTransport.getDefault();
 
   /**
    * Create the request, based on <code>String</code> representing
@@ -39,6 +46,47 @@ public abstract class HTTPRequest {
     return url;
   }
 
+  /**
+   * Set the transport through which the request is sent. Must be called
+   * before the response is asked for.
+   * @param transport the transport
+   */
+  public void setTransport (HTTPTransport transport) {
+    this.transport = transport;
+  }
+
+  /**
+   * Return the transport through which the request is sent
+   * @return the transport
+   */
+  public HTTPTransport getTransport () {
+    return transport;
+  }
+
+  /**
+   * Send the request through its transport, following redirects
+   * @param postData the URL-encoded body of a POST, or <code>null</code>
+   * for a GET
+   * @return the body of the response, which must be closed
+   * @exception IOException if the request fails or times out
+   */
+  protected InputStream send (String postData) throws IOException {
+    return transport.open (url, postData, cookie, true);
+  }
+
+  /**
+   * Send the request through its transport, following redirects, and
+   * filter the response as the transport says
+   * @param postData the URL-encoded body of a POST, or <code>null</code>
+   * for a GET
+   * @return the filtered body of the response, which must be closed
+   * @exception IOException if the request fails or times out
+   */
+  protected InputStream sendFiltered (String postData) throws IOException {
+    return new LegalCharsInputStream (send (postData),
+                                      transport.getCharFilter());
+  }
+
   /**
    * Return a <code>BufferedReader</code> representing the output of the
    * response to the request. <b>Can only be called once, and cannot
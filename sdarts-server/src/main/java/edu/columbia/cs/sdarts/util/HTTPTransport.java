@@ -0,0 +1,394 @@
+package edu.columbia.cs.sdarts.util;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Opens the connections behind every
+ * {@link edu.columbia.cs.sdarts.util.HTTPRequest HTTPRequest}. Each web
+ * back-end has a transport of its own, set up with
+ * {@link #configure(String,int,int,int,int,int,int) configure()} from the
+ * <code>http-connect-timeout</code>, <code>http-read-timeout</code>,
+ * <code>http-connections</code>, <code>http-request-interval</code>,
+ * <code>http-prefetch-pages</code> and <code>http-char-filter</code>
+ * elements of its entry in
+ * <code>sdarts_config.xml</code>; a back-end without them shares the
+ * {@link #getDefault() default} transport.
+ * <p>
+ * A transport:
+ * <ul>
+ * <li>gives up on a server that does not accept the connection, or stops
+ * sending, within its timeouts, rather than hanging;
+ * <li>lets no more than a fixed number of requests talk to the same host
+ * and port at once; the others wait for a connection to be closed, for at
+ * most {@link #CONNECTION_WAIT} read timeouts;
+ * <li>if it is given an interval, starts no two requests to the same host
+ * and port closer together than that, so that a site is not flooded;
+ * <li>asks for gzip-compressed responses, and uncompresses them;
+ * <li>keeps connections alive. The keep-alive cache of
+ * <code>HttpURLConnection</code> takes back a connection whose response
+ * was read to the end and closed, so closing a response reads whatever is
+ * left of it, and the connection is never <code>disconnect()</code>ed.
+ * The cache holds at most {@link #KEEP_ALIVE_CONNECTIONS} idle
+ * connections to each host, unless the <code>http.maxConnections</code>
+ * system property says otherwise.
+ * </ul>
+ * Responses must be closed, or the connections they hold are neither
+ * reused nor given back to their host.
+ *
+ * @version 1.0
+ */
+public final class HTTPTransport {
+  /** How long, in milliseconds, to wait to connect, by default */
+  public static final int DEFAULT_CONNECT_TIMEOUT = 10000;
+  /** How long, in milliseconds, to wait for data, by default */
+  public static final int DEFAULT_READ_TIMEOUT = 30000;
+  /** How many requests may talk to one host at once, by default */
+  public static final int DEFAULT_CONNECTIONS_PER_HOST = 4;
+  /** How long, in milliseconds, between two requests to one host, by default */
+  public static final int DEFAULT_REQUEST_INTERVAL = 0;
+  /** How many result pages are fetched ahead, by default */
+  public static final int DEFAULT_PREFETCH_PAGES = 2;
+  /** How many idle connections to each host are kept alive */
+  public static final int KEEP_ALIVE_CONNECTIONS = 8;
+  /** How many read timeouts a request waits for a connection to its host */
+  public static final int CONNECTION_WAIT = 10;
+
+  // the most left of a response that is read to save its connection
+  private static final int DRAIN_LIMIT = 64 * 1024;
+
+  static {
+    // read once, when HttpURLConnection first keeps a connection alive
+    if (System.getProperty ("http.maxConnections") == null) {
+      System.setProperty ("http.maxConnections", "" + KEEP_ALIVE_CONNECTIONS);
+    }
+  }
+
+  private static final HTTPTransport defaultTransport =
+    new HTTPTransport (DEFAULT_CONNECT_TIMEOUT, DEFAULT_READ_TIMEOUT,
+                       DEFAULT_CONNECTIONS_PER_HOST, DEFAULT_REQUEST_INTERVAL,
+                       DEFAULT_PREFETCH_PAGES, LegalCharsInputStream.ASCII);
+  private static final Map transports = new HashMap();  // name -> transport
+
+  private int connectTimeout;
+  private int readTimeout;
+  private int connectionsPerHost;
+  private int requestInterval;
+  private int prefetchPages;
+  private int charFilter;
+  private Map hosts = new HashMap();  // "host:port" -> Host
+
+
+  /**
+   * Sets up the transport of a back-end. Settings of 0 or less are given
+   * their default values, except that a negative number of pages to fetch
+   * ahead turns fetching ahead off.
+   * @param backEndLSPName the name of the back-end
+   * @param connectTimeout how many milliseconds to wait to connect
+   * @param readTimeout how many milliseconds to wait for data
+   * @param connectionsPerHost how many requests may talk to one host at once
+   * @param requestInterval how many milliseconds to leave between the
+   * starts of two requests to one host
+   * @param prefetchPages how many result pages a query fetches ahead
+   * @param charFilter which characters of a response to keep, one of the
+   * {@link edu.columbia.cs.sdarts.util.LegalCharsInputStream LegalCharsInputStream}
+   * modes
+   */
+  public static void configure (String backEndLSPName, int connectTimeout,
+                                int readTimeout, int connectionsPerHost,
+                                int requestInterval, int prefetchPages,
+                                int charFilter) {
+    HTTPTransport transport =
+      new HTTPTransport (connectTimeout, readTimeout, connectionsPerHost,
+                         requestInterval, prefetchPages, charFilter);
+    synchronized (transports) {
+      transports.put (backEndLSPName, transport);
+    }
+  }
+
+  /**
+   * Returns the transport of a back-end
+   * @param backEndLSPName the name of the back-end
+   * @return its transport, or the default one if it was not set up
+   */
+  public static HTTPTransport getTransport (String backEndLSPName) {
+    HTTPTransport transport;
+    synchronized (transports) {
+      transport = (HTTPTransport) transports.get (backEndLSPName);
+    }
+    return (transport == null) ? defaultTransport : transport;
+  }
+
+  /**
+   * Returns the transport used when no back-end is known
+   * @return the default transport
+   */
+  public static HTTPTransport getDefault () {
+    return defaultTransport;
+  }
+
+  private HTTPTransport (int connectTimeout, int readTimeout,
+                         int connectionsPerHost, int requestInterval,
+                         int prefetchPages, int charFilter) {
+    this.connectTimeout = (connectTimeout > 0) ?
+      connectTimeout : DEFAULT_CONNECT_TIMEOUT;
+    this.readTimeout = (readTimeout > 0) ?
+      readTimeout : DEFAULT_READ_TIMEOUT;
+    this.connectionsPerHost = (connectionsPerHost > 0) ?
+      connectionsPerHost : DEFAULT_CONNECTIONS_PER_HOST;
+    this.requestInterval = (requestInterval > 0) ?
+      requestInterval : DEFAULT_REQUEST_INTERVAL;
+    if (prefetchPages == 0) {
+      prefetchPages = DEFAULT_PREFETCH_PAGES;
+    }
+    this.prefetchPages = Math.max (prefetchPages, 0);
+    this.charFilter = charFilter;
+  }
+
+  /**
+   * Returns how many milliseconds this transport waits to connect
+   * @return the connect timeout
+   */
+  public int getConnectTimeout () {
+    return connectTimeout;
+  }
+
+  /**
+   * Returns how many milliseconds this transport waits for data
+   * @return the read timeout
+   */
+  public int getReadTimeout () {
+    return readTimeout;
+  }
+
+  /**
+   * Returns how many requests may talk to one host at once
+   * @return the number of connections per host
+   */
+  public int getConnectionsPerHost () {
+    return connectionsPerHost;
+  }
+
+  /**
+   * Returns how many milliseconds are left between the starts of two
+   * requests to one host; 0 if requests are not spaced out
+   * @return the request interval
+   */
+  public int getRequestInterval () {
+    return requestInterval;
+  }
+
+  /**
+   * Returns how many result pages of a query are fetched ahead, while
+   * the pages before them are still being read; 0 if none are
+   * @return the number of pages fetched ahead
+   */
+  public int getPrefetchPages () {
+    return prefetchPages;
+  }
+
+  /**
+   * Returns which characters of a response a request keeps
+   * @return one of the
+   * {@link edu.columbia.cs.sdarts.util.LegalCharsInputStream LegalCharsInputStream}
+   * modes
+   */
+  public int getCharFilter () {
+    return charFilter;
+  }
+
+  /**
+   * Sends a request and returns the body of the response, uncompressed.
+   * The call waits for a connection to the host to be free, and then for
+   * the host's turn, if requests to it are spaced out. A response that is
+   * never closed holds its connection, so the wait for one gives up after
+   * {@link #CONNECTION_WAIT} read timeouts.
+   * @param url the URL to request
+   * @param postData the URL-encoded body of a POST, or <code>null</code>
+   * for a GET
+   * @param cookie a cookie to send, or <code>null</code>
+   * @param followRedirects whether to follow redirects
+   * @return the body of the response; it must be closed
+   * @exception IOException if the request fails or times out, or the
+   * server answers with an error
+   */
+  public InputStream open (URL url, String postData, String cookie,
+                           boolean followRedirects) throws IOException {
+    Host host = getHost (url);
+    Semaphore permits = host.permits;
+    try {
+      if (!permits.tryAcquire ((long) CONNECTION_WAIT * readTimeout,
+                               TimeUnit.MILLISECONDS)) {
+        throw new SocketTimeoutException
+          ("no connection to " + url.getHost() + " was free");
+      }
+    }
+    catch (InterruptedException e) {
+      throw new IOException ("interrupted waiting for " + url.getHost());
+    }
+    if (requestInterval > 0) {
+      try {
+        Thread.sleep (host.nextTurn (requestInterval));
+      }
+      catch (InterruptedException e) {
+        permits.release();
+        throw new IOException ("interrupted waiting for " + url.getHost());
+      }
+    }
+
+    URLConnection urlConnection = null;
+    try {
+      urlConnection = url.openConnection();
+      urlConnection.setConnectTimeout (connectTimeout);
+      urlConnection.setReadTimeout (readTimeout);
+      urlConnection.setUseCaches (false);
+      urlConnection.setRequestProperty ("Accept-Encoding", "gzip");
+      if (cookie != null) {
+        urlConnection.setRequestProperty ("Cookie", cookie);
+      }
+      if (urlConnection instanceof HttpURLConnection) {
+        ((HttpURLConnection) urlConnection).setInstanceFollowRedirects
+          (followRedirects);
+      }
+      if (postData != null) {
+        urlConnection.setDoOutput (true);
+        ((HttpURLConnection) urlConnection).setRequestMethod ("POST");
+        urlConnection.setRequestProperty
+          ("Content-Type", "application/x-www-form-urlencoded");
+        OutputStream out = urlConnection.getOutputStream();
+        try {
+          out.write (postData.getBytes ("ISO-8859-1"));
+        }
+        finally {
+          out.close();
+        }
+      }
+
+      InputStream raw = urlConnection.getInputStream();
+      InputStream body = raw;
+      String encoding = urlConnection.getContentEncoding();
+      if (encoding != null && (encoding.equalsIgnoreCase ("gzip") ||
+                               encoding.equalsIgnoreCase ("x-gzip"))) {
+        try {
+          body = new GZIPInputStream (raw);
+        }
+        catch (IOException e) {
+          raw.close();
+          throw e;
+        }
+      }
+      return new Response (body, raw, permits);
+    }
+    catch (IOException e) {
+      if (urlConnection instanceof HttpURLConnection) {
+        // an error page can be read like any other, to save the connection
+        InputStream error =
+          ((HttpURLConnection) urlConnection).getErrorStream();
+        if (error != null) {
+          drain (error);
+        }
+      }
+      permits.release();
+      throw e;
+    }
+    catch (RuntimeException e) {
+      permits.release();
+      throw e;
+    }
+  }
+
+
+  // -------- HELPER METHODS --------
+  private Host getHost (URL url) {
+    String key = url.getHost() + ":" + url.getPort();
+    synchronized (hosts) {
+      Host host = (Host) hosts.get (key);
+      if (host == null) {
+        host = new Host (connectionsPerHost);
+        hosts.put (key, host);
+      }
+      return host;
+    }
+  }
+
+  /** Reads what is left of a response, if it is short, then closes it */
+  private static void drain (InputStream in) {
+    try {
+      byte[] buffer = new byte[4096];
+      int total = 0;
+      int n;
+      while (total < DRAIN_LIMIT && (n = in.read (buffer)) != -1) {
+        total += n;
+      }
+    }
+    catch (IOException e) {
+    }
+    finally {
+      try {
+        in.close();
+      }
+      catch (IOException e) {
+      }
+    }
+  }
+
+
+  // ------------ INNER CLASSES ------------
+  // ----- The connections to one host and port, and when it may next be asked
+  private static class Host {
+    final Semaphore permits;
+    private long    next;
+
+    Host (int connections) {
+      permits = new Semaphore (connections, true);
+    }
+
+    /** Takes the next free turn, returns how long to wait for it */
+    synchronized long nextTurn (int interval) {
+      long now = System.currentTimeMillis();
+      long start = Math.max (now, next);
+      next = start + interval;
+      return start - now;
+    }
+  }
+
+  // ----- The body of a response, which frees its connection when closed
+  private static class Response extends FilterInputStream {
+    private InputStream raw;
+    private Semaphore   permits;
+    private boolean     closed;
+
+    Response (InputStream body, InputStream raw, Semaphore permits) {
+      super (body);
+      this.raw     = raw;
+      this.permits = permits;
+    }
+
+    public void close () throws IOException {
+      synchronized (this) {
+        if (closed) {
+          return;
+        }
+        closed = true;
+      }
+      try {
+        drain (raw);
+        in.close();
+      }
+      finally {
+        permits.release();
+      }
+    }
+  }
+}
@@ -0,0 +1,110 @@
+package edu.columbia.cs.sdarts.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A thread-safe cache that holds at most a fixed number of entries,
+ * evicting the least recently used entry when it is full. It counts
+ * hits and misses so that a long-running server can report how well
+ * the cache is doing.
+ * <p>
+ * All methods are synchronized on the cache, so it can be shared freely
+ * among threads.
+ * @version 1.0
+ */
+public class LRUCache {
+  private LinkedHashMap map;
+  private int  maxSize;
+  private long hits;
+  private long misses;
+
+  /**
+   * Create an empty cache
+   * @param maxSize the most entries the cache will hold
+   */
+  public LRUCache (final int maxSize) {
+    this.maxSize = maxSize;
+    this.map = new LinkedHashMap (16, 0.75f, true) {
+      protected boolean removeEldestEntry (Map.Entry eldest) {
+        return size() > maxSize;
+      }
+    };
+  }
+
+  /**
+   * Returns the value cached under <code>key</code>, counting a hit or
+   * a miss.
+   * @param key the key
+   * @return the cached value, or <code>null</code> if there is none
+   */
+  public synchronized Object get (Object key) {
+    Object value = map.get (key);
+    if (value == null) {
+      misses++;
+    }
+    else {
+      hits++;
+    }
+    return value;
+  }
+
+  /**
+   * Caches <code>value</code> under <code>key</code>, evicting the least
+   * recently used entry if the cache is full.
+   * @param key the key
+   * @param value the value
+   */
+  public synchronized void put (Object key, Object value) {
+    map.put (key, value);
+  }
+
+  /**
+   * Removes the entry cached under <code>key</code>, if any
+   * @param key the key
+   * @return the value that was removed, or <code>null</code>
+   */
+  public synchronized Object remove (Object key) {
+    return map.remove (key);
+  }
+
+  /**
+   * Removes every entry. The hit and miss counts are kept.
+   */
+  public synchronized void clear () {
+    map.clear();
+  }
+
+  /**
+   * @return the number of entries in the cache
+   */
+  public synchronized int size () {
+    return map.size();
+  }
+
+  /**
+   * @return the most entries the cache will hold
+   */
+  public int getMaxSize () {
+    return maxSize;
+  }
+
+  /**
+   * @return how many lookups found a value
+   */
+  public synchronized long getHits () {
+    return hits;
+  }
+
+  /**
+   * @return how many lookups found nothing
+   */
+  public synchronized long getMisses () {
+    return misses;
+  }
+
+  public synchronized String toString () {
+    return "size=" + map.size() + "/" + maxSize +
+      " hits=" + hits + " misses=" + misses;
+  }
+}
@@ -9,52 +9,259 @@ import java.io.InputStreamReader;
 
 /**
  * LegalCharsInputStream.java
- * Filters out all characters not found on a regular keyboard
+ * Filters out all characters not found on a regular keyboard, or, in
+ * another mode, keeps some non-ASCII text as well:
+ * <ul>
+ * <li>{@link #ASCII} keeps only the characters on a regular keyboard,
+ * tab, and line breaks. This is the default.
+ * <li>{@link #LATIN_1} also keeps the printable ISO-8859-1 characters
+ * above 0xA0, for sites that send Latin-1.
+ * <li>{@link #UTF_8} also keeps every well-formed UTF-8 sequence of two
+ * to four bytes, for sites that send UTF-8. Stray and malformed bytes
+ * are dropped, so the result is still well-formed.
+ * <li>{@link #NONE} keeps everything.
+ * </ul>
+ * The stream reads as many bytes as it is asked for from the stream it
+ * filters in one call, tests each against a table, and moves the ones it
+ * keeps down in the same array. A web back-end picks its mode with the
+ * <code>http-char-filter</code> element of <code>sdarts_config.xml</code>.
  * @author <a href="mailto:ss1792@cs.columbia.edu">Sergey Sigelman</a>
  */
+public class LegalCharsInputStream extends FilterInputStream {
+  /** Keep the characters on a regular keyboard */
+  public static final int ASCII   = 0;
+  /** Keep the characters on a regular keyboard, and printable Latin-1 */
+  public static final int LATIN_1 = 1;
+  /** Keep the characters on a regular keyboard, and well-formed UTF-8 */
+  public static final int UTF_8   = 2;
+  /** Keep everything */
+  public static final int NONE    = 3;
 
+  private static final String[] MODE_NAMES =
+    {"ascii", "latin-1", "utf-8", "none"};
 
-public class LegalCharsInputStream extends FilterInputStream
-{
- private static final String legalChars = 
-" abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789`~!@#$%^&*()-_=+\\|,<.>/?;:'\"[{]}\n\r\t";
-
- public static void main(String args[]) throws Exception
- {
-  BufferedReader br = new BufferedReader(new InputStreamReader(new LegalCharsInputStream(new FileInputStream(args[0]))));
-  String line;
-  while((line=br.readLine())!=null)
-   System.out.println(line);
- }
-
- public LegalCharsInputStream(InputStream isr){super(isr);}
-
- public int read() throws IOException
- {
-  int c;
-  do
-  {
-   c = super.read();
-   if(legalChars.indexOf(c)!=-1)
-    return c;
-  } while(c!=-1);
-  return -1;
- }
-
- public int read(byte[] b, int off, int len) throws IOException
- {
-  int c,i=0;
-  while(i<len)
-  {
-   c = super.read();
-   if(legalChars.indexOf(c)!=-1)
-   {
-    b[off+i]=(byte)c;
-    i++;
-   }
-   else if(c==-1){return (i==0)? -1 : i;} 
-  }
-  return i;
- }
-}
+  private static final String legalChars =
+    " abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789`~!@#$%^&*()-_=+\\|,<.>/?;:'\"[{]}\n\r\t";
+
+  // for each byte value: whether it is kept
+  private static final boolean[] asciiTable  = new boolean[256];
+  private static final boolean[] latin1Table = new boolean[256];
+  static {
+    for (int i = 0 ; i < legalChars.length() ; i++) {
+      asciiTable[legalChars.charAt (i)]  = true;
+      latin1Table[legalChars.charAt (i)] = true;
+    }
+    for (int i = 0xA0 ; i < 256 ; i++) {
+      latin1Table[i] = true;
+    }
+  }
+
+  private int       mode;
+  private boolean[] table;
+  private byte[]    carry = new byte[3];  // UTF-8: an unfinished sequence
+  private int       carryLength;
+  private byte[]    small = new byte[4];  // UTF-8: a read too small for it
+  private int       smallStart;
+  private int       smallEnd;
+  private byte[]    single = new byte[1];
+
+  public static void main (String args[]) throws Exception {
+    BufferedReader br = new BufferedReader (new InputStreamReader
+      (new LegalCharsInputStream (new FileInputStream (args[0]))));
+    String line;
+    while ((line = br.readLine()) != null) {
+      System.out.println (line);
+    }
+  }
+
+  /**
+   * Filters a stream, keeping only the characters on a regular keyboard
+   * @param isr the stream to filter
+   */
+  public LegalCharsInputStream (InputStream isr) {
+    this (isr, ASCII);
+  }
+
+  /**
+   * Filters a stream
+   * @param isr the stream to filter
+   * @param mode which characters to keep: {@link #ASCII},
+   * {@link #LATIN_1}, {@link #UTF_8}, or {@link #NONE}
+   */
+  public LegalCharsInputStream (InputStream isr, int mode) {
+    super (isr);
+    if (mode < ASCII || mode > NONE) {
+      throw new IllegalArgumentException ("bad mode: " + mode);
+    }
+    this.mode = mode;
+    table = (mode == LATIN_1) ? latin1Table : asciiTable;
+  }
+
+  /**
+   * Returns the mode with a name, as written in
+   * <code>sdarts_config.xml</code>
+   * @param name <code>ascii</code>, <code>latin-1</code>,
+   * <code>utf-8</code>, or <code>none</code>
+   * @return the mode, or -1 if there is none by that name
+   */
+  public static int getMode (String name) {
+    for (int i = 0 ; i < MODE_NAMES.length ; i++) {
+      if (MODE_NAMES[i].equalsIgnoreCase (name)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Returns the name of a mode, as written in <code>sdarts_config.xml</code>
+   * @param mode the mode
+   * @return its name
+   */
+  public static String getModeName (int mode) {
+    return MODE_NAMES[mode];
+  }
 
+  public int read () throws IOException {
+    int n;
+    do {
+      n = read (single, 0, 1);
+    } while (n == 0);
+    return (n == -1) ? -1 : (single[0] & 0xff);
+  }
+
+  public int read (byte[] b, int off, int len) throws IOException {
+    if (len == 0) {
+      return 0;
+    }
+    if (mode == NONE) {
+      return in.read (b, off, len);
+    }
+    if (mode != UTF_8) {
+      int n;
+      do {
+        n = in.read (b, off, len);
+        if (n == -1) {
+          return -1;
+        }
+        n = filter (b, off, n);
+      } while (n == 0);
+      return n;
+    }
+
+    // a UTF-8 sequence of up to four bytes must fit in the array
+    if (smallStart == smallEnd && len < small.length) {
+      int n = readUTF8 (small, 0, small.length);
+      if (n == -1) {
+        return -1;
+      }
+      smallStart = 0;
+      smallEnd   = n;
+    }
+    if (smallStart < smallEnd) {
+      int n = Math.min (len, smallEnd - smallStart);
+      System.arraycopy (small, smallStart, b, off, n);
+      smallStart += n;
+      return n;
+    }
+    return readUTF8 (b, off, len);
+  }
+
+  public boolean markSupported () {
+    return false;
+  }
+
+
+  // -------- HELPER METHODS --------
+  /** Reads into an array of at least four bytes, keeping UTF-8 */
+  private int readUTF8 (byte[] b, int off, int len) throws IOException {
+    int n;
+    do {
+      System.arraycopy (carry, 0, b, off, carryLength);
+      int k = carryLength;
+      carryLength = 0;
+      n = in.read (b, off + k, len - k);
+      if (n == -1) {
+        return -1;  // an unfinished sequence at the end is dropped
+      }
+      n = filterUTF8 (b, off, k + n);
+    } while (n == 0);
+    return n;
+  }
+
+  /** Keeps the bytes in the table, returns how many there are */
+  private int filter (byte[] b, int off, int n) {
+    boolean[] table = this.table;
+    int w = off;
+    for (int r = off, end = off + n ; r < end ; r++) {
+      byte c = b[r];
+      if (table[c & 0xff]) {
+        b[w++] = c;
+      }
+    }
+    return w - off;
+  }
+
+  /**
+   * Keeps the ASCII bytes in the table and the well-formed multi-byte
+   * sequences, returns how many bytes there are. A sequence still
+   * unfinished at the end is carried over to the next read.
+   */
+  private int filterUTF8 (byte[] b, int off, int n) {
+    boolean[] table = asciiTable;
+    int w = off;
+    int end = off + n;
+    int start = -1;  // of the sequence being read
+    int need = 0;    // continuation bytes it still needs
+    int r = off;
+    while (r < end) {
+      int c = b[r] & 0xff;
+      if (need > 0) {
+        int lo = 0x80;
+        int hi = 0xBF;
+        if (r == start + 1) {
+          // no overlong forms, surrogates, or code points past U+10FFFF
+          int lead = b[start] & 0xff;
+          if (lead == 0xE0) {
+            lo = 0xA0;
+          }
+          else if (lead == 0xED) {
+            hi = 0x9F;
+          }
+          else if (lead == 0xF0) {
+            lo = 0x90;
+          }
+          else if (lead == 0xF4) {
+            hi = 0x8F;
+          }
+        }
+        if (c < lo || c > hi) {
+          need = 0;  // drop the sequence, and look at this byte again
+          continue;
+        }
+        r++;
+        if (--need == 0) {
+          while (start < r) {
+            b[w++] = b[start++];
+          }
+        }
+        continue;
+      }
+      if (c < 0x80) {
+        if (table[c]) {
+          b[w++] = (byte) c;
+        }
+      }
+      else if (c >= 0xC2 && c <= 0xF4) {
+        start = r;
+        need = (c < 0xE0) ? 1 : (c < 0xF0) ? 2 : 3;
+      }
+      r++;
+    }
+    if (need > 0) {
+      carryLength = end - start;
+      System.arraycopy (b, start, carry, 0, carryLength);
+    }
+    return w - off;
+  }
+}
@@ -0,0 +1,124 @@
+package edu.columbia.cs.sdarts.util;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.xml.transform.Templates;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.stream.StreamSource;
+
+/**
+ * Keeps every XSL stylesheet SDARTS uses - the <code>www_request.xsl</code>
+ * and <code>www_results.xsl</code> of each web back-end, and the
+ * <code>doc_style.xsl</code> of each XML collection - compiled into
+ * <code>Templates</code>, so that a stylesheet is parsed and compiled once
+ * rather than for every query or every document.
+ * <p>
+ * <code>Templates</code> are thread-safe, but <code>Transformers</code> are
+ * not, so {@link #getTransformer(File) getTransformer()} hands each thread
+ * a <code>Transformer</code> of its own, and the same one every time.
+ * <p>
+ * A stylesheet is compiled again if its file has changed since it was
+ * compiled. The file is looked at no more often than every
+ * {@link #CHECK_INTERVAL} milliseconds.
+ *
+ * @version 1.0
+ */
+public final class StylesheetRegistry {
+  /** How long, in milliseconds, before a stylesheet file is checked again */
+  public static final long CHECK_INTERVAL = 1000;
+
+  private static final Map entries = new HashMap();  // path -> Entry
+
+  // for each thread: path -> Object[] {Templates, Transformer}
+  private static final ThreadLocal transformers = new ThreadLocal() {
+    protected Object initialValue () {
+      return new HashMap();
+    }
+  };
+
+
+  /**
+   * Return the compiled form of a stylesheet, compiling it if it has not
+   * been compiled yet or has changed since
+   * @param file the stylesheet file
+   * @return the compiled stylesheet
+   * @exception TransformerConfigurationException if the stylesheet
+   * cannot be compiled
+   */
+  public static Templates getTemplates (File file)
+    throws TransformerConfigurationException {
+    Entry entry;
+    String path = file.getAbsolutePath();
+    synchronized (entries) {
+      entry = (Entry) entries.get (path);
+      if (entry == null) {
+        entry = new Entry (new File (path));
+        entries.put (path, entry);
+      }
+    }
+    return entry.getTemplates();
+  }
+
+  /**
+   * Return the calling thread's <code>Transformer</code> for a stylesheet,
+   * reset to its initial state. It must not be used by other threads.
+   * @param file the stylesheet file
+   * @return a <code>Transformer</code> for the stylesheet
+   * @exception TransformerConfigurationException if the stylesheet
+   * cannot be compiled
+   */
+  public static Transformer getTransformer (File file)
+    throws TransformerConfigurationException {
+    Templates templates = getTemplates (file);
+    Map mine = (Map) transformers.get();
+    String path = file.getAbsolutePath();
+    Object[] cached = (Object[]) mine.get (path);
+    if (cached == null || cached[0] != templates) {
+      cached = new Object[] {templates, templates.newTransformer()};
+      mine.put (path, cached);
+    }
+    Transformer transformer = (Transformer) cached[1];
+    transformer.reset();
+    return transformer;
+  }
+
+  private StylesheetRegistry () {}
+
+
+  // ------------ INNER CLASSES ------------
+  // ----- One stylesheet, and when its file was last looked at
+  private static class Entry {
+    private File      file;
+    private Templates templates;
+    private long      lastModified;
+    private long      length;
+    private long      lastChecked;
+
+    Entry (File file) {
+      this.file = file;
+    }
+
+    synchronized Templates getTemplates ()
+      throws TransformerConfigurationException {
+      long now = System.currentTimeMillis();
+      if (templates != null && now - lastChecked < CHECK_INTERVAL) {
+        return templates;
+      }
+      lastChecked = now;
+      long modified = file.lastModified();
+      long size = file.length();
+      if (templates == null || modified != lastModified || size != length) {
+        // TransformerFactories are not thread-safe; use a new one
+        templates = TransformerFactory.newInstance().newTemplates
+          (new StreamSource (file));
+        lastModified = modified;
+        length       = size;
+      }
+      return templates;
+    }
+  }
+}
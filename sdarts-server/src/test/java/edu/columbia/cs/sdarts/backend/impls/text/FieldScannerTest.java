@@ -0,0 +1,236 @@
+package edu.columbia.cs.sdarts.backend.impls.text;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Vector;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import edu.columbia.cs.sdarts.backend.doc.DocFieldDescriptor;
+import gnu.regexp.RE;
+import gnu.regexp.REException;
+import gnu.regexp.REMatch;
+import gnu.regexp.RESyntax;
+import junit.framework.TestCase;
+
+/**
+ * Checks that {@link FieldScanner}, which runs the field expressions with
+ * <code>java.util.regex</code>, finds the same fields as
+ * <code>gnu.regexp</code>, which <code>TextDocumentEnum</code> used
+ * before. The expressions are those of the <code>doc_config.xml</code>
+ * files shipped with the server, and a few more that use the rest of the
+ * <code>sed</code> syntax.
+ *
+ * @version 1.0
+ */
+public class FieldScannerTest extends TestCase {
+  /** Where the shipped configurations are, relative to this module */
+  private static final String CONFIG_DIRECTORY =
+    "../sdarts-assembly/src/main/resources/config";
+
+  /** Start and end expressions beyond those of the shipped configurations */
+  private static final String[][] EXPRESSIONS = {
+    { "^Date: ",                         "$" },
+    { "^Keywords:[ \t]*",                "^$" },
+    { "^\\(Organization\\|Org\\): ",     "$" },
+    { "^Lines: [0-9]\\{1,3\\}",          "$" },
+    { "^[[:upper:]][[:lower:]]*-Id: ",   ">$" },
+    { "^Summary: *",                     "\\." },
+    { "^Cc:",                            "^[^ \t]" },
+    { "^Path: .*!",                      "$" },
+    { "^\\(Re\\)\\?: ",                  "$" },
+    { "^Org: ",                          "[[:digit:]]*$" },
+  };
+
+  private static final String[] DOCUMENTS = {
+    "From: someone@somewhere.edu (Some One)\n" +
+    "Subject: Re: the thing\n" +
+    "Organization: Some University\n" +
+    "Lines: 12\n" +
+    "\n" +
+    "Some text, with From: and Subject: in the middle of a line.\n",
+
+    "Path: news!relay!somewhere\n" +
+    "From: a@b.c\r\n" +
+    "Subject:no space\r\n" +
+    "Date: Mon, 5 Apr 93 12:00:00 GMT\r\n" +
+    "Message-Id: <1@b.c>\n" +
+    "Keywords: one two\n" +
+    "  three\n" +
+    "\n" +
+    "Summary: short. Long.\n",
+
+    "No headers at all\njust text\n",
+
+    "\n\nFrom: \nSubject:\nCc: x@y.z\n  w@y.z\nBody\n",
+
+    "Org: Elsewhere\nRe: reply\nLast line, with no end",
+
+    "Subject: first\nSubject: second\nFrom: late@b.c",
+
+    "",
+  };
+
+  public FieldScannerTest (String name) {
+    super (name);
+  }
+
+  public void testShippedConfigurations () throws Exception {
+    File[] dirs = new File (CONFIG_DIRECTORY).listFiles();
+    assertNotNull ("no configurations in " + CONFIG_DIRECTORY, dirs);
+    int found = 0;
+    for (int i = 0 ; i < dirs.length ; i++) {
+      File config = new File (dirs[i], "doc_config.xml");
+      if (!config.exists()) {
+        continue;
+      }
+      DocFieldDescriptor[] fds = readDescriptors (config);
+      found += fds.length;
+      compare (config.getPath(), fds);
+    }
+    assertTrue ("no field descriptors found", found > 0);
+  }
+
+  public void testOtherExpressions () throws Exception {
+    DocFieldDescriptor[] fds = new DocFieldDescriptor[EXPRESSIONS.length];
+    for (int i = 0 ; i < fds.length ; i++) {
+      fds[i] = descriptor ("field" + i, EXPRESSIONS[i][0], EXPRESSIONS[i][1]);
+      assertNotNull ("not translated: " + EXPRESSIONS[i][0],
+                     FieldScanner.translate (EXPRESSIONS[i][0]));
+      assertNotNull ("not translated: " + EXPRESSIONS[i][1],
+                     FieldScanner.translate (EXPRESSIONS[i][1]));
+    }
+    compare ("EXPRESSIONS", fds);
+  }
+
+  public void testSameStart () throws Exception {
+    // fields that start at the same place, and one whose start has groups;
+    // a '^' also matches in an empty document
+    compare ("same start", new DocFieldDescriptor[] {
+      descriptor ("s", "^S", "$"),
+      descriptor ("subject", "^Subject:", "$"),
+      descriptor ("organization", "^\\(Organization\\|Org\\): ", "$"),
+      descriptor ("from", "^From: ", "$"),
+      descriptor ("anything", "^", "$"),
+      // ends after the last newline, where only the end itself is left
+      descriptor ("last line", "line\\.\n", "^"),
+    });
+  }
+
+  public void testUntranslatable () throws Exception {
+    assertNull (FieldScanner.translate ("^\\(a\\)\\1"));
+    assertNull (FieldScanner.translate ("\\<word\\>"));
+    assertNull (FieldScanner.translate ("[[=a=]]"));
+    // left to gnu.regexp, and so found just the same
+    compare ("untranslatable", new DocFieldDescriptor[] {
+      descriptor ("back-reference", "^\\(Subject\\):", "$"),
+      descriptor ("word", "\\<From\\>: ", "$"),
+    });
+  }
+
+
+  // -------- HELPER METHODS --------
+  /**
+   * Scans every document with the descriptors, and checks each field
+   * against what gnu.regexp finds. An end that <code>java.util.regex</code>
+   * puts before a <code>'\r'</code>, where <code>gnu.regexp</code> puts it
+   * after, is the same end.
+   */
+  private static void compare (String what, DocFieldDescriptor[] fds)
+    throws Exception {
+    FieldScanner scanner = new FieldScanner (fds);
+    for (int d = 0 ; d < DOCUMENTS.length ; d++) {
+      String text = DOCUMENTS[d];
+      int[] spans;
+      try {
+        spans = scanner.scan (new File ("document" + d), text);
+      }
+      catch (TextParseException e) {
+        spans = null;
+      }
+      boolean missingEnd = false;
+      for (int i = 0 ; i < fds.length ; i++) {
+        String where = what + ", field " + fds[i].getName() + ", document " + d;
+        REMatch start = fds[i].getStart().getMatch (text);
+        if (start == null) {
+          if (spans != null) {
+            assertEquals (where, -1, spans[4 * i]);
+          }
+          continue;
+        }
+        REMatch end = fds[i].getEnd().getMatch (text, start.getEndIndex());
+        if (end == null) {
+          missingEnd = true;
+          continue;
+        }
+        if (spans == null) {
+          continue;
+        }
+        assertEquals (where, start.getStartIndex(), spans[4 * i]);
+        assertEquals (where, start.getEndIndex(), spans[4 * i + 1]);
+        assertEnd (where, text, end.getStartIndex(), spans[4 * i + 2]);
+        assertEnd (where, text, end.getEndIndex(), spans[4 * i + 3]);
+      }
+      assertEquals (what + ", document " + d + ": missing end",
+                    missingEnd, spans == null);
+    }
+  }
+
+  private static void assertEnd (String where, String text,
+                                 int expected, int actual) {
+    if (expected != actual && !(expected == actual + 1 &&
+                                text.charAt (actual) == '\r')) {
+      assertEquals (where, expected, actual);
+    }
+  }
+
+  private static DocFieldDescriptor descriptor (String name, String start,
+                                                String end)
+    throws REException {
+    DocFieldDescriptor fd = new DocFieldDescriptor (name, false, false);
+    fd.setStart (new RE (start, RE.REG_MULTILINE, RESyntax.RE_SYNTAX_SED),
+                 start);
+    fd.setEnd (new RE (end, RE.REG_MULTILINE, RESyntax.RE_SYNTAX_SED), end);
+    return fd;
+  }
+
+  /**
+   * Reads the field descriptors of a configuration, as
+   * <code>DocConfigBuilder</code> would, without the rest of it
+   */
+  private static DocFieldDescriptor[] readDescriptors (File config)
+    throws IOException, REException {
+    StringBuffer xml = new StringBuffer();
+    BufferedReader in = new BufferedReader (new FileReader (config));
+    try {
+      String line;
+      while ((line = in.readLine()) != null) {
+        xml.append (line).append ('\n');
+      }
+    }
+    finally {
+      in.close();
+    }
+    String text = Pattern.compile ("<!--.*?-->", Pattern.DOTALL).
+      matcher (xml).replaceAll ("");
+    Matcher m = Pattern.compile
+      ("<field-descriptor\\s+name=\"([^\"]*)\"[^>]*>\\s*" +
+       "<start>\\s*<regexp>(.*?)</regexp>\\s*</start>\\s*" +
+       "<end>\\s*<regexp>(.*?)</regexp>\\s*</end>", Pattern.DOTALL).
+      matcher (text);
+    Vector fds = new Vector();
+    while (m.find()) {
+      fds.add (descriptor (m.group (1), unescape (m.group (2)),
+                           unescape (m.group (3))));
+    }
+    return (DocFieldDescriptor[]) fds.toArray (new DocFieldDescriptor[0]);
+  }
+
+  private static String unescape (String xml) {
+    return xml.replaceAll ("&lt;", "<").replaceAll ("&gt;", ">").
+      replaceAll ("&quot;", "\"").replaceAll ("&apos;", "'").
+      replaceAll ("&amp;", "&");
+  }
+}
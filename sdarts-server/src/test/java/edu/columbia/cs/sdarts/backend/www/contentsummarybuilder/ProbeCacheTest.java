@@ -0,0 +1,215 @@
+package edu.columbia.cs.sdarts.backend.www.contentsummarybuilder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks that a {@link ProbeCache} left damaged, by a crash or otherwise,
+ * is opened again with what it can still vouch for. Since there is one
+ * <code>ProbeCache</code> for each file, and it keeps the file locked,
+ * each damaged file is a copy, in a directory of its own.
+ *
+ * @version 1.0
+ */
+public class ProbeCacheTest extends TestCase {
+	private static final String DATABASE = "database";
+	private static final String QUERY    = "some words";
+	private static final String URL1     = "http://somewhere.edu/1";
+	private static final String URL2     = "http://somewhere.edu/2";
+	private static final String PAGE1    = "the first page";
+	private static final String PAGE2    = "the second page";
+
+	// type, key length, value length; and the checksum
+	private static final int HEADER  = 9;
+	private static final int TRAILER = 4;
+
+	private File root;
+	private int  directories;
+	// where the probe starts, after the pages
+	private long probe;
+
+	public ProbeCacheTest(String name)
+	{
+		super(name);
+	}
+
+	protected void setUp() throws IOException
+	{
+		root = File.createTempFile("probecache", "");
+		root.delete();
+		root.mkdirs();
+	}
+
+	protected void tearDown()
+	{
+		delete(root);
+	}
+
+	public void testRoundTrip() throws IOException
+	{
+		File dir = fill();
+		ProbeCache cache = ProbeCache.open(dir.getPath());
+		assertEquals(PAGE1, cache.getPage(URL1));
+		assertEquals(PAGE2, cache.getPage(URL2));
+		assertNull(cache.getPage("http://elsewhere.edu/"));
+		assertProbe(cache.getProbe(DATABASE, QUERY));
+		assertNull(cache.getProbe("other", QUERY));
+
+		ProbeCache copy = ProbeCache.open(copy(dir).getPath());
+		assertEquals(PAGE1, copy.getPage(URL1));
+		assertProbe(copy.getProbe(DATABASE, QUERY));
+	}
+
+	public void testHalfWrittenLastRecord() throws IOException
+	{
+		File dir = copy(fill());
+		File file = new File(dir, ProbeCache.FILENAME);
+		RandomAccessFile data = new RandomAccessFile(file, "rw");
+		data.setLength(data.length() - 3);
+		data.close();
+
+		ProbeCache cache = ProbeCache.open(dir.getPath());
+		assertEquals("cut off at the probe", probe, file.length());
+		assertNull(cache.getProbe(DATABASE, QUERY));
+		assertEquals(PAGE1, cache.getPage(URL1));
+		assertEquals(PAGE2, cache.getPage(URL2));
+
+		// written over what was cut off, and found again
+		cache.putProbe(DATABASE, QUERY, 42, new String[] {URL1, URL2});
+		assertProbe(ProbeCache.open(copy(dir).getPath()).getProbe(DATABASE, QUERY));
+	}
+
+	public void testLastRecordWithBadChecksum() throws IOException
+	{
+		File dir = copy(fill());
+		File file = new File(dir, ProbeCache.FILENAME);
+		damage(file, file.length() - TRAILER - 1);
+
+		ProbeCache cache = ProbeCache.open(dir.getPath());
+		assertEquals("cut off at the probe", probe, file.length());
+		assertNull(cache.getProbe(DATABASE, QUERY));
+		assertEquals(PAGE2, cache.getPage(URL2));
+	}
+
+	public void testBadChecksumIsMiss() throws IOException
+	{
+		File dir = copy(fill());
+		File file = new File(dir, ProbeCache.FILENAME);
+		long length = file.length();
+		// a byte of the value of the first page
+		damage(file, HEADER + URL1.length() + 2);
+
+		ProbeCache cache = ProbeCache.open(dir.getPath());
+		assertEquals("not cut off", length, file.length());
+		assertNull(cache.getPage(URL1));
+		assertEquals(PAGE2, cache.getPage(URL2));
+		assertProbe(cache.getProbe(DATABASE, QUERY));
+
+		// kept again, and the later record is the one found
+		cache.putPage(URL1, PAGE1);
+		assertEquals(PAGE1, cache.getPage(URL1));
+		assertEquals(PAGE1, ProbeCache.open(copy(dir).getPath()).getPage(URL1));
+	}
+
+	public void testInterrupted() throws IOException
+	{
+		File dir = fill();
+		ProbeCache cache = ProbeCache.open(dir.getPath());
+		// as a download cancelled by a shutdown would be
+		Thread.currentThread().interrupt();
+		try {
+			cache.putPage(URL1, PAGE2);
+			assertEquals(PAGE2, cache.getPage(URL1));
+		}
+		finally {
+			Thread.interrupted();
+		}
+		// the cache is still open, and still locked
+		assertEquals(PAGE2, cache.getPage(URL1));
+		cache.putPage(URL2, PAGE1);
+		assertEquals(PAGE1, cache.getPage(URL2));
+	}
+
+
+
+	// -------- HELPER METHODS --------
+	/**
+	 * Opens a cache in a new directory, keeps two pages and a probe, and
+	 * returns the directory
+	 */
+	private File fill() throws IOException
+	{
+		File dir = directory();
+		ProbeCache cache = ProbeCache.open(dir.getPath());
+		cache.putPage(URL1, PAGE1);
+		cache.putPage(URL2, PAGE2);
+		probe = new File(dir, ProbeCache.FILENAME).length();
+		cache.putProbe(DATABASE, QUERY, 42, new String[] {URL1, URL2});
+		return dir;
+	}
+
+	private static void assertProbe(ProbeCache.Probe probe)
+	{
+		assertNotNull("probe", probe);
+		assertEquals(42, probe.getHits());
+		assertEquals(2, probe.getURLs().length);
+		assertEquals(URL1, probe.getURLs()[0]);
+		assertEquals(URL2, probe.getURLs()[1]);
+	}
+
+	private File directory()
+	{
+		File dir = new File(root, "cache" + (directories++));
+		dir.mkdirs();
+		return dir;
+	}
+
+	/** Copies the file of a cache into a new directory, and returns it */
+	private File copy(File from) throws IOException
+	{
+		File dir = directory();
+		InputStream in = new FileInputStream(new File(from, ProbeCache.FILENAME));
+		OutputStream out = new FileOutputStream(new File(dir, ProbeCache.FILENAME));
+		try {
+			byte[] buffer = new byte[8192];
+			int n;
+			while ((n = in.read(buffer)) != -1)
+				out.write(buffer, 0, n);
+		}
+		finally {
+			in.close();
+			out.close();
+		}
+		return dir;
+	}
+
+	/** Flips the bits of a byte of a file */
+	private static void damage(File file, long position) throws IOException
+	{
+		RandomAccessFile data = new RandomAccessFile(file, "rw");
+		try {
+			data.seek(position);
+			int b = data.read();
+			data.seek(position);
+			data.write(~b);
+		}
+		finally {
+			data.close();
+		}
+	}
+
+	private static void delete(File file)
+	{
+		File[] files = file.listFiles();
+		for (int i = 0; files != null && i < files.length; i++)
+			delete(files[i]);
+		file.delete();
+	}
+}
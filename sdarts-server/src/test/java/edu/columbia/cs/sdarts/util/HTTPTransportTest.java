@@ -0,0 +1,214 @@
+package edu.columbia.cs.sdarts.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import junit.framework.TestCase;
+
+/**
+ * Checks {@link HTTPTransport} against a server on the loopback interface:
+ * that it keeps connections alive, keeps to its number of connections to
+ * a host, uncompresses gzip bodies, and gives up on a server that does not
+ * answer.
+ *
+ * @version 1.0
+ */
+public class HTTPTransportTest extends TestCase {
+  private static final String BODY = "the body of the response\n";
+
+  private HttpServer      server;
+  private ExecutorService executor;
+  // released at the end of each test, for the handlers that wait on it
+  private CountDownLatch  release = new CountDownLatch (1);
+  private Set             clients = Collections.synchronizedSet (new HashSet());
+  private int             open;
+  private int             mostOpen;
+  private String          acceptEncoding;
+
+  public HTTPTransportTest (String name) {
+    super (name);
+  }
+
+  protected void setUp () throws IOException {
+    server = HttpServer.create (new InetSocketAddress ("127.0.0.1", 0), 0);
+    executor = Executors.newCachedThreadPool();
+    server.setExecutor (executor);
+    server.createContext ("/plain", new HttpHandler() {
+      public void handle (HttpExchange exchange) throws IOException {
+        clients.add (exchange.getRemoteAddress());
+        send (exchange, BODY.getBytes ("ISO-8859-1"), null);
+      }
+    });
+    server.createContext ("/gzip", new HttpHandler() {
+      public void handle (HttpExchange exchange) throws IOException {
+        acceptEncoding =
+          exchange.getRequestHeaders().getFirst ("Accept-Encoding");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        OutputStream out = new GZIPOutputStream (bytes);
+        out.write (BODY.getBytes ("ISO-8859-1"));
+        out.close();
+        send (exchange, bytes.toByteArray(), "gzip");
+      }
+    });
+    server.createContext ("/slow", new HttpHandler() {
+      public void handle (HttpExchange exchange) throws IOException {
+        synchronized (HTTPTransportTest.this) {
+          mostOpen = Math.max (mostOpen, ++open);
+        }
+        try {
+          release.await (10, TimeUnit.SECONDS);
+        }
+        catch (InterruptedException e) {
+        }
+        synchronized (HTTPTransportTest.this) {
+          open--;
+        }
+        send (exchange, BODY.getBytes ("ISO-8859-1"), null);
+      }
+    });
+    server.start();
+  }
+
+  protected void tearDown () {
+    release.countDown();
+    server.stop (0);
+    executor.shutdownNow();
+  }
+
+  public void testKeepAlive () throws IOException {
+    HTTPTransport transport = transport ("keep-alive", 5000, 2);
+    for (int i = 0 ; i < 5 ; i++) {
+      assertEquals (BODY, read (transport.open (url ("/plain"), null, null,
+                                                true)));
+    }
+    assertEquals ("connections opened", 1, clients.size());
+  }
+
+  public void testConnectionsPerHost () throws Exception {
+    final HTTPTransport transport = transport ("connections", 5000, 2);
+    final Exception[] failure = new Exception[1];
+    Thread[] threads = new Thread[5];
+    for (int i = 0 ; i < threads.length ; i++) {
+      threads[i] = new Thread() {
+        public void run () {
+          try {
+            read (transport.open (url ("/slow"), null, null, true));
+          }
+          catch (Exception e) {
+            failure[0] = e;
+          }
+        }
+      };
+      threads[i].start();
+    }
+    // time enough for all of them to get through, if nothing held them back
+    Thread.sleep (500);
+    synchronized (this) {
+      assertEquals ("requests at the server", 2, open);
+    }
+    release.countDown();
+    for (int i = 0 ; i < threads.length ; i++) {
+      threads[i].join (10000);
+    }
+    assertNull (failure[0]);
+    assertEquals ("most requests at the server at once", 2, mostOpen);
+  }
+
+  public void testGzip () throws IOException {
+    HTTPTransport transport = transport ("gzip", 5000, 2);
+    assertEquals (BODY, read (transport.open (url ("/gzip"), null, null,
+                                              true)));
+    assertEquals ("gzip", acceptEncoding);
+  }
+
+  public void testReadTimeout () throws IOException {
+    HTTPTransport transport = transport ("read-timeout", 300, 2);
+    long start = System.currentTimeMillis();
+    try {
+      read (transport.open (url ("/slow"), null, null, true));
+      fail ("no timeout");
+    }
+    catch (SocketTimeoutException e) {
+    }
+    long took = System.currentTimeMillis() - start;
+    assertTrue ("timed out after " + took + " ms", took < 5000);
+  }
+
+  public void testConnectionWait () throws IOException {
+    HTTPTransport transport = transport ("connection-wait", 100, 1);
+    // never closed, so its connection is never given back
+    InputStream held = transport.open (url ("/plain"), null, null, true);
+    long start = System.currentTimeMillis();
+    try {
+      transport.open (url ("/plain"), null, null, true);
+      fail ("no timeout");
+    }
+    catch (SocketTimeoutException e) {
+    }
+    long took = System.currentTimeMillis() - start;
+    assertTrue ("gave up after " + took + " ms",
+                took >= HTTPTransport.CONNECTION_WAIT * 100 - 50 &&
+                took < 5000);
+    held.close();
+    assertEquals (BODY, read (transport.open (url ("/plain"), null, null,
+                                              true)));
+  }
+
+
+  // -------- HELPER METHODS --------
+  private static HTTPTransport transport (String name, int readTimeout,
+                                          int connections) {
+    name = HTTPTransportTest.class.getName() + "." + name;
+    HTTPTransport.configure (name, 5000, readTimeout, connections, 0, 0,
+                             LegalCharsInputStream.NONE);
+    return HTTPTransport.getTransport (name);
+  }
+
+  private URL url (String path) throws IOException {
+    return new URL ("http://127.0.0.1:" + server.getAddress().getPort() +
+                    path);
+  }
+
+  /** Reads a response to the end, and closes it */
+  private static String read (InputStream in) throws IOException {
+    try {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      byte[] buffer = new byte[4096];
+      int n;
+      while ((n = in.read (buffer)) != -1) {
+        out.write (buffer, 0, n);
+      }
+      return out.toString ("ISO-8859-1");
+    }
+    finally {
+      in.close();
+    }
+  }
+
+  private static void send (HttpExchange exchange, byte[] body,
+                            String encoding) throws IOException {
+    if (encoding != null) {
+      exchange.getResponseHeaders().set ("Content-Encoding", encoding);
+    }
+    exchange.sendResponseHeaders (200, body.length);
+    OutputStream out = exchange.getResponseBody();
+    out.write (body);
+    out.close();
+  }
+}
@@ -0,0 +1,257 @@
+package edu.columbia.cs.sdarts.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks {@link LegalCharsInputStream} against simple filters that look at
+ * one byte or one sequence at a time: the <code>indexOf</code> test the
+ * stream used to make for <code>ASCII</code> and <code>LATIN_1</code>,
+ * and a strict UTF-8 decoder for <code>UTF_8</code>. Every input is read
+ * with every read size from one byte up, from streams that hand over a
+ * few bytes at a time, so that UTF-8 sequences are split across reads.
+ *
+ * @version 1.0
+ */
+public class LegalCharsInputStreamTest extends TestCase {
+  private static final String legalChars =
+    " abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789`~!@#$%^&*()-_=+\\|,<.>/?;:'\"[{]}\n\r\t";
+
+  private static final Charset UTF8 = Charset.forName ("UTF-8");
+
+  // the most bytes the filtered stream hands over at a time; 0 for all
+  private static final int[] CHUNKS = {0, 1, 2, 3, 5, 7};
+  // read sizes beyond 1 to 9
+  private static final int[] READS = {16, 100, 4096};
+
+  public LegalCharsInputStreamTest (String name) {
+    super (name);
+  }
+
+  public void testASCII () throws IOException {
+    byte[][] inputs = inputs();
+    for (int i = 0 ; i < inputs.length ; i++) {
+      check ("input " + i, LegalCharsInputStream.ASCII, inputs[i],
+             oldFilter (inputs[i], false));
+    }
+  }
+
+  public void testLatin1 () throws IOException {
+    byte[][] inputs = inputs();
+    for (int i = 0 ; i < inputs.length ; i++) {
+      check ("input " + i, LegalCharsInputStream.LATIN_1, inputs[i],
+             oldFilter (inputs[i], true));
+    }
+  }
+
+  public void testUTF8 () throws IOException {
+    byte[][] inputs = inputs();
+    for (int i = 0 ; i < inputs.length ; i++) {
+      byte[] expected = utf8Filter (inputs[i]);
+      assertWellFormed ("input " + i, expected);
+      check ("input " + i, LegalCharsInputStream.UTF_8, inputs[i], expected);
+    }
+  }
+
+  public void testUTF8Text () throws IOException {
+    String text = "caf\u00e9 \u00fcber \u65e5\u672c\u8a9e \ud83d\ude00 \u20ac5\n";
+    byte[] bytes = text.getBytes ("UTF-8");
+    check ("text", LegalCharsInputStream.UTF_8, bytes, bytes);
+  }
+
+  public void testUTF8Malformed () throws IOException {
+    // overlong, surrogate, past U+10FFFF, stray continuation, cut short
+    byte[] bytes = {
+      'a', (byte) 0xC0, (byte) 0xAF, 'b', (byte) 0xE0, (byte) 0x80,
+      (byte) 0xAF, 'c', (byte) 0xED, (byte) 0xA0, (byte) 0x80, 'd',
+      (byte) 0xF4, (byte) 0x90, (byte) 0x80, (byte) 0x80, 'e', (byte) 0x80,
+      (byte) 0xBF, 'f', (byte) 0xE2, (byte) 0x82, 'g', (byte) 0xF0,
+      (byte) 0x9F, (byte) 0x98,
+    };
+    check ("malformed", LegalCharsInputStream.UTF_8, bytes,
+           "abcdefg".getBytes ("US-ASCII"));
+  }
+
+  public void testNone () throws IOException {
+    byte[][] inputs = inputs();
+    for (int i = 0 ; i < inputs.length ; i++) {
+      check ("input " + i, LegalCharsInputStream.NONE, inputs[i], inputs[i]);
+    }
+  }
+
+  public void testModeNames () {
+    for (int mode = LegalCharsInputStream.ASCII ;
+         mode <= LegalCharsInputStream.NONE ; mode++) {
+      assertEquals (mode, LegalCharsInputStream.getMode
+                    (LegalCharsInputStream.getModeName (mode).toUpperCase()));
+    }
+    assertEquals (-1, LegalCharsInputStream.getMode ("ebcdic"));
+  }
+
+
+  // -------- HELPER METHODS --------
+  /**
+   * Reads the input through the stream in every way, and checks that the
+   * same bytes come out each time
+   */
+  private static void check (String what, int mode, byte[] input,
+                             byte[] expected) throws IOException {
+    for (int c = 0 ; c < CHUNKS.length ; c++) {
+      for (int size = 1 ; size <= 9 + READS.length ; size++) {
+        int len = (size <= 9) ? size : READS[size - 10];
+        String where = what + ", chunks of " + CHUNKS[c] + ", reads of " + len;
+        InputStream in = new LegalCharsInputStream
+          (new ChunkedInputStream (input, CHUNKS[c]), mode);
+        assertBytes (where, expected, readAll (in, len));
+      }
+      String where = what + ", chunks of " + CHUNKS[c] + ", read()";
+      InputStream in = new LegalCharsInputStream
+        (new ChunkedInputStream (input, CHUNKS[c]), mode);
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      int b;
+      while ((b = in.read()) != -1) {
+        out.write (b);
+      }
+      assertBytes (where, expected, out.toByteArray());
+    }
+  }
+
+  /** Reads a stream to the end, at most <code>len</code> bytes a time */
+  private static byte[] readAll (InputStream in, int len) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    // not at the start of the array, to catch a wrong offset
+    byte[] buffer = new byte[len + 3];
+    int n;
+    while ((n = in.read (buffer, 2, len)) != -1) {
+      assertTrue ("read " + n + " of " + len, n > 0 && n <= len);
+      out.write (buffer, 2, n);
+    }
+    return out.toByteArray();
+  }
+
+  private static void assertBytes (String where, byte[] expected,
+                                   byte[] actual) {
+    assertEquals (where + ": length", expected.length, actual.length);
+    for (int i = 0 ; i < expected.length ; i++) {
+      assertEquals (where + ": byte " + i, expected[i], actual[i]);
+    }
+  }
+
+  private static void assertWellFormed (String where, byte[] bytes) {
+    try {
+      decoder().decode (ByteBuffer.wrap (bytes));
+    }
+    catch (CharacterCodingException e) {
+      fail (where + ": not well-formed UTF-8");
+    }
+  }
+
+  /** The filter the stream used to apply, one byte at a time */
+  private static byte[] oldFilter (byte[] input, boolean latin1) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    for (int i = 0 ; i < input.length ; i++) {
+      int c = input[i] & 0xff;
+      if (legalChars.indexOf (c) != -1 || (latin1 && c >= 0xA0)) {
+        out.write (c);
+      }
+    }
+    return out.toByteArray();
+  }
+
+  /**
+   * Keeps the legal ASCII bytes, and each multi-byte sequence that a
+   * strict decoder accepts on its own; drops every other byte
+   */
+  private static byte[] utf8Filter (byte[] input) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    int i = 0;
+    while (i < input.length) {
+      int c = input[i] & 0xff;
+      if (c < 0x80) {
+        if (legalChars.indexOf (c) != -1) {
+          out.write (c);
+        }
+        i++;
+        continue;
+      }
+      int length = (c >= 0xF0) ? 4 : (c >= 0xE0) ? 3 : (c >= 0xC0) ? 2 : 1;
+      if (length > 1 && i + length <= input.length) {
+        try {
+          decoder().decode (ByteBuffer.wrap (input, i, length));
+          out.write (input, i, length);
+          i += length;
+          continue;
+        }
+        catch (CharacterCodingException e) {
+        }
+      }
+      i++;
+    }
+    return out.toByteArray();
+  }
+
+  private static CharsetDecoder decoder () {
+    return UTF8.newDecoder().
+      onMalformedInput (CodingErrorAction.REPORT).
+      onUnmappableCharacter (CodingErrorAction.REPORT);
+  }
+
+  /**
+   * Random bytes, random bytes that are mostly UTF-8 lead and
+   * continuation bytes, and random text of one- to four-byte characters
+   */
+  private static byte[][] inputs () throws IOException {
+    Random random = new Random (20061018);
+    byte[][] inputs = new byte[12][];
+    for (int i = 0 ; i < inputs.length ; i++) {
+      int length = 1 + random.nextInt (300);
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      while (out.size() < length) {
+        switch (i % 3) {
+        case 0:
+          out.write (random.nextInt (256));
+          break;
+        case 1:
+          out.write ((random.nextInt (4) == 0) ? random.nextInt (256) :
+                     (random.nextBoolean() ? 0x80 + random.nextInt (0x40) :
+                      0xC0 + random.nextInt (0x40)));
+          break;
+        default:
+          int[] starts = {0x20, 0xA0, 0x800, 0xD7F0, 0xE000, 0xFFF0, 0x10000,
+                          0x10FFF0};
+          int cp = starts[random.nextInt (starts.length)] + random.nextInt (16);
+          out.write (new String (Character.toChars (cp)).getBytes ("UTF-8"));
+          break;
+        }
+      }
+      inputs[i] = out.toByteArray();
+    }
+    return inputs;
+  }
+
+
+  // ------------ INNER CLASSES ------------
+  // ----- Hands over at most a few bytes at each read
+  private static class ChunkedInputStream extends ByteArrayInputStream {
+    private int chunk;
+
+    ChunkedInputStream (byte[] bytes, int chunk) {
+      super (bytes);
+      this.chunk = chunk;
+    }
+
+    public synchronized int read (byte[] b, int off, int len) {
+      return super.read (b, off, (chunk > 0) ? Math.min (len, chunk) : len);
+    }
+  }
+}